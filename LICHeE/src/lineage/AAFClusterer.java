@@ -32,15 +32,16 @@ package lineage;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Random;
-
-import weka.clusterers.ClusterEvaluation;
-import weka.clusterers.EM;
-import weka.clusterers.SimpleKMeans;
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
-import weka.core.Instances;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
 /**
  * Simple implementation of a few clustering techniques
@@ -60,6 +61,38 @@ public class AAFClusterer implements Serializable {
 	 * m = 2 in absence of knowledge) */
 	protected static final int DEFAULT_FUZZIFIER = 2;
 	
+	/** Maximum number of iterations of the K-Means, EM and Fuzzy C-Means algorithms */
+	private static final int MAX_NUM_ITERATIONS = 100;
+	
+	/** Seed of the random number generator used for initialization (results are reproducible) */
+	private static final long RANDOM_SEED = 100;
+	
+	/** Maximum number of mixture components considered by EM */
+	private static final int EM_MAX_NUM_CLUSTERS = 30;
+	
+	/** Number of random initializations of EM per number of components */
+	private static final int EM_NUM_RESTARTS = 5;
+	
+	/** EM stops adding components after this many consecutive increments without a BIC improvement */
+	private static final int EM_BIC_PATIENCE = 2;
+	
+	/** Minimum standard deviation of an EM mixture component (per sample) */
+	private static final double EM_MIN_STD_DEV = 0.01;
+	
+	/** Minimum number of observations for the candidate numbers of EM components to be fitted concurrently */
+	private static final int EM_PARALLEL_MIN_NUM_OBS = 500;
+	
+	/** Worker threads used to fit the candidate EM mixtures */
+	private static ExecutorService modelSelectionPool;
+	
+	/** Version of the clustering algorithms (changing it invalidates the cached clustering results) */
+	private static final int CLUSTERING_VERSION = 2;
+	
+	/** Cache of the clustering results of the groups (shared by all clusterer instances) */
+	private static ClusteringCache clusteringCache = new ClusteringCache(Parameters.CLUSTERING_CACHE_SIZE);
+	
+	private static Logger logger = LineageEngine.logger;
+	
 	/** Clustering algorithms */
 	public enum ClusteringAlgorithms {
 		KMEANS,
@@ -74,20 +107,56 @@ public class AAFClusterer implements Serializable {
 	
 	/**
 	 * Clustering dispatcher
+	 * Results are looked up in the clustering cache first, 
+	 * so identical groups are only clustered once
 	 * @requires the number of SNVs in a group to be bigger than 1
 	 * @param group - SNV group to cluster based on AAF data
 	 * @param alg - algorithm to use for clustering
+	 * @return new cluster objects (not shared with the cache or other groups)
+	 */
+	public Cluster[] clusterSubPopulations(SNVGroup group, ClusteringAlgorithms alg, int minNumClusters) {
+		String settings = "v" + CLUSTERING_VERSION + "," + alg + "," + minNumClusters + ",coreset=" + Parameters.CORESET_SIZE;
+		double[][] data = group.getAlleleFreqBySample();
+		String key = ClusteringCache.getKey(data, group.getNumSNVs(), group.getNumSamples(), settings);
+		Cluster[] clusters = clusteringCache.get(key);
+		if(clusters == null) {
+			clusters = cluster(data, group, alg, minNumClusters);
+			if(clusters == null) return null;
+			clusteringCache.put(key, copyClusters(clusters));
+		} else {
+			clusters = copyClusters(clusters);
+		}
+		return clusters;
+	}
+	
+	/**
+	 * Sets the directory where clustering results are stored to be reused across runs
 	 */
-	public Cluster[] clusterSubPopulations(SNVGroup group, ClusteringAlgorithms alg, int minNumClusters) {		
+	public static void setClusteringCacheDirectory(String dirName) {
+		clusteringCache.setDirectory(dirName);
+	}
+	
+	private Cluster[] copyClusters(Cluster[] clusters) {
+		Cluster[] copy = new Cluster[clusters.length];
+		for(int i = 0; i < clusters.length; i++) {
+			copy[i] = new Cluster(clusters[i]);
+		}
+		return copy;
+	}
+	
+	private Cluster[] cluster(double[][] data, SNVGroup group, ClusteringAlgorithms alg, int minNumClusters) {
 		switch(alg) {
 		case FUZZYCMEANS:
-			return fuzzyCMeans(group.getAlleleFreqBySample(), group.getNumSNVs(), 
+			return fuzzyCMeans(data, group.getNumSNVs(), 
 					group.getNumSamples(), minNumClusters, 
 					AAFClusterer.DEFAULT_FUZZIFIER, DistanceMetric.EUCLIDEAN);
 		case KMEANS:
-			return kmeans(group.getAlleleFreqBySample(), group.getNumSNVs(), group.getNumSamples(), minNumClusters);
+			return kmeans(data, group.getNumSNVs(), group.getNumSamples(), minNumClusters);
 		case EM:
-			return em(group.getAlleleFreqBySample(), group.getNumSNVs(), group.getNumSamples());
+			if(group.getNumSamples() == 1) {
+				return cluster1D(data, group.getNumSNVs());
+			}
+			return em(data, group.getNumSNVs(), group.getNumSamples());
 		default:
 			return null;	
 		}
@@ -98,107 +167,643 @@ public class AAFClusterer implements Serializable {
 	// ---- K-Means ----
 	
 	/**
-	 * K-Means Clustering
+	 * K-Means Clustering (Lloyd's algorithm with k-means++ seeding)
 	 * @param data - matrix of observations (numObs x numFeatures)
 	 * @param k - number of clusters
 	 */
 	public Cluster[] kmeans(double[][] data, int numObs, int numFeatures, int k) {
-		Instances ds = convertMatrixToWeka(data, numObs, numFeatures);
-		
-		// uses Euclidean distance by default
-		SimpleKMeans clusterer = new SimpleKMeans();
-		try {
-			clusterer.setPreserveInstancesOrder(true);
-			clusterer.setNumClusters(k);
-			clusterer.buildClusterer(ds);
-			
-			// cluster centers
-			Instances centers = clusterer.getClusterCentroids();
-			Cluster[] clusters = new Cluster[centers.numInstances()];
-			for(int i = 0; i < centers.numInstances(); i++) {
-				Instance inst = centers.instance(i);
-				double[] mean = new double[inst.numAttributes()];
-				for(int j = 0; j < mean.length; j++) {
-					mean[j] = inst.value(j);
+		Random rand = new Random(RANDOM_SEED);
+		k = Math.min(k, numObs);
+		double[][] centroids = new double[k][numFeatures];
+		seedCentroids(data, null, numObs, numFeatures, k, rand, centroids);
+		
+		int[] assignments = new int[numObs];
+		int[] clusterCount = new int[k];
+		double[][] sums = new double[k][numFeatures];
+		Arrays.fill(assignments, -1);
+		for(int iter = 0; iter < MAX_NUM_ITERATIONS; iter++) {
+			// assign each observation to the closest centroid
+			boolean changed = false;
+			for(int i = 0; i < numObs; i++) {
+				int closest = 0;
+				double minDist = getSquaredDistance(data[i], centroids[0], numFeatures);
+				for(int c = 1; c < k; c++) {
+					double dist = getSquaredDistance(data[i], centroids[c], numFeatures);
+					if(dist < minDist) {
+						minDist = dist;
+						closest = c;
+					}
+				}
+				if(assignments[i] != closest) {
+					assignments[i] = closest;
+					changed = true;
 				}
-				clusters[i] = new Cluster(mean, i);
 			}
+			if(!changed) break;
 			
-			// cluster members
-			int[] assignments = clusterer.getAssignments();
-			for(int i = 0; i < assignments.length; i++) {
-				clusters[assignments[i]].addMember(i);
+			// recompute the centroids (empty clusters keep their previous centroid)
+			Arrays.fill(clusterCount, 0);
+			for(int c = 0; c < k; c++) {
+				Arrays.fill(sums[c], 0);
+			}
+			for(int i = 0; i < numObs; i++) {
+				clusterCount[assignments[i]]++;
+				for(int j = 0; j < numFeatures; j++) {
+					sums[assignments[i]][j] += data[i][j];
+				}
+			}
+			for(int c = 0; c < k; c++) {
+				if(clusterCount[c] == 0) continue;
+				for(int j = 0; j < numFeatures; j++) {
+					centroids[c][j] = sums[c][j]/clusterCount[c];
+				}
 			}
-			return clusters;
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.exit(-1);
-			return null;
 		}
-		
+		return getHardClusters(data, assignments, numObs, numFeatures, k);
 	}
 	
+	// ---- Expectation Maximization ----
+	
 	/**
 	 * Expectation Maximization clustering
+	 * Fits a mixture of Gaussians with diagonal covariance for an increasing number of components 
+	 * and selects the number of clusters with the best Bayesian information criterion (BIC) score.
+	 * Observations are assigned to the component with the highest posterior probability.
+	 * Groups larger than the coreset size are fitted on a weighted summary of the observations.
 	 * @param data - matrix of observations (numObs x numFeatures)
-	 * @param k - number of clusters
 	 */
 	public Cluster[] em(double[][] data, int numObs, int numFeatures) {
-		Instances ds = convertMatrixToWeka(data, numObs, numFeatures);
-		EM clusterer = new EM();
-		try {
-			clusterer.buildClusterer(ds);
-			ClusterEvaluation eval = new ClusterEvaluation();                                        
-			eval.setClusterer(clusterer);                                  
-			eval.evaluateClusterer(new Instances(ds));                               
-			int numClusters = eval.getNumClusters();
-			
-			Cluster[] clusters = new Cluster[numClusters];
-			double[][] clusterCentroids = new double[numClusters][numFeatures];
-			int[] clusterCount = new int[numClusters];
-			
-			double[] assignments = eval.getClusterAssignments();
-			for(int i = 0; i < ds.numInstances(); i++) {
-				Instance inst = ds.instance(i);
-				int clusterId = (int) assignments[i];
+		double[][] points;
+		double[] pointWeights;
+		if(Parameters.CORESET_SIZE > 0 && numObs > Parameters.CORESET_SIZE) {
+			int[] obsBin = new int[numObs];
+			int numBins = getGridCoreset(data, numObs, numFeatures, Parameters.CORESET_SIZE, obsBin);
+			points = new double[numBins][numFeatures];
+			pointWeights = new double[numBins];
+			for(int i = 0; i < numObs; i++) {
+				pointWeights[obsBin[i]]++;
 				for(int j = 0; j < numFeatures; j++) {
-					clusterCentroids[clusterId][j] += inst.value(j);
+					points[obsBin[i]][j] += data[i][j];
 				}
-				clusterCount[clusterId]++;
 			}
-			
-			for(int i = 0; i < numClusters; i++) {
-				double[] mean = new double[numFeatures];
+			for(int b = 0; b < numBins; b++) {
 				for(int j = 0; j < numFeatures; j++) {
-					mean[j] = clusterCentroids[i][j]/clusterCount[i];
+					points[b][j] /= pointWeights[b];
+				}
+			}
+		} else {
+			points = data;
+			pointWeights = new double[numObs];
+			Arrays.fill(pointWeights, 1.0);
+		}
+		GaussianMixture model = fitBestMixture(points, pointWeights, pointWeights.length, numFeatures);
+		
+		int[] assignments = new int[numObs];
+		for(int i = 0; i < numObs; i++) {
+			assignments[i] = model.getMostLikelyComponent(data[i]);
+		}
+		return getHardClusters(data, assignments, numObs, numFeatures, model.k);
+	}
+	
+	/**
+	 * Fits mixtures with an increasing number of components to the weighted points
+	 * Candidate numbers of components are fitted concurrently in batches (one per worker thread);
+	 * each candidate uses its own seeded random number generator, so the result does not depend 
+	 * on the number of threads
+	 * @return the mixture with the best BIC score (the one with fewer components on ties)
+	 */
+	private GaussianMixture fitBestMixture(final double[][] data, final double[] dataWeights, final int numObs, final int numFeatures) {
+		int maxK = Math.min(numObs, EM_MAX_NUM_CLUSTERS);
+		double totalWeight = 0;
+		for(int i = 0; i < numObs; i++) {
+			totalWeight += dataWeights[i];
+		}
+		final double[] dataVar = getVariance(data, dataWeights, numObs, numFeatures);
+		int batchSize = (numObs >= EM_PARALLEL_MIN_NUM_OBS) ? Math.max(1, Parameters.NUM_THREADS) : 1;
+		
+		GaussianMixture bestModel = null;
+		double bestBIC = Double.MAX_VALUE;
+		int numNoImprovement = 0;
+		for(int firstK = 1; firstK <= maxK && numNoImprovement < EM_BIC_PATIENCE; firstK += batchSize) {
+			int lastK = Math.min(maxK, firstK + batchSize - 1);
+			GaussianMixture[] models = new GaussianMixture[lastK - firstK + 1];
+			if(models.length == 1) {
+				models[0] = fitMixtureRestarts(data, dataWeights, numObs, numFeatures, firstK, dataVar);
+			} else {
+				ArrayList<Future<GaussianMixture>> results = new ArrayList<Future<GaussianMixture>>();
+				for(int k = firstK; k <= lastK; k++) {
+					final int numComponents = k;
+					results.add(getModelSelectionPool().submit(new Callable<GaussianMixture>() {
+						public GaussianMixture call() {
+							return fitMixtureRestarts(data, dataWeights, numObs, numFeatures, numComponents, dataVar);
+						}
+					}));
+				}
+				try {
+					for(int i = 0; i < models.length; i++) {
+						models[i] = results.get(i).get();
+					}
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
 				}
-				clusters[i] = new Cluster(mean, i);
 			}
 			
-			// cluster members & std dev
-			double[][] clusterStdDev = new double[numClusters][numFeatures];
-			for(int i = 0; i < ds.numInstances(); i++) {
-				int clusterId = (int)assignments[i];
-				clusters[clusterId].addMember(i);
-				for(int j = 0; j < numFeatures; j++) {
-					clusterStdDev[clusterId][j] += Math.pow(ds.instance(i).value(j) - clusters[clusterId].getCentroid()[j], 2);
+			// evaluate the candidates in order of the number of components
+			for(GaussianMixture model : models) {
+				int numParams = model.k*2*numFeatures + (model.k - 1);
+				double bic = -2*model.logLikelihood + numParams*Math.log(totalWeight);
+				if(bic < bestBIC) {
+					bestBIC = bic;
+					bestModel = model;
+					numNoImprovement = 0;
+				} else if(++numNoImprovement >= EM_BIC_PATIENCE) {
+					break;
+				}
+			}
+		}
+		return bestModel;
+	}
+	
+	/**
+	 * Fits a k-component mixture from several random initializations
+	 * @return the fitted mixture with the highest likelihood
+	 */
+	private GaussianMixture fitMixtureRestarts(double[][] data, double[] dataWeights, int numObs, int numFeatures, 
+			int k, double[] dataVar) {
+		Random rand = new Random(RANDOM_SEED + k);
+		GaussianMixture model = new GaussianMixture(k, numFeatures);
+		GaussianMixture bestModel = new GaussianMixture(k, numFeatures);
+		double[][] resp = new double[numObs][k];
+		bestModel.logLikelihood = -Double.MAX_VALUE;
+		int numRestarts = (k == 1) ? 1 : EM_NUM_RESTARTS;
+		for(int r = 0; r < numRestarts; r++) {
+			double logLikelihood = fitMixture(data, dataWeights, numObs, numFeatures, k, rand, dataVar, model, resp);
+			if(logLikelihood > bestModel.logLikelihood) {
+				bestModel.copy(model);
+				bestModel.logLikelihood = logLikelihood;
+			}
+		}
+		return bestModel;
+	}
+	
+	/**
+	 * Returns the pool of worker threads used to fit the candidate mixtures
+	 * (daemon threads, separate from the group clustering pool since group tasks wait for these)
+	 */
+	private static synchronized ExecutorService getModelSelectionPool() {
+		if(modelSelectionPool == null) {
+			modelSelectionPool = Executors.newFixedThreadPool(Math.max(1, Parameters.NUM_THREADS), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "lichee-em");
+					t.setDaemon(true);
+					return t;
 				}
+			});
+		}
+		return modelSelectionPool;
+	}
+	
+	/**
+	 * Fits a k-component diagonal Gaussian mixture to the weighted points 
+	 * (the model parameters and posterior probabilities are written to the given buffers)
+	 * @return log-likelihood of the data under the fitted model
+	 */
+	private double fitMixture(double[][] data, double[] dataWeights, int numObs, int numFeatures, int k, 
+			Random rand, double[] dataVar, GaussianMixture model, double[][] resp) {
+		// initialization: k-means++ seeds, shared variance, equal weights
+		model.k = k;
+		seedCentroids(data, dataWeights, numObs, numFeatures, k, rand, model.means);
+		for(int c = 0; c < k; c++) {
+			model.weights[c] = 1.0/k;
+			System.arraycopy(dataVar, 0, model.vars[c], 0, numFeatures);
+		}
+		double totalWeight = 0;
+		for(int i = 0; i < numObs; i++) {
+			totalWeight += dataWeights[i];
+		}
+		
+		double logLikelihood = -Double.MAX_VALUE;
+		for(int iter = 0; ; iter++) {
+			// E-step
+			model.computeLogNorms();
+			double newLogLikelihood = 0;
+			for(int i = 0; i < numObs; i++) {
+				newLogLikelihood += dataWeights[i]*model.getPosteriors(data[i], resp[i]);
 			}
+			boolean converged = Math.abs(newLogLikelihood - logLikelihood) <= CONVERGENCE_THRESHOLD*Math.abs(newLogLikelihood);
+			logLikelihood = newLogLikelihood;
+			if(converged || iter == MAX_NUM_ITERATIONS) break;
 			
-			for(int i = 0; i < numClusters; i++) {
-				double[] dev = new double[numFeatures];
+			// M-step
+			boolean reseeded = false;
+			for(int c = 0; c < k; c++) {
+				double[] mean = model.means[c];
+				double[] var = model.vars[c];
+				double n = 0;
+				Arrays.fill(mean, 0);
+				for(int i = 0; i < numObs; i++) {
+					double r = resp[i][c]*dataWeights[i];
+					n += r;
+					for(int j = 0; j < numFeatures; j++) {
+						mean[j] += r*data[i][j];
+					}
+				}
+				if(n < 1e-10) {
+					// re-seed an empty component at a random observation
+					System.arraycopy(data[rand.nextInt(numObs)], 0, mean, 0, numFeatures);
+					System.arraycopy(dataVar, 0, var, 0, numFeatures);
+					model.weights[c] = 1.0/totalWeight;
+					reseeded = true;
+					continue;
+				}
+				for(int j = 0; j < numFeatures; j++) {
+					mean[j] /= n;
+				}
+				Arrays.fill(var, 0);
+				for(int i = 0; i < numObs; i++) {
+					double r = resp[i][c]*dataWeights[i];
+					for(int j = 0; j < numFeatures; j++) {
+						double diff = data[i][j] - mean[j];
+						var[j] += r*diff*diff;
+					}
+				}
 				for(int j = 0; j < numFeatures; j++) {
-					dev[j] = Math.sqrt(clusterStdDev[i][j]/clusterCount[i]);
+					var[j] = Math.max(var[j]/n, EM_MIN_STD_DEV*EM_MIN_STD_DEV);
 				}
-				clusters[i].setStdDev(dev);
+				model.weights[c] = n/totalWeight;
 			}
-			
-			return clusters;
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.exit(-1);
-			return null;
+			if(reseeded) {
+				// renormalize the weights so that they sum to 1 with the re-seeded components
+				double sumWeights = 0;
+				for(int c = 0; c < k; c++) {
+					sumWeights += model.weights[c];
+				}
+				for(int c = 0; c < k; c++) {
+					model.weights[c] /= sumWeights;
+				}
+			}
+		}
+		return logLikelihood;
+	}
+	
+	/**
+	 * Mixture of Gaussians with diagonal covariance 
+	 * (the arrays are allocated for up to maxK components, the first k are used)
+	 */
+	private static class GaussianMixture {
+		/** Number of components */
+		int k;
+		/** Log-likelihood of the data the mixture was fitted to */
+		double logLikelihood;
+		double[] weights;
+		double[][] means;
+		double[][] vars;
+		/** Log of the component weight and Gaussian normalization constant */
+		double[] logNorm;
+		
+		GaussianMixture(int maxK, int numFeatures) {
+			weights = new double[maxK];
+			means = new double[maxK][numFeatures];
+			vars = new double[maxK][numFeatures];
+			logNorm = new double[maxK];
+		}
+		
+		void copy(GaussianMixture m) {
+			k = m.k;
+			for(int c = 0; c < k; c++) {
+				weights[c] = m.weights[c];
+				logNorm[c] = m.logNorm[c];
+				System.arraycopy(m.means[c], 0, means[c], 0, means[c].length);
+				System.arraycopy(m.vars[c], 0, vars[c], 0, vars[c].length);
+			}
+		}
+		
+		void computeLogNorms() {
+			for(int c = 0; c < k; c++) {
+				double norm = Math.log(weights[c]);
+				for(int j = 0; j < vars[c].length; j++) {
+					norm -= 0.5*Math.log(2*Math.PI*vars[c][j]);
+				}
+				logNorm[c] = norm;
+			}
+		}
+		
+		/**
+		 * Computes the posterior probability of each component given observation x
+		 * @requires computeLogNorms() to have been called after the last parameter update
+		 * @return log-likelihood of x
+		 */
+		double getPosteriors(double[] x, double[] p) {
+			double max = -Double.MAX_VALUE;
+			for(int c = 0; c < k; c++) {
+				double lp = logNorm[c];
+				for(int j = 0; j < x.length; j++) {
+					double diff = x[j] - means[c][j];
+					lp -= 0.5*diff*diff/vars[c][j];
+				}
+				p[c] = lp;
+				if(lp > max) max = lp;
+			}
+			double sum = 0;
+			for(int c = 0; c < k; c++) {
+				p[c] = Math.exp(p[c] - max);
+				sum += p[c];
+			}
+			for(int c = 0; c < k; c++) {
+				p[c] /= sum;
+			}
+			return max + Math.log(sum);
+		}
+		
+		/**
+		 * Returns the component with the highest posterior probability given observation x
+		 */
+		int getMostLikelyComponent(double[] x) {
+			double[] p = new double[k];
+			getPosteriors(x, p);
+			int clusterId = 0;
+			for(int c = 1; c < k; c++) {
+				if(p[c] > p[clusterId]) {
+					clusterId = c;
+				}
+			}
+			return clusterId;
+		}
+	}
+	
+	// ---- Optimal 1-D Clustering ----
+	
+	/**
+	 * Optimal clustering of one-dimensional data (as in Ckmeans.1d.dp)
+	 * The sorted observations are split into k contiguous segments minimizing the within-cluster 
+	 * sum of squares using dynamic programming, for an increasing number of clusters k;
+	 * the segmentation with the best BIC score (under a Gaussian mixture model) is selected
+	 * @param data - matrix of observations (numObs x 1)
+	 */
+	public Cluster[] cluster1D(double[][] data, int numObs) {
+		// sort the observations
+		Integer[] order = new Integer[numObs];
+		for(int i = 0; i < numObs; i++) {
+			order[i] = i;
+		}
+		final double[][] values = data;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(values[i1][0], values[i2][0]);
+			}
+		});
+		double[] x = new double[numObs];
+		double[] sum = new double[numObs + 1];
+		double[] sumSq = new double[numObs + 1];
+		for(int i = 0; i < numObs; i++) {
+			x[i] = data[order[i]][0];
+			sum[i+1] = sum[i] + x[i];
+			sumSq[i+1] = sumSq[i] + x[i]*x[i];
+		}
+		
+		// cost[j]: minimum sum of squares of x[0..j] split into k segments
+		// start[k-1][j]: start of the last segment in the optimal split of x[0..j] into k segments
+		// (the rows are allocated when k is reached, since the search usually stops early)
+		int maxK = Math.min(numObs, EM_MAX_NUM_CLUSTERS);
+		double[] cost = new double[numObs];
+		double[] prevCost = new double[numObs];
+		int[][] start = new int[maxK][];
+		for(int j = 0; j < numObs; j++) {
+			cost[j] = getSegmentCost(sum, sumSq, 0, j);
+		}
+		
+		int bestK = 0;
+		double bestBIC = Double.MAX_VALUE;
+		int numNoImprovement = 0;
+		for(int k = 1; k <= maxK; k++) {
+			start[k-1] = new int[numObs];
+			if(k > 1) {
+				double[] tmp = prevCost;
+				prevCost = cost;
+				cost = tmp;
+				fillDPRow(sum, sumSq, prevCost, cost, start[k-1], k, k-1, numObs-1, k-1, numObs-1);
+			}
+			double bic = get1DSegmentationBIC(sum, sumSq, start, k, numObs);
+			if(bic < bestBIC) {
+				bestBIC = bic;
+				bestK = k;
+				numNoImprovement = 0;
+			} else if(++numNoImprovement >= EM_BIC_PATIENCE) {
+				break;
+			}
+		}
+		
+		// assign the observations to the segments of the best split
+		int[] assignments = new int[numObs];
+		int end = numObs - 1;
+		for(int k = bestK; k >= 1; k--) {
+			int s = start[k-1][end];
+			for(int i = s; i <= end; i++) {
+				assignments[order[i]] = k - 1;
+			}
+			end = s - 1;
+		}
+		return getHardClusters(data, assignments, numObs, 1, bestK);
+	}
+	
+	/**
+	 * Computes the DP row of k segments for the observations ending at j in [jLow, jHigh],
+	 * given that the optimal start of the last segment is in [iLow, iHigh]
+	 * (divide and conquer: the optimal start is monotone in j)
+	 */
+	private void fillDPRow(double[] sum, double[] sumSq, double[] prevCost, double[] cost, int[] start, 
+			int k, int jLow, int jHigh, int iLow, int iHigh) {
+		if(jLow > jHigh) return;
+		int j = (jLow + jHigh)/2;
+		int bestI = -1;
+		double best = Double.MAX_VALUE;
+		for(int i = Math.max(iLow, k-1); i <= Math.min(iHigh, j); i++) {
+			double c = prevCost[i-1] + getSegmentCost(sum, sumSq, i, j);
+			if(c < best) {
+				best = c;
+				bestI = i;
+			}
+		}
+		cost[j] = best;
+		start[j] = bestI;
+		fillDPRow(sum, sumSq, prevCost, cost, start, k, jLow, j-1, iLow, bestI);
+		fillDPRow(sum, sumSq, prevCost, cost, start, k, j+1, jHigh, bestI, iHigh);
+	}
+	
+	/** Returns the sum of squared deviations from the mean of the sorted observations i..j */
+	private static double getSegmentCost(double[] sum, double[] sumSq, int i, int j) {
+		int n = j - i + 1;
+		double s = sum[j+1] - sum[i];
+		double cost = (sumSq[j+1] - sumSq[i]) - s*s/n;
+		return cost > 0 ? cost : 0;
+	}
+	
+	/**
+	 * Returns the BIC score of the optimal split into k segments, 
+	 * where each segment is a component of a 1-D Gaussian mixture
+	 */
+	private double get1DSegmentationBIC(double[] sum, double[] sumSq, int[][] start, int k, int numObs) {
+		double logLikelihood = 0;
+		int end = numObs - 1;
+		for(int c = k; c >= 1; c--) {
+			int s = start[c-1][end];
+			int n = end - s + 1;
+			double sse = getSegmentCost(sum, sumSq, s, end);
+			double var = Math.max(sse/n, EM_MIN_STD_DEV*EM_MIN_STD_DEV);
+			logLikelihood += n*Math.log((double) n/numObs) - 0.5*n*Math.log(2*Math.PI*var) - 0.5*sse/var;
+			end = s - 1;
+		}
+		int numParams = 3*k - 1;
+		return -2*logLikelihood + numParams*Math.log(numObs);
+	}
+	
+	// ---- Coreset ----
+	
+	/**
+	 * Summarizes the observations into at most maxNumPoints weighted points:
+	 * observations are binned on a regular AAF grid (the bin width is doubled until the number
+	 * of non-empty bins is small enough), each bin is represented by the mean of its observations
+	 * weighted by their number
+	 * Bins are found with an open-addressing table of the hashes of the grid cell coordinates
+	 * (a bin is identified by its first observation, so hash collisions are resolved exactly)
+	 * @param obsBin - set to the bin of each observation (bins are numbered in order of first occurrence)
+	 * @return the number of bins
+	 */
+	private int getGridCoreset(double[][] data, int numObs, int numFeatures, int maxNumPoints, int[] obsBin) {
+		int capacity = Integer.highestOneBit(Math.max(2*numObs - 1, 1)) << 1;
+		int mask = capacity - 1;
+		long[] slotHash = new long[capacity];
+		int[] slotBin = new int[capacity];
+		int[] binObs = new int[numObs];
+		double binWidth = EM_MIN_STD_DEV;
+		while(true) {
+			Arrays.fill(slotBin, -1);
+			int numBins = 0;
+			for(int i = 0; i < numObs; i++) {
+				long hash = getCellHash(data[i], numFeatures, binWidth);
+				int slot = (int) (hash ^ (hash >>> 32)) & mask;
+				while(slotBin[slot] != -1 
+						&& (slotHash[slot] != hash || !isSameCell(data[i], data[binObs[slotBin[slot]]], numFeatures, binWidth))) {
+					slot = (slot + 1) & mask;
+				}
+				if(slotBin[slot] == -1) {
+					slotHash[slot] = hash;
+					slotBin[slot] = numBins;
+					binObs[numBins++] = i;
+				}
+				obsBin[i] = slotBin[slot];
+			}
+			if(numBins <= maxNumPoints) return numBins;
+			binWidth *= 2;
+		}
+	}
+	
+	/** Returns the hash of the grid cell coordinates of the observation */
+	private static long getCellHash(double[] obs, int numFeatures, double binWidth) {
+		long hash = 1;
+		for(int j = 0; j < numFeatures; j++) {
+			hash = (hash + (long) Math.floor(obs[j]/binWidth)) * 0x9E3779B97F4A7C15L;
+		}
+		return hash ^ (hash >>> 29);
+	}
+	
+	/** Returns true if the two observations fall into the same grid cell */
+	private static boolean isSameCell(double[] obs1, double[] obs2, int numFeatures, double binWidth) {
+		for(int j = 0; j < numFeatures; j++) {
+			if((long) Math.floor(obs1[j]/binWidth) != (long) Math.floor(obs2[j]/binWidth)) return false;
 		}
+		return true;
+	}
+	
+	// ---- Clustering Utilities ----
+	
+	/**
+	 * Picks k initial centroids from the observations (k-means++ seeding:
+	 * each next centroid is chosen with probability proportional to its weighted squared distance 
+	 * to the closest centroid chosen so far)
+	 * @param dataWeights - observation weights (null if all observations have the same weight)
+	 */
+	private void seedCentroids(double[][] data, double[] dataWeights, int numObs, int numFeatures, int k, Random rand, double[][] centroids) {
+		double[] minDist = new double[numObs];
+		System.arraycopy(data[rand.nextInt(numObs)], 0, centroids[0], 0, numFeatures);
+		for(int i = 0; i < numObs; i++) {
+			minDist[i] = getSquaredDistance(data[i], centroids[0], numFeatures);
+			if(dataWeights != null) minDist[i] *= dataWeights[i];
+		}
+		for(int c = 1; c < k; c++) {
+			double total = 0;
+			for(int i = 0; i < numObs; i++) {
+				total += minDist[i];
+			}
+			int next = rand.nextInt(numObs);
+			if(total > 0) {
+				double target = rand.nextDouble()*total;
+				for(int i = 0; i < numObs; i++) {
+					target -= minDist[i];
+					if(target <= 0) {
+						next = i;
+						break;
+					}
+				}
+			}
+			System.arraycopy(data[next], 0, centroids[c], 0, numFeatures);
+			for(int i = 0; i < numObs; i++) {
+				double dist = getSquaredDistance(data[i], centroids[c], numFeatures);
+				if(dataWeights != null) dist *= dataWeights[i];
+				if(dist < minDist[i]) {
+					minDist[i] = dist;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Creates the clusters given the assignment of each observation 
+	 * (empty clusters are dropped, the centroid and standard deviation are computed from the members)
+	 */
+	private Cluster[] getHardClusters(double[][] data, int[] assignments, int numObs, int numFeatures, int k) {
+		Cluster[] clusterById = new Cluster[k];
+		int numClusters = 0;
+		for(int i = 0; i < numObs; i++) {
+			if(clusterById[assignments[i]] == null) {
+				clusterById[assignments[i]] = new Cluster(null, numClusters);
+				numClusters++;
+			}
+			clusterById[assignments[i]].addMember(i, data[i]);
+		}
+		Cluster[] clusters = new Cluster[numClusters];
+		for(Cluster c : clusterById) {
+			if(c == null) continue;
+			clusters[c.getId()] = c;
+		}
+		return clusters;
+	}
+	
+	/** Returns the weighted variance of each feature over all observations */
+	private double[] getVariance(double[][] data, double[] dataWeights, int numObs, int numFeatures) {
+		double[] mean = new double[numFeatures];
+		double[] var = new double[numFeatures];
+		double totalWeight = 0;
+		for(int i = 0; i < numObs; i++) {
+			totalWeight += dataWeights[i];
+			for(int j = 0; j < numFeatures; j++) {
+				mean[j] += dataWeights[i]*data[i][j];
+			}
+		}
+		for(int j = 0; j < numFeatures; j++) {
+			mean[j] /= totalWeight;
+		}
+		for(int i = 0; i < numObs; i++) {
+			for(int j = 0; j < numFeatures; j++) {
+				var[j] += dataWeights[i]*(data[i][j] - mean[j])*(data[i][j] - mean[j]);
+			}
+		}
+		for(int j = 0; j < numFeatures; j++) {
+			var[j] = Math.max(var[j]/totalWeight, EM_MIN_STD_DEV*EM_MIN_STD_DEV);
+		}
+		return var;
 	}
 	
 	// ---- Fuzzy C-Means ----
@@ -207,63 +812,67 @@ public class AAFClusterer implements Serializable {
 	 * http://en.wikipedia.org/wiki/Fuzzy_clustering#Fuzzy_c-means_clustering
 	 * Every point has a degree of belonging to each cluster
 	 * The centroid is a means of all points weighted by the degree of belonging to cluster
+	 * (raised to the power m)
 	 * @param data - matrix of observations (numObs x numFeatures)
 	 * @param c - number of clusters
 	 * @param m - fuzzifier (determines the level of cluster fuzziness 
 	 * (large m => fuzzier clusters, m = 1 => crisp partitions; m = 2 in absence of knowledge)
+	 * @requires m > 1
 	 */
 	public Cluster[] fuzzyCMeans(double[][] data, int numObs, int numFeatures, int c, int m, DistanceMetric d) {
-	
-		// 1. initialization
-	
-		// centers of each cluster
+		c = Math.min(c, numObs);
+		
+		// 1. initialization: k-means++ seeded centroids
 		double[][] centroids = new double[c][numFeatures];
-				
-		// pick random coefficients
+		seedCentroids(data, null, numObs, numFeatures, c, new Random(RANDOM_SEED), centroids);
 		double[][] coeff = new double[numObs][c];
-		for(int i = 0; i < numObs; i++) {
-			double totalProb = 0;
-			for(int j = 0; j < c-1; j++) {
-				coeff[i][j] = 0.1*new Random().nextInt(10 - (int)totalProb*10);
-				totalProb += coeff[i][j];
-			}
-			coeff[i][c-1] = 1 - totalProb;
-		}
+		double[][] coeffNew = new double[numObs][c];
+		double[] dist = new double[c];
+		computeFCMCoefficients(data, centroids, numObs, numFeatures, c, m, d, dist, coeff);
 		
 		// 2. repeat until convergence
 		double delta = Double.MAX_VALUE;
-		
-		while(delta > CONVERGENCE_THRESHOLD) {
+		int iter = 0;
+		while(delta > CONVERGENCE_THRESHOLD && iter < MAX_NUM_ITERATIONS) {
+			iter++;
 			// 3. compute the centroid for each cluster
-			for(int i = 0; i < c; i++) {
-				double[] sum = new double[numFeatures];
-				double sum_coeff = 0;
-				for(int j = 0; j < numObs; j++) {
-					double cf = coeff[j][i];
-					sum_coeff += cf;
+			for(int j = 0; j < c; j++) {
+				Arrays.fill(centroids[j], 0);
+				double sumWeights = 0;
+				for(int i = 0; i < numObs; i++) {
+					double w = (m == 2) ? coeff[i][j]*coeff[i][j] : Math.pow(coeff[i][j], m);
+					sumWeights += w;
 					for(int k = 0; k < numFeatures; k++) {
-						sum[k] += cf*data[j][k];
+						centroids[j][k] += w*data[i][k];
 					}
 				}
+				if(sumWeights == 0) continue;
 				for(int k = 0; k < numFeatures; k++) {
-					centroids[i][k] = sum[k]/sum_coeff;
+					centroids[j][k] /= sumWeights;
 				}
 			}
-
+			
 			// 4. re-compute the coefficients
-			double[][] coeff_new = computeFCMCoefficients(data, centroids, numObs, c, m, d);
-
+			computeFCMCoefficients(data, centroids, numObs, numFeatures, c, m, d, dist, coeffNew);
+			
 			// 5. find the max change in coefficients
-			delta = Double.MIN_VALUE;
+			delta = 0;
 			for(int i = 0; i < numObs; i++) {
 				for(int j = 0; j < c; j++) {
-					double change = Math.abs(coeff[i][j] - coeff_new[i][j]);
+					double change = Math.abs(coeff[i][j] - coeffNew[i][j]);
 					if(change > delta) {
 						delta = change;
 					}
 				}
 			}
-			coeff = coeff_new;
+			double[][] tmp = coeff;
+			coeff = coeffNew;
+			coeffNew = tmp;
+		}
+		if(delta > CONVERGENCE_THRESHOLD) {
+			logger.fine("Fuzzy c-means did not converge after " + iter + " iterations (max coefficient change: " + delta + ")");
+		} else {
+			logger.fine("Fuzzy c-means converged after " + iter + " iterations");
 		}
 		
 		return getFCMHardClusters(coeff, centroids, numObs, c);
@@ -290,25 +899,46 @@ public class AAFClusterer implements Serializable {
 		return clusters;
 	}
 	
-	private double[][] computeFCMCoefficients(double[][] data, double[][] centroids, int numObs, 
-			int c, int m, DistanceMetric d) {
-		double[][] coeff_new = new double[numObs][c];
+	/**
+	 * Computes the degree of belonging of each observation to each cluster:
+	 * u_ij = 1/sum_k (d_ij/d_ik)^(2/(m-1)) = d_ij^(-2/(m-1)) / sum_k d_ik^(-2/(m-1))
+	 * (observations that coincide with one or more centroids belong to those clusters only)
+	 * @param dist - buffer of size c
+	 * @param coeff - output matrix (numObs x c)
+	 */
+	private void computeFCMCoefficients(double[][] data, double[][] centroids, int numObs, int numFeatures,
+			int c, int m, DistanceMetric d, double[] dist, double[][] coeff) {
+		double exponent = 1.0/(m-1);
 		for(int i = 0; i < numObs; i++) {
-			double[] distToCenters = new double[c];
+			// the weight of each centroid is (d^2)^(-1/(m-1))
+			int numZero = 0;
+			for(int j = 0; j < c; j++) {
+				double sqDist;
+				if(d == DistanceMetric.EUCLIDEAN) {
+					sqDist = getSquaredDistance(data[i], centroids[j], numFeatures);
+				} else {
+					sqDist = getDistance(data[i], centroids[j], d);
+					sqDist *= sqDist;
+				}
+				dist[j] = sqDist;
+				if(sqDist == 0) numZero++;
+			}
+			double[] u = coeff[i];
+			if(numZero > 0) {
+				for(int j = 0; j < c; j++) {
+					u[j] = (dist[j] == 0) ? 1.0/numZero : 0;
+				}
+				continue;
+			}
+			double sum = 0;
 			for(int j = 0; j < c; j++) {
-				// compute the distance to each centroid
-				distToCenters[j] = getDistance(data[i], centroids[j], d);
+				u[j] = (m == 2) ? 1/dist[j] : Math.pow(dist[j], -exponent);
+				sum += u[j];
 			}
 			for(int j = 0; j < c; j++) {
-				double distRatioSum = 0;
-				for(int k = 0; k < c; k++) {
-					distRatioSum += Math.pow(distToCenters[j]/distToCenters[k], 2/(m-1));
-				}
-
-				coeff_new[i][j] = 1/distRatioSum;
+				u[j] /= sum;
 			}
 		}
-		return coeff_new;
 	}
 	
 	// ---- Distance Metrics ---- 
@@ -337,6 +967,18 @@ public class AAFClusterer implements Serializable {
 		return Math.sqrt(diffSum);
 	}
 	
+	/**
+	 * Computes the squared Euclidean distance between 2 vectors
+	 */
+	private static double getSquaredDistance(double[] x, double[] y, int numFeatures) {
+		double diffSum = 0;
+		for(int i = 0; i < numFeatures; i++) {
+			double diff = x[i] - y[i];
+			diffSum += diff*diff;
+		}
+		return diffSum;
+	}
+	
 	private double getAvgSampleDistance(double[] x, double[] y) {
 		double diffSum = 0;
 		for(int i = 0; i < x.length; i++) {
@@ -345,30 +987,11 @@ public class AAFClusterer implements Serializable {
 		return diffSum/x.length;
 	}
 	
-	// ---- WEKA-related Utilities ----
-	public Instances convertMatrixToWeka(double[][] data, int numObs, int numFeatures) {
-		// convert the data to WEKA format
-		FastVector atts = new FastVector();
-		for(int i = 0; i < numFeatures; i++) {
-			atts.addElement(new Attribute("Feature" + i, i));
-		}
-		
-		Instances ds = new Instances("AAF Data", atts, numObs);
-		for(int i = 0; i < numObs; i++) {
-			ds.add(new Instance(numFeatures));
-		}
-		for(int i = 0; i < numFeatures; i++) {
-			for(int j = 0; j < numObs; j++) {
-				ds.instance(j).setValue(i, data[j][i]);
-			}
-		}
-		return ds;
-	}
-	
-
 	/**
 	 * Cluster of observation points
 	 * Each cluster has an associated centroid point and a list of members
+	 * If the members are added with their data points, the centroid and standard deviation 
+	 * are maintained incrementally (Welford's algorithm)
 	 */
 	protected class Cluster implements Serializable {
 		
@@ -383,22 +1006,34 @@ public class AAFClusterer implements Serializable {
 		/** Cluster standard deviation */
 		private double[] stdDev = null;
 		
-		/** List of observations assigned to this cluster */
-		private ArrayList<Integer> members;
+		/** Observations assigned to this cluster (the first numMembers entries) */
+		private int[] members;
+		private int numMembers;
+		
+		/** Sum of squared deviations from the centroid per feature 
+		 * (null if the statistics are not maintained for this cluster) */
+		private double[] sumSqDev;
 		
 		private boolean robust = false;
 		
 		public Cluster(double[] clusterCentroid, int clusterId) {
 			centroid = clusterCentroid;
-			members = new ArrayList<Integer>();
+			members = new int[4];
+			numMembers = 0;
 			id = clusterId;
 		}
 		
-		public Cluster(double[] clusterCentroid, ArrayList<Integer> assignments, int clusterId) {
-			centroid = clusterCentroid;
-			members = assignments;
-			id = clusterId;
-			
+		/**
+		 * Copy constructor
+		 */
+		public Cluster(Cluster c) {
+			id = c.id;
+			centroid = (c.centroid != null) ? c.centroid.clone() : null;
+			stdDev = (c.stdDev != null) ? c.stdDev.clone() : null;
+			members = Arrays.copyOf(c.members, Math.max(c.numMembers, 4));
+			numMembers = c.numMembers;
+			sumSqDev = (c.sumSqDev != null) ? c.sumSqDev.clone() : null;
+			robust = c.robust;
 		}
 		
 		/**
@@ -414,37 +1049,95 @@ public class AAFClusterer implements Serializable {
 		
 		/**
 		 * Add a new observation to the cluster
+		 * (the centroid and standard deviation are not updated)
 		 * @param obsId - Id of the observation (index in the data matrix)
 		 */
 		public void addMember(int obsId) {
-			members.add(new Integer(obsId));
+			appendMember(obsId);
+			sumSqDev = null;
 		}
 		
-		/** 
-		 * Computes the mean of all the members of the cluster
+		/**
+		 * Add a new observation to the cluster and update the centroid and standard deviation
+		 * @param obsId - Id of the observation (index in the data matrix)
+		 * @param x - observation point
 		 */
-		public void recomputeCentroidAndStdDev(double[][] data, int numObs, int numFeatures) {
-			double[] newCentroid = new double[numFeatures];
-			for(int i = 0; i < members.size(); i++) {
-				for(int j = 0; j < numFeatures; j++) {
-					newCentroid[j] += data[members.get(i)][j];
-				}
+		public void addMember(int obsId, double[] x) {
+			if(numMembers == 0) {
+				centroid = x.clone();
+				sumSqDev = new double[x.length];
+				stdDev = new double[x.length];
+				appendMember(obsId);
+				return;
 			}
+			appendMember(obsId);
+			if(sumSqDev == null) return;
+			for(int j = 0; j < x.length; j++) {
+				double delta = x[j] - centroid[j];
+				centroid[j] += delta/numMembers;
+				sumSqDev[j] += delta*(x[j] - centroid[j]);
+				stdDev[j] = Math.sqrt(sumSqDev[j]/numMembers);
+			}
+		}
+		
+		private void appendMember(int obsId) {
+			if(numMembers == members.length) {
+				members = Arrays.copyOf(members, 2*numMembers);
+			}
+			members[numMembers++] = obsId;
+		}
+		
+		/**
+		 * Adds the members of cluster c to this cluster
+		 * The centroid and standard deviation are combined from those of the two clusters
+		 * (or recomputed from the data if the statistics of either cluster are not maintained)
+		 */
+		public void merge(Cluster c, double[][] data, int numObs, int numFeatures) {
+			int n1 = numMembers;
+			int n2 = c.numMembers;
+			for(int i = 0; i < n2; i++) {
+				appendMember(c.members[i]);
+			}
+			if(sumSqDev == null || c.sumSqDev == null) {
+				recomputeCentroidAndStdDev(data, numObs, numFeatures);
+				return;
+			}
+			double n = n1 + n2;
+			double[] newCentroid = new double[numFeatures];
+			double[] newSumSqDev = new double[numFeatures];
+			double[] newStdDev = new double[numFeatures];
 			for(int j = 0; j < numFeatures; j++) {
-				newCentroid[j] = newCentroid[j]/members.size();
+				double delta = c.centroid[j] - centroid[j];
+				newCentroid[j] = centroid[j] + delta*n2/n;
+				newSumSqDev[j] = sumSqDev[j] + c.sumSqDev[j] + delta*delta*n1*n2/n;
+				newStdDev[j] = Math.sqrt(newSumSqDev[j]/n);
 			}
 			centroid = newCentroid;
-			
-			double[] clusterStdDev = new double[numFeatures];
-			for(int i = 0; i < members.size(); i++) {
+			sumSqDev = newSumSqDev;
+			stdDev = newStdDev;
+		}
+		
+		/** 
+		 * Computes the mean and standard deviation of all the members of the cluster
+		 */
+		public void recomputeCentroidAndStdDev(double[][] data, int numObs, int numFeatures) {
+			double[] newCentroid = new double[numFeatures];
+			double[] newSumSqDev = new double[numFeatures];
+			for(int i = 0; i < numMembers; i++) {
+				double[] x = data[members[i]];
 				for(int j = 0; j < numFeatures; j++) {
-					clusterStdDev[j] += Math.pow(data[members.get(i)][j] - centroid[j], 2);
+					double delta = x[j] - newCentroid[j];
+					newCentroid[j] += delta/(i+1);
+					newSumSqDev[j] += delta*(x[j] - newCentroid[j]);
 				}
 			}
+			double[] newStdDev = new double[numFeatures];
 			for(int j = 0; j < numFeatures; j++) {
-				clusterStdDev[j] =  Math.sqrt(clusterStdDev[j]/members.size());
+				newStdDev[j] = Math.sqrt(newSumSqDev[j]/numMembers);
 			}
-			stdDev = clusterStdDev;
+			centroid = newCentroid;
+			sumSqDev = newSumSqDev;
+			stdDev = newStdDev;
 		}
 		
 		/**
@@ -456,8 +1149,8 @@ public class AAFClusterer implements Serializable {
 		
 		/**
 		 * Returns the standard deviation per sample
-		 * @requires setStdDev() method to have been called (currently implemented for EM only),
-		 * will return null otherwise
+		 * @requires setStdDev() method to have been called or the cluster statistics 
+		 * to be maintained, will return null otherwise
 		 */
 		public double[] getStdDev() {
 			return stdDev;
@@ -467,8 +1160,19 @@ public class AAFClusterer implements Serializable {
 			stdDev = dev;
 		}
 		
-		public ArrayList<Integer> getMembership() {
-			return members;
+		/** Returns the number of observations in the cluster */
+		public int getSize() {
+			return numMembers;
+		}
+		
+		/** Returns the i-th observation of the cluster */
+		public int getMember(int i) {
+			return members[i];
+		}
+		
+		/** Returns the observations of the cluster */
+		public int[] getMembers() {
+			return Arrays.copyOf(members, numMembers);
 		}
 		
 		public int getId() {
@@ -485,7 +1189,7 @@ public class AAFClusterer implements Serializable {
 		
 		public String toString() {
 			String c = "";
-			c += "Size: " + members.size() + "\n";
+			c += "Size: " + numMembers + "\n";
 			DecimalFormat df = new DecimalFormat("#.##");
 			c += "VAF Mean: [";
 			for(int i = 0; i < centroid.length; i++) {
@@ -0,0 +1,175 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import lineage.AAFClusterer.Cluster;
+
+/**
+ * Cache of clustering results keyed by a hash of the clustered data matrix
+ * and of the clustering settings.
+ * Results are kept in memory (least recently used entries are evicted first)
+ * and, if a directory is set, are also stored on disk to be reused across runs.
+ * The cached clusters must not be modified (callers should copy them).
+ */
+public class ClusteringCache {
+
+	private static final String CACHE_FILE_PREFIX = "group-";
+	private static final String CACHE_FILE_EXTENSION = ".bin.gz";
+
+	/** Maximum number of entries kept in memory */
+	private int capacity;
+
+	/** In-memory entries in access order */
+	private LinkedHashMap<String, Cluster[]> entries;
+
+	/** Directory where entries are stored (null if results are only kept in memory) */
+	private File cacheDir;
+
+	private static Logger logger = LineageEngine.logger;
+
+	public ClusteringCache(int maxNumEntries) {
+		capacity = maxNumEntries;
+		entries = new LinkedHashMap<String, Cluster[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, Cluster[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Sets the directory used to store the entries on disk
+	 */
+	public synchronized void setDirectory(String dirName) {
+		cacheDir = new File(dirName);
+		if(!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			logger.warning("Failed to create the clustering cache directory: " + dirName);
+			cacheDir = null;
+		}
+	}
+
+	/**
+	 * Returns the cache key of the given data matrix and clustering settings
+	 */
+	public static String getKey(double[][] data, int numObs, int numFeatures, String settings) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		md.update(settings.getBytes());
+		ByteBuffer buf = ByteBuffer.allocate(8*Math.max(numFeatures, 2));
+		buf.putInt(numObs).putInt(numFeatures);
+		md.update(buf.array(), 0, 8);
+		for(int i = 0; i < numObs; i++) {
+			buf.clear();
+			for(int j = 0; j < numFeatures; j++) {
+				buf.putLong(Double.doubleToLongBits(data[i][j]));
+			}
+			md.update(buf.array(), 0, buf.position());
+		}
+		StringBuilder sb = new StringBuilder();
+		for(byte b : md.digest()) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the clusters stored for the given key or null if there is no such entry
+	 * (only the in-memory lookup holds the lock, entries are read from disk without it)
+	 */
+	public Cluster[] get(String key) {
+		File dir;
+		synchronized(this) {
+			Cluster[] clusters = entries.get(key);
+			if(clusters != null || cacheDir == null) {
+				return clusters;
+			}
+			dir = cacheDir;
+		}
+		File f = getEntryFile(dir, key);
+		if(!f.isFile()) return null;
+		try {
+			Cluster[] clusters;
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(f))));
+			try {
+				clusters = (Cluster[]) in.readObject();
+			} finally {
+				in.close();
+			}
+			synchronized(this) {
+				entries.put(key, clusters);
+			}
+			return clusters;
+		} catch (IOException e) {
+			logger.warning("Failed to read the cached clustering results " + f.getPath() + ": " + e.getMessage());
+		} catch (ClassNotFoundException e) {
+			logger.warning("Failed to read the cached clustering results " + f.getPath() + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the clusters for the given key
+	 * (the entry is written to disk without holding the lock)
+	 */
+	public void put(String key, Cluster[] clusters) {
+		File dir;
+		synchronized(this) {
+			entries.put(key, clusters);
+			dir = cacheDir;
+		}
+		if(dir == null) return;
+		try {
+			StageCache.atomicWriteObject(getEntryFile(dir, key), clusters);
+		} catch (IOException e) {
+			logger.warning("Failed to cache the clustering results: " + e.getMessage());
+		}
+	}
+
+	private static File getEntryFile(File dir, String key) {
+		return new File(dir, CACHE_FILE_PREFIX + key + CACHE_FILE_EXTENSION);
+	}
+}
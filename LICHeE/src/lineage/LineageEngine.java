@@ -29,11 +29,20 @@
 
 package lineage;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -61,68 +70,153 @@ public class LineageEngine {
 	
 	/**
 	 * The main pipeline for reconstructing the cell lineage trees
+	 * If a cache directory is specified, the results of each stage are cached and 
+	 * the pipeline resumes from the deepest cached stage valid for the input and parameters
+	 * If a state file is specified, the groups, clusters and network are saved to it;
+	 * if it already exists, the SNVs of the input are added to the saved run instead
+	 * (only the groups that receive new SNVs are re-clustered and only their network edges are recomputed)
 	 */
+	@SuppressWarnings("unchecked")
 	public static void buildLineage(Args args) {
-				
-		// 1. load SNV data
-		SNVDataStore db = new SNVDataStore(args.inputFileName, args.clustersFileName, args.normalSampleId);
 		
-		// 2. get the SNVs partitioned by group tag and create the appropriate SNV group objects
-		HashMap<String, ArrayList<SNVEntry>> snvsByTag = db.getSomaticGroups();
-		ArrayList<SNVGroup> groups = new ArrayList<SNVGroup>();
-		for(String groupTag : snvsByTag.keySet()) {
-			groups.add(new SNVGroup(groupTag, snvsByTag.get(groupTag), db.isRobustGroup(groupTag)));
+		Object[] state = null;
+		if(args.stateFileName != null && new File(args.stateFileName).isFile()) {
+			state = loadState(args);
 		}
-		if(groups.size() == 0) {
-			logger.warning("All SNV groups have been filtered out.");
-			return;
+		StageCache cache = null;
+		if(args.cacheDirName != null) {
+			cache = new StageCache(args.cacheDirName, args);
+			AAFClusterer.setClusteringCacheDirectory(args.cacheDirName);
 		}
+		Object[] cachedTrees = (cache != null) ? cache.load(StageCache.Stage.TREES) : null;
+		Object[] cachedNetwork = (cache != null && cachedTrees == null) ? cache.load(StageCache.Stage.NETWORK) : null;
+		Object[] cachedClusters = (cache != null && cachedTrees == null && cachedNetwork == null) ? cache.load(StageCache.Stage.CLUSTERS) : null;
+		Object[] cachedSNVs = (cache != null) ? cache.load(StageCache.Stage.SNVS) : null;
 		
-		// 3. cluster SNVs in each group
-		AAFClusterer clusterer = new AAFClusterer();
-		for(SNVGroup group : groups) {
-			if(args.clustersFileName == null) {
-				Cluster[] clusters = clusterer.clusterSubPopulations(group, ClusteringAlgorithms.EM, 1);
-				logger.fine("Clustering results for group: " + group.getTag());
-				for(Cluster c : clusters) {
-					logger.fine(c.toString());
+		ArrayList<String> sampleNames;
+		ArrayList<SNVGroup> groups;
+		PHYNetwork constrNetwork;
+		ArrayList<PHYTree> spanningTrees;
+		if(cachedTrees != null && cachedSNVs != null) {
+			sampleNames = (ArrayList<String>) cachedSNVs[0];
+			constrNetwork = (PHYNetwork) cachedTrees[0];
+			spanningTrees = (ArrayList<PHYTree>) cachedTrees[1];
+			logger.info("Found " + spanningTrees.size() + " valid tree(s) (cached)");
+		} else {	
+			// 1. load SNV data
+			HashMap<SampleProfile, ArrayList<Cluster>> inputClusters;
+			if(cachedSNVs != null) {
+				sampleNames = (ArrayList<String>) cachedSNVs[0];
+				groups = (ArrayList<SNVGroup>) cachedSNVs[1];
+				inputClusters = (HashMap<SampleProfile, ArrayList<Cluster>>) cachedSNVs[2];
+			} else if(state != null) {
+				// add the SNVs of the input file to the groups of the saved run
+				sampleNames = (ArrayList<String>) state[1];
+				SNVDataStore db = new SNVDataStore(args.inputFileName, args.normalSampleId, sampleNames, (ArrayList<SNVGroup>) state[2]);
+				inputClusters = db.getClusters();
+				groups = new ArrayList<SNVGroup>();
+				for(SampleProfile groupTag : db.getGroupTags()) {
+					groups.add(db.getSNVGroup(groupTag));
 				}
-				group.setSubPopulations(clusters);
 			} else {
-				ArrayList<Cluster> groupClusters = db.getClusters().get(group.getTag());
-				group.subPopulations = new Cluster[groupClusters.size()];
-				group.subPopulations = groupClusters.toArray(group.subPopulations);
+				SNVDataStore db = new SNVDataStore(args.inputFileName, args.clustersFileName, args.normalSampleId);
+				sampleNames = db.getSampleNames();
+				inputClusters = db.getClusters();
+				
+				// 2. get the SNVs partitioned by group tag and create the appropriate SNV group objects
+				// (the groups are views over the shared SNV table or over their spill files)
+				groups = new ArrayList<SNVGroup>();
+				for(SampleProfile groupTag : db.getGroupTags()) {
+					groups.add(db.getSNVGroup(groupTag));
+				}
+				if(cache != null) {
+					cache.save(StageCache.Stage.SNVS, sampleNames, groups, inputClusters);
+				}
+			}
+			if(groups.size() == 0) {
+				logger.warning("All SNV groups have been filtered out.");
+				return;
+			}
+			
+			if(cachedNetwork != null) {
+				constrNetwork = (PHYNetwork) cachedNetwork[0];
+			} else if(state != null) {
+				// 3-4. cluster the new and updated groups and update their nodes in the network
+				constrNetwork = updateNetwork((PHYNetwork) state[3], (ArrayList<SNVGroup>) state[2], groups, sampleNames.size());
+				logger.fine(constrNetwork.toString());
+			} else {
+				// 3. cluster SNVs in each group
+				if(cachedClusters != null) {
+					ArrayList<Cluster[]> groupClusters = (ArrayList<Cluster[]>) cachedClusters[0];
+					for(int i = 0; i < groups.size(); i++) {
+						groups.get(i).subPopulations = groupClusters.get(i);
+					}
+				} else {
+					Cluster[][] emClusters = (args.clustersFileName == null) ? clusterGroups(groups) : null;
+					for(int i = 0; i < groups.size(); i++) {
+						SNVGroup group = groups.get(i);
+						if(args.clustersFileName == null) {
+							Cluster[] clusters = emClusters[i];
+							logger.fine("Clustering results for group: " + group.getTag());
+							for(Cluster c : clusters) {
+								logger.fine(c.toString());
+							}
+							group.setSubPopulations(clusters);
+							group.releaseAlleleFreqBySample();
+						} else {
+							ArrayList<Cluster> groupClusters = inputClusters.get(group.getTag());
+							group.subPopulations = new Cluster[groupClusters.size()];
+							group.subPopulations = groupClusters.toArray(group.subPopulations);
+						}
+					}
+					if(cache != null) {
+						ArrayList<Cluster[]> groupClusters = new ArrayList<Cluster[]>();
+						for(SNVGroup group : groups) {
+							groupClusters.add(group.subPopulations);
+						}
+						cache.save(StageCache.Stage.CLUSTERS, groupClusters);
+					}
+				}
+				
+				// 4. construct the constraint network
+				constrNetwork = new PHYNetwork(groups, sampleNames.size());
+				logger.fine(constrNetwork.toString());
+				if(cache != null) {
+					cache.save(StageCache.Stage.NETWORK, constrNetwork);
+				}
+			}
+			if(args.stateFileName != null) {
+				saveState(args, sampleNames, groups, constrNetwork);
+			}
+			
+			// 5. find all the lineage trees that pass the VAF constraints
+			spanningTrees = constrNetwork.getLineageTrees();  
+			logger.info("Found " + spanningTrees.size() + " valid tree(s)");
+			
+			if(spanningTrees.size() == 0) {
+				logger.info("Adjusting the network...");	
+				// if no valid trees were found, fix the network (e.g. remove group nodes that are not robust)
+				int delta = 0;
+				do {
+					int numNodes = constrNetwork.numNodes;
+					constrNetwork = constrNetwork.fixNetwork();
+					spanningTrees = constrNetwork.getLineageTrees();  
+					delta = numNodes - constrNetwork.numNodes; 
+				} while((delta != 0) && (spanningTrees.size() <= 0));
+				logger.info("Found " + spanningTrees.size() + " valid trees after network adjustments");	
+			}
+			
+			// 6. evaluate/rank the trees
+			if(spanningTrees.size() > 0) {
+				constrNetwork.evaluateLineageTrees();
+				logger.fine("Top tree\nError score: " + spanningTrees.get(0).getErrorScore());	
+				logger.fine(spanningTrees.get(0).toString());
+			} 
+			if(cache != null) {
+				cache.save(StageCache.Stage.TREES, constrNetwork, spanningTrees);
 			}
 		}
 		
-		// 4. construct the constraint network
-		PHYNetwork constrNetwork = new PHYNetwork(groups, db.getNumSamples());
-		logger.fine(constrNetwork.toString());
-		
-		// 5. find all the lineage trees that pass the VAF constraints
-		ArrayList<PHYTree> spanningTrees = constrNetwork.getLineageTrees();  
-		logger.info("Found " + spanningTrees.size() + " valid tree(s)");
-		
-		if(spanningTrees.size() == 0) {
-			logger.info("Adjusting the network...");	
-			// if no valid trees were found, fix the network (e.g. remove group nodes that are not robust)
-			int delta = 0;
-			do {
-				int numNodes = constrNetwork.numNodes;
-				constrNetwork = constrNetwork.fixNetwork();
-				spanningTrees = constrNetwork.getLineageTrees();  
-				delta = numNodes - constrNetwork.numNodes; 
-			} while((delta != 0) && (spanningTrees.size() <= 0));
-			logger.info("Found " + spanningTrees.size() + " valid trees after network adjustments");	
-		}
-		
-		// 6. evaluate/rank the trees
-		if(spanningTrees.size() > 0) {
-			constrNetwork.evaluateLineageTrees();
-			logger.fine("Top tree\nError score: " + spanningTrees.get(0).getErrorScore());	
-			logger.fine(spanningTrees.get(0).toString());
-		} 
-		
 		// 7. result visualization
 		if(args.showNetwork) {
 			constrNetwork.displayNetwork();
@@ -130,20 +224,139 @@ public class LineageEngine {
 		if(spanningTrees.size() > 0) {
 			for(int i = 0; i < args.numShow; i++) {
 				if(spanningTrees.size() > i) {
-					constrNetwork.displayTree(spanningTrees.get(i), db.getSampleNames(), null, null);
+					constrNetwork.displayTree(spanningTrees.get(i), sampleNames, null, null);
 				} else {
 					break;
 				}
 			}
 			// 8. persistent storage
 			if(args.numSave > 0) {
-				writeTreesToTxtFile(constrNetwork, spanningTrees, db.getSampleNames(), args);
+				writeTreesToTxtFile(constrNetwork, spanningTrees, sampleNames, args);
 			}	
 		} 
 	}
 	
+	/**
+	 * Clusters the SNVs of each group on a pool of worker threads
+	 * (the largest groups are scheduled first)
+	 * @return clusters of each group (in the order of the groups)
+	 */
+	private static Cluster[][] clusterGroups(final ArrayList<SNVGroup> groups) {
+		final AAFClusterer clusterer = new AAFClusterer();
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for(int i = 0; i < groups.size(); i++) {
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer g1, Integer g2) {
+				return groups.get(g2).getNumSNVs() - groups.get(g1).getNumSNVs();
+			}
+		});
+		
+		int numThreads = Math.max(1, Math.min(Parameters.NUM_THREADS, groups.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<Cluster[]>> results = new ArrayList<Future<Cluster[]>>(Collections.<Future<Cluster[]>>nCopies(groups.size(), null));
+		for(final int i : order) {
+			results.set(i, pool.submit(new Callable<Cluster[]>() {
+				public Cluster[] call() {
+					return clusterer.clusterSubPopulations(groups.get(i), ClusteringAlgorithms.EM, 1);
+				}
+			}));
+		}
+		pool.shutdown();
+		
+		Cluster[][] clusters = new Cluster[groups.size()][];
+		try {
+			for(int i = 0; i < groups.size(); i++) {
+				clusters[i] = results.get(i).get();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			System.err.println("Failed to cluster the SNV groups");
+			System.exit(-1);
+		}
+		return clusters;
+	}
+	
+	/**
+	 * Clusters the groups that are not in the previous network 
+	 * and replaces the previous groups with them in the network
+	 * @param previousGroups - groups of the previous network
+	 * @param groups - groups of the updated run (unchanged groups are the previous group objects)
+	 */
+	private static PHYNetwork updateNetwork(PHYNetwork previous, ArrayList<SNVGroup> previousGroups, ArrayList<SNVGroup> groups, int numSamples) {
+		// unchanged groups are the same objects in both runs
+		Set<SNVGroup> previousSet = Collections.newSetFromMap(new IdentityHashMap<SNVGroup, Boolean>());
+		previousSet.addAll(previousGroups);
+		Set<SNVGroup> groupSet = Collections.newSetFromMap(new IdentityHashMap<SNVGroup, Boolean>());
+		groupSet.addAll(groups);
+		ArrayList<SNVGroup> added = new ArrayList<SNVGroup>();
+		for(SNVGroup g : groups) {
+			if(!previousSet.contains(g)) {
+				added.add(g);
+			}
+		}
+		ArrayList<SNVGroup> removed = new ArrayList<SNVGroup>();
+		for(SNVGroup g : previousGroups) {
+			if(!groupSet.contains(g)) {
+				removed.add(g);
+			}
+		}
+		logger.info("Updating " + added.size() + " of " + groups.size() + " SNV group(s)");
+		
+		Cluster[][] emClusters = clusterGroups(added);
+		for(int i = 0; i < added.size(); i++) {
+			SNVGroup group = added.get(i);
+			logger.fine("Clustering results for group: " + group.getTag());
+			for(Cluster c : emClusters[i]) {
+				logger.fine(c.toString());
+			}
+			group.setSubPopulations(emClusters[i]);
+			group.releaseAlleleFreqBySample();
+		}
+		return previous.updateGroups(removed, added, groups);
+	}
+	
 	///// I/O /////
 	
+	/**
+	 * Loads the groups, clusters and network of a saved run
+	 * @return parameters, sample names, groups and network of the run
+	 */
+	private static Object[] loadState(Args args) {
+		Object[] state = null;
+		try {
+			state = (Object[]) StageCache.readObject(new File(args.stateFileName));
+		} catch (IOException e) {
+			System.err.println("Failed to read the saved run from the file: " + args.stateFileName + " (" + e.getMessage() + ")");
+			System.exit(-1);
+		}
+		if(!StageCache.getParameters(StageCache.Stage.NETWORK, args).equals(state[0])) {
+			System.err.println("The parameters do not match the parameters of the saved run: " + state[0]);
+			System.exit(-1);
+		}
+		logger.info("Updating the saved run " + args.stateFileName);
+		return state;
+	}
+	
+	/**
+	 * Saves the groups, clusters and network of the run 
+	 * (before the network is adjusted by the tree search)
+	 */
+	private static void saveState(Args args, ArrayList<String> sampleNames, ArrayList<SNVGroup> groups, PHYNetwork net) {
+		try {
+			StageCache.atomicWriteObject(new File(args.stateFileName), 
+					new Object[] {StageCache.getParameters(StageCache.Stage.NETWORK, args), sampleNames, groups, net});
+		} catch (IOException e) {
+			System.err.println("Failed to save the run to the file: " + args.stateFileName + " (" + e.getMessage() + ")");
+			System.exit(-1);
+		}
+	}
+	
+	
 	private static void writeTreesToTxtFile(PHYNetwork net, ArrayList<PHYTree> trees, ArrayList<String> sampleNames, Args args) {
 		String treeFileName = args.outputFileName;
 		try {
@@ -177,21 +390,27 @@ public class LineageEngine {
 	// ---- LAUNCH ----
 	
 	private static final String TREES_TXT_FILE_EXTENSION = ".trees";
+	private static final String BINARY_FILE_EXTENSION = ".lbin";
 	public static void main(String[] args) {
 		Options options = new Options(); 
 		// Commands
 		options.addOption("build", false, "Construct the sample lineage trees");
+		options.addOption("convert", false, "Convert the input file to the LICHeE binary format, which is loaded without parsing when used as the input of the build command (output default: input file with suffix .lbin)");
 		
 		// Input/Output/Display
-		options.addOption("i", true, "Input file path");
+		options.addOption("i", true, "Input file path (plain text, gzip or BGZF compressed, or a LICHeE binary file created by the convert command)");
 		options.addOption("o", true, "Output file path (default: input file with suffix .trees)");
 		options.addOption("cp", false, "Input data represents cell prevalaence (CP) values");
+		options.addOption("vcf", false, "Input file is a multi-sample VCF file: the VAFs are computed from the AD/DP (or AF) sample fields of the SNV records");
 		options.addOption("sampleProfile", false, "Input file contains the SSNV sample presence-absence profile (this will disable the default SSNV calling step)");
 		options.addOption("n", "normal", true, "Normal sample column id in the list of samples, 0-based (e.g 0 is the first column)");
 		options.addOption("clustersFile", true, "SSNV clusters file path");
 		options.addOption("s", "save", true, "Maximum number of output trees to save (default: 1)");
 		options.addOption("net", "showNetwork", false, "Display the constraint network");
 		options.addOption("tree", "showTree", true, "Number of top-ranking trees to display (default: 1)");
+		options.addOption("cache", true, "Directory used to cache the results of the pipeline stages for faster reruns (default: no caching)");
+		options.addOption("update", true, "State file of a previous run of the same patient: if it exists, the SSNVs of the input file are added to its groups, clusters and network (only the groups receiving new SSNVs are re-clustered), otherwise the state of this run is saved to it (cannot be used with -cache or -clustersFile; -spillDir is ignored when updating)");
+		options.addOption("spillDir", true, "Directory used to spill the SSNVs of each group to disk while they are not needed, for inputs that do not fit in memory (default: all SSNVs are kept in memory)");
 	
 		// SSNV filtering / calling
 		options.addOption("maxVAFAbsent", "absent", true, "Maximum VAF to robustly consider an SSNV as absent from a sample (default: 0.03)");
@@ -203,10 +422,12 @@ public class LineageEngine {
 		options.addOption("minClusterSize", true, "Minimum size a cluster must have to be a considered a node in the network (default: 2)");
 		options.addOption("minPrivateClusterSize", true, "Minimum size a private mutation cluster must have to be a considered a node in the network (default: 1)");
 		options.addOption("minRobustNodeSupport", true, "Minimum number of robust SSNVs required for a node to be labeled robust during tree search: non-robust nodes can be removed from the network when no valid lineage trees are found (default: 2)");
+		options.addOption("coresetSize", true, "Cluster multi-sample SSNV groups larger than this on a summary of at most this many weighted points; single-sample groups are always clustered exactly (default: 0, disabled)");
 		options.addOption("maxClusterDist", true, "Maximum mean VAF difference up to which two clusters can be collapsed (default: 0.2)");
 		options.addOption("c", "completeNetwork", false, "Add all possible edges to the constraint network (default: private nodes are connected only to closest level parents; only nodes with no other parents are descendants of root)");
 		options.addOption("e", true, "VAF error margin (default: 0.1)");
 		options.addOption("nTreeQPCheck", true, "Number of top-ranking trees the QP consistency check is run on, we have not seen this check to fail in practice (default: 0)");
+		options.addOption("threads", true, "Number of threads used to parse the input and cluster the SSNV groups (default: number of available processors)");
 		
 		options.addOption("v", "verbose", false, "Verbose mode");
 		options.addOption("h", "help", false, "Print usage");
@@ -214,16 +435,21 @@ public class LineageEngine {
 		// display order
 		ArrayList<Option> optionsList = new ArrayList<Option>();
 		optionsList.add(options.getOption("build"));
+		optionsList.add(options.getOption("convert"));
 
 		optionsList.add(options.getOption("i"));
 		optionsList.add(options.getOption("o"));
 		optionsList.add(options.getOption("cp"));
+		optionsList.add(options.getOption("vcf"));
 		optionsList.add(options.getOption("sampleProfile"));
 		optionsList.add(options.getOption("n"));
 		optionsList.add(options.getOption("clustersFile"));
 		optionsList.add(options.getOption("s"));
 		optionsList.add(options.getOption("net"));
 		optionsList.add(options.getOption("tree"));
+		optionsList.add(options.getOption("cache"));
+		optionsList.add(options.getOption("update"));
+		optionsList.add(options.getOption("spillDir"));
 		optionsList.add(options.getOption("maxVAFAbsent"));
 		optionsList.add(options.getOption("minVAFPresent"));
 		optionsList.add(options.getOption("maxVAFValid"));
@@ -232,9 +458,11 @@ public class LineageEngine {
 		optionsList.add(options.getOption("minPrivateClusterSize"));
 		optionsList.add(options.getOption("minRobustNodeSupport"));
 		optionsList.add(options.getOption("maxClusterDist"));
+		optionsList.add(options.getOption("coresetSize"));
 		optionsList.add(options.getOption("c"));
 		optionsList.add(options.getOption("e"));
 		optionsList.add(options.getOption("nTreeQPCheck"));
+		optionsList.add(options.getOption("threads"));
 		optionsList.add(options.getOption("v"));
 		optionsList.add(options.getOption("h"));
 		
@@ -259,17 +487,21 @@ public class LineageEngine {
 			hf.printHelp("lichee", options);
 			System.exit(-1);
 		}
+		boolean build = !cmdLine.hasOption("convert");
 		if(cmdLine.hasOption("o")) {
 			params.outputFileName = cmdLine.getOptionValue("o");	
 		} else {
-			params.outputFileName = params.inputFileName + TREES_TXT_FILE_EXTENSION;
+			params.outputFileName = params.inputFileName + (build ? TREES_TXT_FILE_EXTENSION : BINARY_FILE_EXTENSION);
+		}
+		if(cmdLine.hasOption("vcf")) {
+			Parameters.INPUT_FORMAT = Parameters.Format.VCF;
 		}
 		if(cmdLine.hasOption("clustersFile")) {
 			params.clustersFileName = cmdLine.getOptionValue("clustersFile");
 		}
 		if(cmdLine.hasOption("n")) {
 			params.normalSampleId = Integer.parseInt(cmdLine.getOptionValue("n"));
-		} else if(!cmdLine.hasOption("sampleProfile")) {
+		} else if(build && !cmdLine.hasOption("sampleProfile")) {
 			System.out.println("Required parameter: normal sample id [-n]");
 			hf.printHelp("lichee", options);
 			System.exit(-1);
@@ -283,17 +515,34 @@ public class LineageEngine {
 		if(cmdLine.hasOption("s")) {
 			params.numSave = Integer.parseInt(cmdLine.getOptionValue("s")); 
 		}
+		if(cmdLine.hasOption("cache")) {
+			params.cacheDirName = cmdLine.getOptionValue("cache");
+		}
+		if(cmdLine.hasOption("update")) {
+			if(params.clustersFileName != null) {
+				System.out.println("The -update option cannot be used with a clusters file");
+				System.exit(-1);
+			}
+			if(params.cacheDirName != null) {
+				System.out.println("The -update option cannot be used with the -cache option");
+				System.exit(-1);
+			}
+			params.stateFileName = cmdLine.getOptionValue("update");
+		}
+		if(cmdLine.hasOption("spillDir")) {
+			Parameters.SPILL_DIR = cmdLine.getOptionValue("spillDir");
+		}
 		
 		if(cmdLine.hasOption("maxVAFAbsent")) {
 			Parameters.MAX_VAF_ABSENT = Double.parseDouble(cmdLine.getOptionValue("maxVAFAbsent"));
-		} else if(!cmdLine.hasOption("sampleProfile")) {
+		} else if(build && !cmdLine.hasOption("sampleProfile")) {
 			System.out.println("Required parameter: -maxVAFAbsent");
 			hf.printHelp("lichee", options);
 			System.exit(-1);
 		}
 		if(cmdLine.hasOption("minVAFPresent")) {
 			Parameters.MIN_VAF_PRESENT = Double.parseDouble(cmdLine.getOptionValue("minVAFPresent"));
-		} else if(!cmdLine.hasOption("sampleProfile")) {
+		} else if(build && !cmdLine.hasOption("sampleProfile")) {
 			System.out.println("Required parameter: -minVAFPresent");
 			hf.printHelp("lichee", options);
 			System.exit(-1);
@@ -316,6 +565,9 @@ public class LineageEngine {
 		if(cmdLine.hasOption("maxClusterDist")) {
 			Parameters.MAX_COLLAPSE_CLUSTER_DIFF = Double.parseDouble(cmdLine.getOptionValue("maxClusterDist"));
 		}
+		if(cmdLine.hasOption("coresetSize")) {
+			Parameters.CORESET_SIZE = Integer.parseInt(cmdLine.getOptionValue("coresetSize"));
+		}
 		if(cmdLine.hasOption("c")) {
 			Parameters.ALL_EDGES = true;
 		}
@@ -330,6 +582,9 @@ public class LineageEngine {
 		if(cmdLine.hasOption("nTreeQPCheck")) {
 			Parameters.NUM_TREES_FOR_CONSISTENCY_CHECK = Integer.parseInt(cmdLine.getOptionValue("nTreeQPCheck"));
 		}
+		if(cmdLine.hasOption("threads")) {
+			Parameters.NUM_THREADS = Integer.parseInt(cmdLine.getOptionValue("threads"));
+		}
 		if(cmdLine.hasOption("h")) {
 			new HelpFormatter().printHelp(" ", options);
 		}
@@ -348,6 +603,8 @@ public class LineageEngine {
 		if(cmdLine.hasOption("build")) {
 			buildLineage(params);
 			
+		} else if(cmdLine.hasOption("convert")) {
+			SNVDataStore.convertToBinary(params.inputFileName, params.outputFileName);
 		} else {
 			new HelpFormatter().printHelp("lichee", options);
 			System.exit(-1);
@@ -364,6 +621,8 @@ public class LineageEngine {
 		String annFileName;
 		String cosmicFileName;
 		String tcgaFileName;
+		String cacheDirName;
+		String stateFileName;
 		
 		// --- 'show' command ---
 		String showFileNamePrefix;
@@ -0,0 +1,302 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Int-indexed adjacency structure of the constraint network.
+ * Edges are identified by their insertion index and are indexed by source (out-edges)
+ * and by target (in-edges) in compressed sparse row (CSR) form.
+ * Each edge has an active bit: removing and restoring an edge (e.g. during the spanning tree
+ * search) only toggles this bit and does not modify the index.
+ * Neighbor lists preserve the order in which the edges were first added.
+ */
+public class PHYAdjacency implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Source and target node ids of each edge (indexed by edge id) */
+	private int[] edgeFrom;
+	private int[] edgeTo;
+
+	/** Total number of edges ever added (active or not) */
+	private int numEdgeSlots;
+
+	/** Map of (from, to) node id pairs to their edge id */
+	private HashMap<Long, Integer> edgeIds;
+
+	/** Edges currently in the graph */
+	private BitSet active;
+
+	/** Number of edges currently in the graph */
+	private int numActive;
+
+	/** CSR index: out-edge ids of node v are outEdges[outOffsets[v]..outOffsets[v+1]) */
+	private int[] outOffsets;
+	private int[] outEdges;
+
+	/** CSR index: in-edge ids of node v are inEdges[inOffsets[v]..inOffsets[v+1]) */
+	private int[] inOffsets;
+	private int[] inEdges;
+
+	/** Number of node ids covered by the CSR index */
+	private int numIndexedNodes;
+
+	/** Flag indicating whether edges were added after the index was built */
+	private boolean indexed;
+
+	public PHYAdjacency() {
+		edgeFrom = new int[16];
+		edgeTo = new int[16];
+		numEdgeSlots = 0;
+		edgeIds = new HashMap<Long, Integer>();
+		active = new BitSet();
+		numActive = 0;
+		indexed = false;
+	}
+
+	/**
+	 * Copy constructor
+	 * The copy shares no mutable state with the original
+	 */
+	public PHYAdjacency(PHYAdjacency a) {
+		edgeFrom = Arrays.copyOf(a.edgeFrom, a.edgeFrom.length);
+		edgeTo = Arrays.copyOf(a.edgeTo, a.edgeTo.length);
+		numEdgeSlots = a.numEdgeSlots;
+		edgeIds = new HashMap<Long, Integer>(a.edgeIds);
+		active = (BitSet) a.active.clone();
+		numActive = a.numActive;
+		// the CSR arrays are never modified in place, only rebuilt
+		outOffsets = a.outOffsets;
+		outEdges = a.outEdges;
+		inOffsets = a.inOffsets;
+		inEdges = a.inEdges;
+		numIndexedNodes = a.numIndexedNodes;
+		indexed = a.indexed;
+	}
+
+	/** Returns the unique key of the (from, to) node id pair */
+	protected static long getKey(int from, int to) {
+		return (((long) from) << 32) | (to & 0xffffffffL);
+	}
+
+	// ---- Updates ----
+
+	/**
+	 * Adds the edge (from, to) to the graph
+	 * @return true if the edge was not already in the graph
+	 */
+	public boolean addEdge(int from, int to) {
+		Integer e = edgeIds.get(getKey(from, to));
+		if(e != null) {
+			if(active.get(e)) {
+				return false;
+			}
+			active.set(e);
+			numActive++;
+			return true;
+		}
+		if(numEdgeSlots == edgeFrom.length) {
+			edgeFrom = Arrays.copyOf(edgeFrom, 2*numEdgeSlots);
+			edgeTo = Arrays.copyOf(edgeTo, 2*numEdgeSlots);
+		}
+		edgeFrom[numEdgeSlots] = from;
+		edgeTo[numEdgeSlots] = to;
+		edgeIds.put(getKey(from, to), numEdgeSlots);
+		active.set(numEdgeSlots);
+		numEdgeSlots++;
+		numActive++;
+		indexed = false;
+		return true;
+	}
+
+	/**
+	 * Removes the edge (from, to) from the graph
+	 * The edge keeps its position in the index and can be restored with addEdge
+	 * @return true if the edge was in the graph
+	 */
+	public boolean removeEdge(int from, int to) {
+		Integer e = edgeIds.get(getKey(from, to));
+		if(e == null || !active.get(e)) {
+			return false;
+		}
+		active.clear(e);
+		numActive--;
+		return true;
+	}
+
+	/** Returns true if the edge (from, to) is in the graph */
+	public boolean containsEdge(int from, int to) {
+		Integer e = edgeIds.get(getKey(from, to));
+		return (e != null) && active.get(e);
+	}
+
+	// ---- Queries ----
+
+	/** Returns the number of edges in the graph */
+	public int getNumEdges() {
+		return numActive;
+	}
+
+	/** Returns true if edge e is in the graph */
+	public boolean isActive(int e) {
+		return active.get(e);
+	}
+
+	/** Returns the source node id of edge e */
+	public int getSource(int e) {
+		return edgeFrom[e];
+	}
+
+	/** Returns the target node id of edge e */
+	public int getTarget(int e) {
+		return edgeTo[e];
+	}
+
+	/**
+	 * Out-edges of node v are getOutEdge(k) for k in [getOutStart(v), getOutEnd(v)),
+	 * including edges that are not active
+	 */
+	public int getOutStart(int v) {
+		ensureIndexed();
+		return v < numIndexedNodes ? outOffsets[v] : 0;
+	}
+
+	public int getOutEnd(int v) {
+		ensureIndexed();
+		return v < numIndexedNodes ? outOffsets[v+1] : 0;
+	}
+
+	public int getOutEdge(int k) {
+		return outEdges[k];
+	}
+
+	/**
+	 * In-edges of node v are getInEdge(k) for k in [getInStart(v), getInEnd(v)),
+	 * including edges that are not active
+	 */
+	public int getInStart(int v) {
+		ensureIndexed();
+		return v < numIndexedNodes ? inOffsets[v] : 0;
+	}
+
+	public int getInEnd(int v) {
+		ensureIndexed();
+		return v < numIndexedNodes ? inOffsets[v+1] : 0;
+	}
+
+	public int getInEdge(int k) {
+		return inEdges[k];
+	}
+
+	/** Returns the ids of the nodes with an active edge from v */
+	public int[] getOutNeighbors(int v) {
+		int end = getOutEnd(v);
+		int[] nbrs = new int[end - getOutStart(v)];
+		int n = 0;
+		for(int k = getOutStart(v); k < end; k++) {
+			int e = outEdges[k];
+			if(active.get(e)) {
+				nbrs[n++] = edgeTo[e];
+			}
+		}
+		return Arrays.copyOf(nbrs, n);
+	}
+
+	/** Returns the ids of the nodes with an active edge to v */
+	public int[] getInNeighbors(int v) {
+		int end = getInEnd(v);
+		int[] nbrs = new int[end - getInStart(v)];
+		int n = 0;
+		for(int k = getInStart(v); k < end; k++) {
+			int e = inEdges[k];
+			if(active.get(e)) {
+				nbrs[n++] = edgeFrom[e];
+			}
+		}
+		return Arrays.copyOf(nbrs, n);
+	}
+
+	/** Returns the number of active edges from v */
+	public int getOutDegree(int v) {
+		int d = 0;
+		for(int k = getOutStart(v); k < getOutEnd(v); k++) {
+			if(active.get(outEdges[k])) d++;
+		}
+		return d;
+	}
+
+	/** Returns the number of active edges to v */
+	public int getInDegree(int v) {
+		int d = 0;
+		for(int k = getInStart(v); k < getInEnd(v); k++) {
+			if(active.get(inEdges[k])) d++;
+		}
+		return d;
+	}
+
+	// ---- CSR Index ----
+
+	/**
+	 * (Re-)builds the CSR index if edges were added since it was last built
+	 * Edges of each node are kept in insertion order (stable counting sort)
+	 */
+	private void ensureIndexed() {
+		if(indexed) return;
+		int maxId = -1;
+		for(int e = 0; e < numEdgeSlots; e++) {
+			if(edgeFrom[e] > maxId) maxId = edgeFrom[e];
+			if(edgeTo[e] > maxId) maxId = edgeTo[e];
+		}
+		numIndexedNodes = maxId + 1;
+		outOffsets = new int[numIndexedNodes + 1];
+		inOffsets = new int[numIndexedNodes + 1];
+		for(int e = 0; e < numEdgeSlots; e++) {
+			outOffsets[edgeFrom[e] + 1]++;
+			inOffsets[edgeTo[e] + 1]++;
+		}
+		for(int v = 0; v < numIndexedNodes; v++) {
+			outOffsets[v+1] += outOffsets[v];
+			inOffsets[v+1] += inOffsets[v];
+		}
+		outEdges = new int[numEdgeSlots];
+		inEdges = new int[numEdgeSlots];
+		int[] outPos = Arrays.copyOf(outOffsets, numIndexedNodes);
+		int[] inPos = Arrays.copyOf(inOffsets, numIndexedNodes);
+		for(int e = 0; e < numEdgeSlots; e++) {
+			outEdges[outPos[edgeFrom[e]]++] = e;
+			inEdges[inPos[edgeTo[e]]++] = e;
+		}
+		indexed = true;
+	}
+}
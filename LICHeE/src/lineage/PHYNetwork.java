@@ -35,8 +35,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,19 +67,37 @@ import edu.uci.ics.jung.graph.util.EdgeType;
 public class PHYNetwork implements Serializable {
 	private static final long serialVersionUID = 1L;
 	
-	/** Nodes in the graph divided by levels (number of samples node SNVs occurred in) */
-	protected HashMap<Integer, ArrayList<PHYNode>> nodes;
+	/** 
+	 * Nodes in the graph divided by levels (number of samples node SNVs occurred in)
+	 * Only non-empty levels are kept, so the closest non-empty levels are found without
+	 * visiting all the possible levels
+	 */
+	protected TreeMap<Integer, ArrayList<PHYNode>> nodes;
 	
 	/** Nodes in the graph indexed by their unique ID */
-	protected transient HashMap<Integer, PHYNode> nodesById;
+	protected ArrayList<PHYNode> nodesById;
 	
-	/** Adjacency map of nodes to the their neighbors/children */
-	protected transient HashMap<PHYNode, ArrayList<PHYNode>> edges;
+	/** Adjacency structure of node IDs to their neighbors/children and parents */
+	protected PHYAdjacency edges;
 	
-	/** Total number of nodes in the graph.
-	 *  During construction: used as a counter to assign unique IDs to nodes */
+	/** Total number of nodes in the graph */
 	protected int numNodes;
 	
+	/** Counter used to assign unique IDs to nodes 
+	 * (IDs of removed nodes are not reused) */
+	protected int nextNodeId;
+	
+	/** Edges added to connect nodes with no parents in the network, 
+	 * mapped to the ID of the node they were added for */
+	protected HashMap<Long, Integer> attachedEdges;
+	
+	/** ID of the node currently being connected (-1 when adding regular network edges) */
+	private int attachingNode = -1;
+	
+	/** Index used to find the candidate nodes to test for edges 
+	 * (built on demand, invalidated when nodes are added or removed) */
+	private transient PHYNodeIndex nodeIndex;
+	
 	/** Total number of edges in the graph */
 	protected int numEdges;
 	
@@ -94,19 +114,21 @@ public class PHYNetwork implements Serializable {
 	public PHYNetwork(ArrayList<SNVGroup> groups, int totalNumSamples) {
 		numSamples = totalNumSamples;
 		numNodes = 0;
-		nodes = new HashMap<Integer, ArrayList<PHYNode>>();
-		nodesById = new HashMap<Integer, PHYNode>();
-		edges = new HashMap<PHYNode, ArrayList<PHYNode>>(); 
+		nextNodeId = 0;
+		nodes = new TreeMap<Integer, ArrayList<PHYNode>>();
+		nodesById = new ArrayList<PHYNode>();
+		edges = new PHYAdjacency();
+		attachedEdges = new HashMap<Long, Integer>();
 	
 		// add root node
-		PHYNode root = new PHYNode(numSamples+1, numNodes);
+		PHYNode root = new PHYNode(numSamples+1, nextNodeId);
 		addNode(root, numSamples+1);
 				
 		// add group sub-population nodes
 		for(SNVGroup g : groups) {
 			PHYNode[] groupNodes = new PHYNode[g.getSubPopulations().length];
 			for(int i = 0; i < groupNodes.length; i++) {
-				PHYNode node = new PHYNode(g, i, g.getNumSamples(), numNodes);
+				PHYNode node = new PHYNode(g, i, g.getNumSamples(), nextNodeId);
 				addNode(node, g.getNumSamples());
 				groupNodes[i] = node;
 			}
@@ -119,19 +141,14 @@ public class PHYNetwork implements Serializable {
 		}
 		
 		// add inter-level edges
-		for(int i = numSamples + 1; i > 0; i--) {
+		for(int i : nodes.descendingKeySet()) {
+			if(i <= 0) continue;
 			ArrayList<PHYNode> fromLevelNodes = nodes.get(i);
-			if(fromLevelNodes == null) continue;
 			// find the next non-empty level
-			int j = i-1;
-			ArrayList<PHYNode> toLevelNodes = nodes.get(j);
-			while((toLevelNodes == null) && (j > 0)) {
-				j--;
-				toLevelNodes = nodes.get(j);
-			}
-			if(toLevelNodes == null) continue;
+			Integer j = nodes.lowerKey(i);
+			if(j == null) continue;
 			for(PHYNode n1 : fromLevelNodes) {
-				for(PHYNode n2: toLevelNodes) {
+				for(PHYNode n2: getEdgeCandidates(getNodeIndex().getCandidates(n1), j)) {
 					checkAndAddEdge(n1, n2);
 				}
 			}
@@ -142,36 +159,85 @@ public class PHYNetwork implements Serializable {
 		}
 		
 		// find the nodes that are not connected and connect them to a valid node in the closest higher level
-		int[] nodeMask = new int[numNodes];
-		for(PHYNode n : edges.keySet()) {
-			for(PHYNode m : edges.get(n)) {
-				nodeMask[m.getNodeId()] = 1;
+		int[] nodeMask = new int[nextNodeId];
+		for(int i = 0; i < nextNodeId; i++) {
+			if(edges.getInDegree(i) > 0) {
+				nodeMask[i] = 1;
 			}
 		}
 		
 		// skips the root
 		for(int i = 1; i < nodeMask.length; i++) {
 			if(nodeMask[i] == 0) {
-				PHYNode n = nodesById.get(i);			
-				// find a parent in the closest higher level
-				boolean found = false;
-				for(int j = n.getLevel() + 2; j <= numSamples + 1; j++) {
-					ArrayList<PHYNode> fromLevelNodes = nodes.get(j);
-					if(fromLevelNodes == null) continue;
-					for(PHYNode n2 : fromLevelNodes) {
-						if(checkAndAddEdge(n2, n) == 0) {
-							// found a parent
-							found = true;
-							break;
-						}
-					}
-					if(found) break;
-				}
-				if(!found) {
-					addEdge(root, n);
+				attachToClosestParent(nodesById.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Copy constructor
+	 * The copy shares the node objects with the original network, 
+	 * but can be modified independently
+	 */
+	protected PHYNetwork(PHYNetwork net) {
+		numSamples = net.numSamples;
+		numNodes = net.numNodes;
+		numEdges = net.numEdges;
+		nextNodeId = net.nextNodeId;
+		nodes = new TreeMap<Integer, ArrayList<PHYNode>>();
+		for(Integer level : net.nodes.keySet()) {
+			nodes.put(level, new ArrayList<PHYNode>(net.nodes.get(level)));
+		}
+		nodesById = new ArrayList<PHYNode>(net.nodesById);
+		edges = new PHYAdjacency(net.edges);
+		attachedEdges = new HashMap<Long, Integer>(net.attachedEdges);
+	}
+	
+	/**
+	 * Connects a node with no parents to a valid parent in the closest higher level
+	 * (or to the root if no such parent exists)
+	 * The edges added are recorded as attachment edges of this node
+	 */
+	private void attachToClosestParent(PHYNode n) {
+		attachingNode = n.getNodeId();
+		boolean found = false;
+		HashMap<Integer, ArrayList<PHYNode>> candidates = getNodeIndex().getCandidates(n);
+		for(int j : nodes.tailMap(n.getLevel() + 2).keySet()) {
+			for(PHYNode n2 : getEdgeCandidates(candidates, j)) {
+				if(checkAndAddEdge(n2, n) == 0) {
+					// found a parent
+					found = true;
+					break;
 				}
 			}
+			if(found) break;
+		}
+		if(!found) {
+			addEdge(getRoot(), n);
+		}
+		attachingNode = -1;
+	}
+	
+	/** Returns the germline root node */
+	public PHYNode getRoot() {
+		return nodes.get(numSamples+1).get(0);
+	}
+	
+	/** Returns the node index, building it if necessary */
+	private PHYNodeIndex getNodeIndex() {
+		if(nodeIndex == null) {
+			nodeIndex = new PHYNodeIndex(nodes, numSamples);
 		}
+		return nodeIndex;
+	}
+	
+	/**
+	 * Returns the candidates at the given level
+	 * @param candidates - candidate nodes grouped by level as returned by the node index
+	 */
+	private static ArrayList<PHYNode> getEdgeCandidates(HashMap<Integer, ArrayList<PHYNode>> candidates, int level) {
+		ArrayList<PHYNode> levelCandidates = candidates.get(level);
+		return (levelCandidates != null) ? levelCandidates : new ArrayList<PHYNode>();
 	}
 	
 	/**
@@ -192,26 +258,43 @@ public class PHYNetwork implements Serializable {
 			return -1;
 		}
 		
-		int comp_12 = 0;
-		int comp_21 = 0;
+		// n1 can only be a parent of n2 if it is present in all the samples of n2
+		// (and vice versa), so the sample supports are merged in sample order:
+		// samples where both nodes are absent satisfy both constraints
+		PHYNode.Support s1 = n1.getSupport();
+		PHYNode.Support s2 = n2.getSupport();
+		boolean comp_12 = true;
+		boolean comp_21 = true;
 		double err_12 = 0;
 		double err_21 = 0;
-		for(int i = 0; i < numSamples; i++) {
-			if((n1.getAAF(i) == 0) && (n2.getAAF(i) != 0)) break;
-			comp_12 += (n1.getAAF(i) >= (n2.getAAF(i) - getAAFErrorMargin(n1, n2, i))) ? 1 : 0;
-			if(n1.getAAF(i) < n2.getAAF(i)) {
-				err_12 += n2.getAAF(i) - n1.getAAF(i);
-			}
-		}
-		for(int i = 0; i < numSamples; i++) {
-			if((n2.getAAF(i) == 0) && (n1.getAAF(i) != 0)) break;
-			comp_21 += (n2.getAAF(i) >= (n1.getAAF(i) - getAAFErrorMargin(n2, n1, i))) ? 1 : 0;
-			if(n2.getAAF(i) < n1.getAAF(i)) {
-				err_21 += n1.getAAF(i) - n2.getAAF(i);
+		int k1 = 0;
+		int k2 = 0;
+		while((comp_12 || comp_21) && (k1 < s1.size() || k2 < s2.size())) {
+			int i1 = (k1 < s1.size()) ? s1.samples[k1] : Integer.MAX_VALUE;
+			int i2 = (k2 < s2.size()) ? s2.samples[k2] : Integer.MAX_VALUE;
+			if(i1 < i2) {
+				comp_21 = false;
+				k1++;
+			} else if(i2 < i1) {
+				comp_12 = false;
+				k2++;
+			} else {
+				double aaf1 = s1.aaf[k1];
+				double aaf2 = s2.aaf[k2];
+				comp_12 &= (aaf1 >= (aaf2 - getAAFErrorMargin(n1, n2, i1)));
+				comp_21 &= (aaf2 >= (aaf1 - getAAFErrorMargin(n2, n1, i1)));
+				if(aaf1 < aaf2) {
+					err_12 += aaf2 - aaf1;
+				}
+				if(aaf2 < aaf1) {
+					err_21 += aaf1 - aaf2;
+				}
+				k1++;
+				k2++;
 			}
 		}
-		if(comp_12 == numSamples) {
-			if (comp_21 == numSamples) {
+		if(comp_12) {
+			if (comp_21) {
 				if(err_12 < err_21) {
 					addEdge(n1, n2);
 					return 0;
@@ -223,7 +306,7 @@ public class PHYNetwork implements Serializable {
 				addEdge(n1, n2);
 				return 0;
 			}
-		} else if(comp_21 == numSamples) {
+		} else if(comp_21) {
 			addEdge(n2, n1);
 			return 1;
 		}
@@ -239,29 +322,25 @@ public class PHYNetwork implements Serializable {
 			//return Parameters.AAF_ERROR_MARGIN;
 		//}
 		
-		double parentStdError;
-		double childStdError;
-		int parentSampleSize = 0;
-		int childSampleSize = 0;
-		if(from.isRoot()) {
-			parentStdError = Parameters.VAF_ERROR_MARGIN;
-		} else {
-			parentSampleSize = from.getCluster().getMembership().size();
-			parentStdError = 1.96*from.getStdDev(i)/Math.sqrt((double)parentSampleSize);
-		}	
-		if(to.isRoot()) {
-			childStdError = Parameters.VAF_ERROR_MARGIN;
-		} else {
-			childSampleSize = to.getCluster().getMembership().size();
-			childStdError = 1.96*to.getStdDev(i)/Math.sqrt((double)childSampleSize);
-		}
-		double standardError = parentStdError + childStdError;
+		double standardError = getAAFStdError(from, i) + getAAFStdError(to, i);
 		if(standardError > Parameters.VAF_ERROR_MARGIN) {
 			return standardError;
 		}
 		return Parameters.VAF_ERROR_MARGIN;
 	}
 	
+	/**
+	 * Returns the standard error of the node's AAF centroid in sample i
+	 * (the root uses the static error margin)
+	 */
+	protected static double getAAFStdError(PHYNode n, int i) {
+		if(n.isRoot()) {
+			return Parameters.VAF_ERROR_MARGIN;
+		}
+		int sampleSize = n.getCluster().getSize();
+		return 1.96*n.getStdDev(i)/Math.sqrt((double)sampleSize);
+	}
+	
 	/** Adds a new node to the graph */
 	public void addNode(PHYNode node, int level) {
 		ArrayList<PHYNode> nodeList = nodes.get(level);
@@ -269,45 +348,52 @@ public class PHYNetwork implements Serializable {
 			nodes.put(level, new ArrayList<PHYNode>());
 		}
 		nodes.get(level).add(node);
-		nodesById.put(node.getNodeId(), node);
+		while(nodesById.size() <= node.getNodeId()) {
+			nodesById.add(null);
+		}
+		nodesById.set(node.getNodeId(), node);
 		numNodes++;
+		nodeIndex = null;
+		if(node.getNodeId() >= nextNodeId) {
+			nextNodeId = node.getNodeId() + 1;
+		}
 	}
 	
 	/** Adds a new edge to the graph */
 	public void addEdge(PHYNode from, PHYNode to) {
-		ArrayList<PHYNode> nbrs = edges.get(from);
-		if(nbrs == null) {
-			edges.put(from, new ArrayList<PHYNode>());
-		}
-		if(!edges.get(from).contains(to)) {
-			edges.get(from).add(to);
+		long key = PHYAdjacency.getKey(from.getNodeId(), to.getNodeId());
+		if(edges.addEdge(from.getNodeId(), to.getNodeId())) {
 			numEdges++;
+			if(attachingNode != -1) {
+				attachedEdges.put(key, attachingNode);
+			}
+		} else if(attachingNode == -1) {
+			// the edge is now a regular network edge
+			attachedEdges.remove(key);
 		}
 	}
 	
 	/** Removes an edge from the graph */
 	public void removeEdge(PHYNode from, PHYNode to) {
-		ArrayList<PHYNode> nbrs = edges.get(from);
-		if(nbrs != null) {
-			for(PHYNode n : nbrs) {
-				if(n.equals(to)) {
-					nbrs.remove(n);
-					break;
-				}
-			}
+		if(edges.removeEdge(from.getNodeId(), to.getNodeId())) {
+			numEdges--;
+			attachedEdges.remove(PHYAdjacency.getKey(from.getNodeId(), to.getNodeId()));
 		}
 	}
 	
 	/** Adds all the inter-level edges */
 	public void addAllHiddenEdges() {
-		for(int i = numSamples+1; i > 0; i--) { // (-) the root
+		HashMap<PHYNode, HashMap<Integer, ArrayList<PHYNode>>> candidates = new HashMap<PHYNode, HashMap<Integer, ArrayList<PHYNode>>>();
+		for(int i : nodes.descendingKeySet()) { // (-) the root
+			if(i <= 0) continue;
 			ArrayList<PHYNode> fromLevelNodes = nodes.get(i);
-			if(fromLevelNodes == null) continue;
-			for(int j = i-1; j >= 1; j--) { // (-) private
-				ArrayList<PHYNode> toLevelNodes = nodes.get(j);
-				if(toLevelNodes == null) continue;
+			for(PHYNode n1 : fromLevelNodes) {
+				candidates.put(n1, getNodeIndex().getCandidates(n1));
+			}
+			for(int j : nodes.headMap(i, false).descendingKeySet()) { // (-) private
+				if(j < 1) break;
 				for(PHYNode n1 : fromLevelNodes) {
-					for(PHYNode n2: toLevelNodes) {
+					for(PHYNode n2: getEdgeCandidates(candidates.get(n1), j)) {
 						checkAndAddEdge(n1, n2);
 					}
 				}
@@ -317,48 +403,48 @@ public class PHYNetwork implements Serializable {
 	
 	// ---- Network Adjustments ----
 	
+	// adjustments are applied to a copy of the network: only the edges touching 
+	// the removed/added nodes are recomputed and only the nodes that lost or gained 
+	// parents are re-connected
+	
 	/**
 	 * The network needs to be adjusted when no valid spanning PHYTrees are found.
 	 * Adjustments include: 
 	 * - removing nodes corresponding to less robust clusters (smallest first)
 	 */
 	public PHYNetwork fixNetwork() {
-		// reconstruct the network from clusters of robust groups only
-		Set<SNVGroup> filteredGroups = new HashSet<SNVGroup>();
-		Cluster toRemove = null;
-		SNVGroup group = null;
-		for(PHYNode n : nodesById.values()) {
+		PHYNode toRemove = null;
+		for(PHYNode n : nodesById) {
+			if(n == null) continue;
 			Cluster c = n.getCluster();
 			SNVGroup g = n.snvGroup;
 			if(g != null) {
-				if(!filteredGroups.contains(n.snvGroup)) {
-					filteredGroups.add(n.snvGroup);
-				}
 				// check if this cluster is robust
 				if((!c.isRobust())) {
 					if (toRemove == null) {
-						toRemove = c;
-						group = g;
-					} else if(c.getMembership().size() < toRemove.getMembership().size()) { // smallest
-						toRemove = c;
-						group = g;
+						toRemove = n;
+					} else if(c.getSize() < toRemove.getCluster().getSize()) { // smallest
+						toRemove = n;
 					}
 				}
 			}
 		}
+		PHYNetwork net = new PHYNetwork(this);
 		if(toRemove != null) {
-			group.removeCluster(toRemove);
-			logger.log(Level.INFO, "Removed cluster " + toRemove.getId() + " of group " + group.getTag() + " of size " + toRemove.getMembership().size() + " with members: ");
-			for(Integer snv : toRemove.getMembership()) {
-				SNVEntry entry = group.getSNVs().get(snv);
-				logger.log(Level.INFO, entry.toString());
+			Cluster c = toRemove.getCluster();
+			SNVGroup group = toRemove.getSNVGroup();
+			group.removeCluster(c);
+			logger.log(Level.INFO, "Removed cluster " + c.getId() + " of group " + group.getTag() + " of size " + c.getSize() + " with members: ");
+			for(int i = 0; i < c.getSize(); i++) {
+				logger.log(Level.INFO, group.getSNV(c.getMember(i)).toString());
 			}
+			net.deleteNode(toRemove);
 		}
-		return new PHYNetwork(new ArrayList<SNVGroup>(filteredGroups), numSamples);
+		return net;
 	}
 	
 	/** 
-	 * Collapses two cluster nodes and reconstructs the network
+	 * Collapses two cluster nodes and returns the updated network
 	 * @requires the two nodes are in the same group
 	 */
 	public PHYNetwork collapseClusterNodes(PHYNode n1, PHYNode n2) {	
@@ -367,59 +453,296 @@ public class PHYNetwork implements Serializable {
 		Cluster c2 = n2.getCluster();
 		
 		// collapse c1 and c2
-		Cluster union = new AAFClusterer().new Cluster(c1.getCentroid().clone(), new ArrayList<Integer>(c1.getMembership()), c1.getId());
-		union.setStdDev(c1.getStdDev());
-		for(Integer obs : c2.getMembership()) {
-			union.addMember(obs);
-		}
-		union.recomputeCentroidAndStdDev(g.alleleFreqBySample, g.getSNVs().size(), g.getNumSamples());
-		
-		SNVGroup newG = null;
-		Set<SNVGroup> groups = new HashSet<SNVGroup>();
-		for(PHYNode n : nodesById.values()) {
-			SNVGroup group = n.getSNVGroup();
-			if(group != null) {
-				if(!group.equals(g)) {
-					if(!groups.contains(g)) {
-						groups.add(n.getSNVGroup());	
-					}
-				} else {
-					if(newG == null) {
-						newG = new SNVGroup(g.getTag(), g.getSNVs(), g.isRobust());
-						newG.subPopulations = g.subPopulations.clone();
-						newG.removeCluster(c1);
-						newG.removeCluster(c2);
-						newG.addCluster(union);
-						groups.add(newG);
-					}
+		Cluster union = new AAFClusterer().new Cluster(c1);
+		union.merge(c2, g.getAlleleFreqBySample(), g.getNumSNVs(), g.getNumSamples());
+		
+		SNVGroup newG = new SNVGroup(g);
+		newG.subPopulations = g.subPopulations.clone();
+		newG.removeCluster(c1);
+		newG.removeCluster(c2);
+		newG.addCluster(union);
+		
+		// position of the group's first node in its level
+		int groupStart = 0;
+		while(!g.equals(nodes.get(n1.getLevel()).get(groupStart).getSNVGroup())) {
+			groupStart++;
+		}
+		
+		PHYNetwork net = new PHYNetwork(this);
+		net.replaceGroup(g, newG);
+		HashSet<Integer> affected = new HashSet<Integer>();
+		affected.addAll(net.deleteNodeEdges(n1));
+		affected.addAll(net.deleteNodeEdges(n2));
+		
+		// add the union node and its edges
+		// (the node is placed after the other nodes of its group, as when the network is constructed)
+		int level = n1.getLevel();
+		PHYNode u = new PHYNode(newG, newG.getSubPopulations().length - 1, level, net.nextNodeId);
+		net.addNode(u, level);
+		ArrayList<PHYNode> levelNodes = net.nodes.get(level);
+		levelNodes.remove(u);
+		int pos = groupStart;
+		for(PHYNode n : levelNodes) {
+			if(g.equals(n.getSNVGroup())) {
+				pos++;
+			}
+		}
+		levelNodes.add(pos, u);
+		for(PHYNode n : net.nodes.get(level)) {
+			if(n != u && g.equals(n.getSNVGroup())) {
+				net.checkAndAddEdge(n, u);
+			}
+		}
+		HashMap<Integer, ArrayList<PHYNode>> candidates = net.getNodeIndex().getCandidates(u);
+		for(int i : net.nodes.tailMap(level, false).keySet()) {
+			for(PHYNode n : getEdgeCandidates(candidates, i)) {
+				net.checkAndAddEdge(n, u);
+			}
+			if(!Parameters.ALL_EDGES) break;
+		}
+		for(int j : net.nodes.headMap(level, false).descendingKeySet()) {
+			if(j <= 0) break;
+			for(PHYNode n : getEdgeCandidates(candidates, j)) {
+				net.checkAndAddEdge(u, n);
+			}
+			if(!Parameters.ALL_EDGES) break;
+		}
+		
+		// the union node and its children may have gained parents
+		affected.add(u.getNodeId());
+		for(int n : net.edges.getOutNeighbors(u.getNodeId())) {
+			affected.add(n);
+		}
+		net.reattachNodes(affected);
+		return net;
+	}
+	
+	/**
+	 * Replaces SNV groups and returns the updated network (used to add new SNVs to a previous run):
+	 * the nodes of the removed groups are deleted and nodes are added for the sub-populations 
+	 * of the added groups, as when the network is constructed
+	 * The network is rebuilt from all the groups if the set of non-empty levels changes,
+	 * since the inter-level edges depend on it
+	 * @param removed - groups whose nodes are removed
+	 * @param added - (clustered) groups whose nodes are added
+	 * @param groups - all the groups of the updated network
+	 */
+	public PHYNetwork updateGroups(ArrayList<SNVGroup> removed, ArrayList<SNVGroup> added, ArrayList<SNVGroup> groups) {
+		Set<SNVGroup> removedSet = Collections.newSetFromMap(new IdentityHashMap<SNVGroup, Boolean>());
+		removedSet.addAll(removed);
+		ArrayList<PHYNode> toRemove = new ArrayList<PHYNode>();
+		for(PHYNode n : nodesById) {
+			if(n == null || n.isRoot() || n.isLeaf()) continue;
+			if(removedSet.contains(n.getSNVGroup())) {
+				toRemove.add(n);
+			}
+		}
+		
+		// number of nodes in each level after the update
+		HashMap<Integer, Integer> levelSizes = new HashMap<Integer, Integer>();
+		for(int level : nodes.keySet()) {
+			levelSizes.put(level, nodes.get(level).size());
+		}
+		for(PHYNode n : toRemove) {
+			levelSizes.put(n.getLevel(), levelSizes.get(n.getLevel()) - 1);
+		}
+		for(SNVGroup g : added) {
+			Integer size = levelSizes.get(g.getNumSamples());
+			levelSizes.put(g.getNumSamples(), ((size != null) ? size : 0) + g.getSubPopulations().length);
+		}
+		HashSet<Integer> levels = new HashSet<Integer>();
+		for(int level : levelSizes.keySet()) {
+			if(levelSizes.get(level) > 0) {
+				levels.add(level);
+			}
+		}
+		if(!levels.equals(nodes.keySet())) {
+			logger.fine("The network levels changed, rebuilding the network");
+			return new PHYNetwork(groups, numSamples);
+		}
+		
+		PHYNetwork net = new PHYNetwork(this);
+		HashSet<Integer> affected = new HashSet<Integer>();
+		for(PHYNode n : toRemove) {
+			affected.addAll(net.deleteNodeEdges(n));
+		}
+		for(PHYNode n : toRemove) {
+			affected.remove(n.getNodeId());
+		}
+		
+		// add the new nodes and the edges between the nodes of each group
+		ArrayList<PHYNode> newNodes = new ArrayList<PHYNode>();
+		for(SNVGroup g : added) {
+			PHYNode[] groupNodes = new PHYNode[g.getSubPopulations().length];
+			for(int i = 0; i < groupNodes.length; i++) {
+				groupNodes[i] = new PHYNode(g, i, g.getNumSamples(), net.nextNodeId);
+				net.addNode(groupNodes[i], g.getNumSamples());
+				newNodes.add(groupNodes[i]);
+			}
+			for(int i = 0; i < groupNodes.length; i++) {
+				for(int j = i+1; j < groupNodes.length; j++) {
+					net.checkAndAddEdge(groupNodes[i], groupNodes[j]);
+				}
+			}
+		}
+		
+		// add the edges to the closest non-empty levels (or to all the levels)
+		for(PHYNode u : newNodes) {
+			int level = u.getLevel();
+			HashMap<Integer, ArrayList<PHYNode>> candidates = net.getNodeIndex().getCandidates(u);
+			for(int i : net.nodes.tailMap(level, false).keySet()) {
+				for(PHYNode n : getEdgeCandidates(candidates, i)) {
+					net.checkAndAddEdge(n, u);
 				}
+				if(!Parameters.ALL_EDGES) break;
+			}
+			for(int j : net.nodes.headMap(level, false).descendingKeySet()) {
+				if(j <= 0) break;
+				for(PHYNode n : getEdgeCandidates(candidates, j)) {
+					net.checkAndAddEdge(u, n);
+				}
+				if(!Parameters.ALL_EDGES) break;
+			}
+		}
+		
+		// the new nodes and their children may have gained parents
+		for(PHYNode u : newNodes) {
+			affected.add(u.getNodeId());
+			for(int n : net.edges.getOutNeighbors(u.getNodeId())) {
+				affected.add(n);
 			}
 		}
-		return new PHYNetwork(new ArrayList<SNVGroup>(groups), numSamples);
+		net.reattachNodes(affected);
+		return net;
 	}
 	
-	/** Removes a node and reconstructs the network */
+	/** Removes a node and returns the updated network */
 	public PHYNetwork removeNode(PHYNode node) {
-		SNVGroup newG = null;
-		Set<SNVGroup> groups = new HashSet<SNVGroup>();
-		for(PHYNode n : nodesById.values()) {
-			SNVGroup g = n.getSNVGroup();
-			if(g != null) {
-				if(g.equals(node.getSNVGroup())) {
-					if(newG == null) {
-						newG = new SNVGroup(g.getTag(), g.getSNVs(), g.isRobust());
-						newG.setSubPopulations(g.subPopulations.clone());
-						newG.removeCluster(node.getCluster());
-						groups.add(newG);
-					}
-				} else {
-					if(!groups.contains(n.getSNVGroup())) {
-						groups.add(n.getSNVGroup());
+		SNVGroup g = node.getSNVGroup();
+		SNVGroup newG = new SNVGroup(g);
+		newG.subPopulations = g.subPopulations.clone();
+		newG.removeCluster(node.getCluster());
+		
+		PHYNetwork net = new PHYNetwork(this);
+		net.replaceGroup(g, newG);
+		net.deleteNode(node);
+		return net;
+	}
+	
+	/**
+	 * Removes a node and its edges from the network,
+	 * connects the adjacent levels if the node's level becomes empty
+	 * and re-connects the nodes that lost their parents
+	 */
+	private void deleteNode(PHYNode node) {
+		HashSet<Integer> affected = deleteNodeEdges(node);
+		int level = node.getLevel();
+		if(nodes.get(level) == null) {
+			// connect the closest non-empty levels above and below
+			int i = nodes.higherKey(level); // the root level is never empty
+			Integer j = nodes.lowerKey(level);
+			if(j != null) {
+				for(PHYNode n1 : nodes.get(i)) {
+					for(PHYNode n2 : getEdgeCandidates(getNodeIndex().getCandidates(n1), j)) {
+						checkAndAddEdge(n1, n2);
 					}
 				}
+				for(PHYNode n2 : nodes.get(j)) {
+					affected.add(n2.getNodeId());
+				}
+			}
+		}
+		reattachNodes(affected);
+	}
+	
+	/**
+	 * Removes a node and all its edges from the network
+	 * @return IDs of the remaining nodes that were connected to it
+	 */
+	private HashSet<Integer> deleteNodeEdges(PHYNode node) {
+		HashSet<Integer> nbrs = new HashSet<Integer>();
+		int id = node.getNodeId();
+		for(int n : edges.getOutNeighbors(id)) {
+			removeEdge(node, nodesById.get(n));
+			nbrs.add(n);
+		}
+		for(int n : edges.getInNeighbors(id)) {
+			removeEdge(nodesById.get(n), node);
+			nbrs.add(n);
+		}
+		nbrs.remove(getRoot().getNodeId());
+		
+		ArrayList<PHYNode> levelNodes = nodes.get(node.getLevel());
+		levelNodes.remove(node);
+		if(levelNodes.size() == 0) {
+			nodes.remove(node.getLevel());
+		}
+		nodesById.set(id, null);
+		numNodes--;
+		nodeIndex = null;
+		return nbrs;
+	}
+	
+	/**
+	 * Recomputes the attachment edges of the given nodes (in ID order, as during construction):
+	 * nodes with no parents in the network are connected to a parent in the closest higher level, 
+	 * the attachment edges of nodes that have parents are removed
+	 */
+	private void reattachNodes(Set<Integer> nodeIds) {
+		ArrayList<Integer> ids = new ArrayList<Integer>(nodeIds);
+		Collections.sort(ids);
+		for(int id : ids) {
+			PHYNode n = nodesById.get(id);
+			if(n == null || n.isRoot()) continue;
+			
+			// remove the edges previously added for this node
+			for(int m : edges.getInNeighbors(id)) {
+				Integer owner = attachedEdges.get(PHYAdjacency.getKey(m, id));
+				if(owner != null && owner == id) {
+					removeEdge(nodesById.get(m), n);
+				}
+			}
+			for(int m : edges.getOutNeighbors(id)) {
+				Integer owner = attachedEdges.get(PHYAdjacency.getKey(id, m));
+				if(owner != null && owner == id) {
+					removeEdge(n, nodesById.get(m));
+				}
+			}
+			
+			boolean hasParent = false;
+			for(int m : edges.getInNeighbors(id)) {
+				if(!attachedEdges.containsKey(PHYAdjacency.getKey(m, id))) {
+					hasParent = true;
+					break;
+				}
+			}
+			if(!hasParent) {
+				attachToClosestParent(n);
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the nodes of group g with equivalent nodes of group newG
+	 * (node IDs and edges are preserved)
+	 * @requires newG to contain the clusters of all the nodes of g in this network
+	 */
+	private void replaceGroup(SNVGroup g, SNVGroup newG) {
+		for(int i = 0; i < nodesById.size(); i++) {
+			PHYNode n = nodesById.get(i);
+			if(n == null || n.getSNVGroup() != g) continue;
+			Cluster[] clusters = newG.getSubPopulations();
+			for(int c = 0; c < clusters.length; c++) {
+				if(clusters[c] == n.getCluster()) {
+					PHYNode newNode = new PHYNode(newG, c, n.getLevel(), n.getNodeId());
+					ArrayList<PHYNode> levelNodes = nodes.get(n.getLevel());
+					levelNodes.set(levelNodes.indexOf(n), newNode);
+					nodesById.set(i, newNode);
+					nodeIndex = null;
+					break;
+				}
 			}
 		}
-		return new PHYNetwork(new ArrayList<SNVGroup>(groups), numSamples);
 	}
 	
 	// ---- Spanning PHYTree Generation ----
@@ -427,7 +750,7 @@ public class PHYNetwork implements Serializable {
 	// based on the algorithm from Gabow & Myers '78
 	
 	/** List of all generated spanning trees */
-	private transient ArrayList<PHYTree> spanningTrees;
+	private ArrayList<PHYTree> spanningTrees;
 	
 	/** Stack of edges directed from vertices in tree T to vertices not in T */
 	private transient ArrayList<PHYEdge> f;
@@ -462,14 +785,15 @@ public class PHYNetwork implements Serializable {
 				if(t.checkConstraint(e.from)) {
 					// update f
 					ArrayList<PHYEdge> edgesAdded = new ArrayList<PHYEdge>();
-					ArrayList<PHYNode> vNbrs = edges.get(v);
-					if(vNbrs != null) {
-						for(PHYNode w : vNbrs) {
-							if(!t.containsNode(w)) {
-								PHYEdge vw = new PHYEdge(v, w);
-								f.add(vw);
-								edgesAdded.add(vw);
-							}
+					int vId = v.getNodeId();
+					for(int k = edges.getOutStart(vId); k < edges.getOutEnd(vId); k++) {
+						int vw = edges.getOutEdge(k);
+						if(!edges.isActive(vw)) continue;
+						PHYNode w = nodesById.get(edges.getTarget(vw));
+						if(!t.containsNode(w)) {
+							PHYEdge vwEdge = new PHYEdge(v, w);
+							f.add(vwEdge);
+							edgesAdded.add(vwEdge);
 						}
 					}
 				
@@ -507,34 +831,31 @@ public class PHYNetwork implements Serializable {
 				
 				// remove e from T and G
 				t.removeEdge(e.from, e.to);
-				this.removeEdge(e.from, e.to);
+				edges.removeEdge(e.from.getNodeId(), e.to.getNodeId());
 				
 				// add e to FF
 				ff.add(e);
 				
-				// bridge test
+				// bridge test (all remaining edges (w,v) must come from descendants of v in L)
 				b = true;
-				for(PHYNode w : this.edges.keySet()) {
-					ArrayList<PHYNode> wNbrs = this.edges.get(w);
-					if(wNbrs == null) continue;
-					for(PHYNode n : wNbrs) {
-						if(n.equals(v)) {
-							// check if w is a descendant of v in L
-							if((L == null) || (!L.isDescendent(v, w))) {
-								b = false;
-								break;
-							}
-						}
+				int vId = v.getNodeId();
+				for(int k = edges.getInStart(vId); k < edges.getInEnd(vId); k++) {
+					int wv = edges.getInEdge(k);
+					if(!edges.isActive(wv)) continue;
+					PHYNode w = nodesById.get(edges.getSource(wv));
+					// check if w is a descendant of v in L
+					if((L == null) || (!L.isDescendent(v, w))) {
+						b = false;
+						break;
 					}
-					if(!b) break;
-				}				
+				}
 			}
 			
 			// pop from ff, push to f, add to G
 			for(int i = ff.size()-1; i >=0; i--) {
 				PHYEdge e = ff.get(i);
 				f.add(e);
-				this.addEdge(e.from, e.to);
+				edges.addEdge(e.from.getNodeId(), e.to.getNodeId());
 			}
 			ff.clear();
 		}
@@ -549,15 +870,14 @@ public class PHYNetwork implements Serializable {
 		
 		// initialize tree t to contain the root
 		PHYTree t = new PHYTree();
-		PHYNode root = nodes.get(numSamples+1).get(0);
+		PHYNode root = getRoot();
 		t.addNode(root);
 		// initialize f to contain all edges (root, v)
 		f = new ArrayList<PHYEdge>();
-		ArrayList<PHYNode> nbrs = edges.get(root);
-		if(nbrs == null || nbrs.size() == 0) return spanningTrees;
-		for(PHYNode n : nbrs) {
-			f.add(new PHYEdge(root, n));
-			
+		int[] nbrs = edges.getOutNeighbors(root.getNodeId());
+		if(nbrs.length == 0) return spanningTrees;
+		for(int n : nbrs) {
+			f.add(new PHYEdge(root, nodesById.get(n)));
 		}
 		grow(t);
 		//applyConsistencyConstraints(spanningTrees);
@@ -765,10 +1085,12 @@ public class PHYNetwork implements Serializable {
 		HashMap<Integer, String> nodeLabels = new HashMap<Integer, String>();
 			
 		int edgeId = 0;
-		for (PHYNode n : edges.keySet()) {
+		for (PHYNode n : nodesById) {
+			if(n == null || edges.getOutDegree(n.getNodeId()) == 0) continue;
 			g.addVertex(n.getNodeId());
 			nodeLabels.put(n.getNodeId(), n.getLabel());
-			for(PHYNode n2 : edges.get(n)) {
+			for(int n2Id : edges.getOutNeighbors(n.getNodeId())) {
+				PHYNode n2 = nodesById.get(n2Id);
 				if(!g.containsVertex(n2.getNodeId())) {
 					g.addVertex(n2.getNodeId());
 					nodeLabels.put(n2.getNodeId(), n2.getLabel());
@@ -781,7 +1103,7 @@ public class PHYNetwork implements Serializable {
 	}
 	
 	/** Displays a spanning tree of the network */
-	public void displayTree(PHYTree t, ArrayList<String> sampleNames, HashMap<String, ArrayList<SNVEntry>> snvsByTag, String fileOutputName) {			
+	public void displayTree(PHYTree t, ArrayList<String> sampleNames, HashMap<SampleProfile, ArrayList<SNVEntry>> snvsByTag, String fileOutputName) {			
 		DirectedGraph<Integer, Integer> g = new DirectedSparseGraph<Integer, Integer>();
 		HashMap<Integer, String> nodeLabels = new HashMap<Integer, String>();
 		HashMap<Integer, PHYNode> nodeObj = new HashMap<Integer, PHYNode>();
@@ -804,7 +1126,7 @@ public class PHYNetwork implements Serializable {
 		
 		// add sample leaves
 		for(int i = 0; i < numSamples; i++) {
-			PHYNode n = new PHYNode(0, i, numNodes + i);
+			PHYNode n = new PHYNode(0, i, nextNodeId + i);
 			g.addVertex(-n.getNodeId());
 			nodeLabels.put(-n.getNodeId(), sampleNames.get(i));
 			nodeObj.put(-n.getNodeId(), n);
@@ -813,9 +1135,7 @@ public class PHYNetwork implements Serializable {
 			boolean found = false;
 			ArrayList<PHYNode> parents = new ArrayList<PHYNode>();
 			ArrayList<PHYNode> sameLevelParents = new ArrayList<PHYNode>();
-			for(int j = n.getLevel() + 1; j <= numSamples; j++) {
-				ArrayList<PHYNode> fromLevelNodes = nodes.get(j);
-				if(fromLevelNodes == null) continue;
+			for(ArrayList<PHYNode> fromLevelNodes : nodes.subMap(n.getLevel() + 1, true, numSamples, true).values()) {
 				for(PHYNode n2 : fromLevelNodes) {
 					if(n2.getAAF(i) > 0) {
 						boolean addEdge = true;
@@ -878,10 +1198,10 @@ public class PHYNetwork implements Serializable {
 			}
 		}
 		graph += "EDGES: \n";
-		for(PHYNode n1 : edges.keySet()) {
-			ArrayList<PHYNode> nbrs = edges.get(n1);
-			for(PHYNode n2 : nbrs) {
-				graph += n1.getNodeId() + " -> " + n2.getNodeId() + "\n";
+		for(PHYNode n1 : nodesById) {
+			if(n1 == null) continue;
+			for(int n2 : edges.getOutNeighbors(n1.getNodeId())) {
+				graph += n1.getNodeId() + " -> " + n2 + "\n";
 			}
 		}
 		
@@ -898,15 +1218,15 @@ public class PHYNetwork implements Serializable {
 			if(levelNodes != null) {
 				for(PHYNode n : levelNodes) {
 					if(n.isRoot()) continue;
-					String tag = n.getSNVGroup().getTag();
+					SampleProfile tag = n.getSNVGroup().getTag();
 					s += n.getNodeId() + "\t";
 					s += tag + "\t";
-					s += n.getCluster().getMembership().size() + "\t";
+					s += n.getCluster().getSize() + "\t";
 					double[] c = n.getCluster().getCentroid();
 					DecimalFormat df = new DecimalFormat("#.##");
 					int idx = 0;
-					for(int j = 0; j < tag.length(); j++) {
-						if(tag.charAt(j) == '1') {
+					for(int j = 0; j < tag.getNumSamples(); j++) {
+						if(tag.get(j)) {
 							s += df.format(c[idx]) + "\t";
 							idx++;
 						} else {
@@ -926,7 +1246,7 @@ public class PHYNetwork implements Serializable {
 			if(levelNodes != null) {
 				for(PHYNode n : levelNodes) {
 					if(n.isRoot()) continue;
-					ArrayList<SNVEntry> snvs = n.getSNVs(n.getSNVGroup().getSNVs());
+					ArrayList<SNVEntry> snvs = n.getSNVs();
 					s += n.getNodeId();
 		    		s += "\t" + n.getSNVGroup().getTag();
 		    		s += "\t[";
@@ -952,7 +1272,7 @@ public class PHYNetwork implements Serializable {
 			if(levelNodes != null) {
 				for(PHYNode n : levelNodes) {
 					if(n.isRoot()) continue;
-					ArrayList<SNVEntry> snvs = n.getSNVs(n.getSNVGroup().getSNVs());
+					ArrayList<SNVEntry> snvs = n.getSNVs();
 		    		for(SNVEntry snv : snvs) {
 		    			s += "snv" + snv.getId() + ": " + snv.getChromosome() + " " + snv.getPosition() + " " + snv.getDescription() + "\n";
 		        	}
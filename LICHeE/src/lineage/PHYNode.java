@@ -31,6 +31,7 @@ package lineage;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import lineage.AAFClusterer.Cluster;
 
@@ -65,6 +66,27 @@ public class PHYNode implements Serializable, Comparable<PHYNode> {
 	/** Level in the constraint network */
 	private int level;
 	
+	/** Samples the node is present in (built on demand) */
+	private transient Support support;
+	
+	/**
+	 * Sparse sample support of a node: the samples with a non-zero AAF (ascending)
+	 * and the node's AAF in each of them
+	 */
+	protected static class Support {
+		protected final int[] samples;
+		protected final double[] aaf;
+		
+		private Support(int[] samples, double[] aaf) {
+			this.samples = samples;
+			this.aaf = aaf;
+		}
+		
+		public int size() {
+			return samples.length;
+		}
+	}
+	
 	/** 
 	 * Internal node constructor
 	 * @param g - SNV group the node belongs to
@@ -141,7 +163,7 @@ public class PHYNode implements Serializable, Comparable<PHYNode> {
 	
 	public int getSize() {
 		if(cluster == null) return 0;
-		return cluster.getMembership().size();
+		return cluster.getSize();
 	}
 	
 	/**
@@ -191,15 +213,67 @@ public class PHYNode implements Serializable, Comparable<PHYNode> {
 		return cluster.getStdDev()[sampleIndex];
 	}
 	
+	/**
+	 * Returns the samples the node is present in (with a non-zero AAF)
+	 * The support is computed from the node's cluster once, 
+	 * without visiting the samples the node is absent from
+	 */
+	public Support getSupport() {
+		if(support == null) {
+			int n = 0;
+			int[] samples;
+			double[] aaf;
+			if(isLeaf) {
+				samples = new int[0];
+				aaf = new double[0];
+			} else if(isRoot) {
+				int numSamples = getNumSamples();
+				samples = new int[numSamples];
+				aaf = new double[numSamples];
+				if(Parameters.VAF_MAX != 0) {
+					for(int i = 0; i < numSamples; i++) {
+						samples[n] = i;
+						aaf[n] = Parameters.VAF_MAX;
+						n++;
+					}
+				}
+			} else {
+				int numSamples = snvGroup.getNumSamples();
+				samples = new int[numSamples];
+				aaf = new double[numSamples];
+				double[] centroid = cluster.getCentroid();
+				for(int i = 0; i < numSamples; i++) {
+					if(centroid[i] == 0) continue;
+					samples[n] = snvGroup.getSampleId(i);
+					aaf[n] = centroid[i];
+					n++;
+				}
+			}
+			support = new Support(Arrays.copyOf(samples, n), Arrays.copyOf(aaf, n));
+		}
+		return support;
+	}
+	
 	/**
 	 * Returns the SNV entries in the cluster
 	 * corresponding to this node
 	 */
+	public ArrayList<SNVEntry> getSNVs() {
+		ArrayList<SNVEntry> nodeSNVs = new ArrayList<SNVEntry>();
+		for(int i = 0; i < cluster.getSize(); i++) {
+			nodeSNVs.add(snvGroup.getSNV(cluster.getMember(i)));
+		}
+		return nodeSNVs;
+	}
+	
+	/**
+	 * Returns the SNV entries in the cluster
+	 * corresponding to this node from the given list of group SNVs
+	 */
 	public ArrayList<SNVEntry> getSNVs(ArrayList<SNVEntry> groupSNVs) {
-		ArrayList<Integer> ids = cluster.getMembership();
 		ArrayList<SNVEntry> nodeSNVs = new ArrayList<SNVEntry>();
-		for(int i : ids) {
-			nodeSNVs.add(groupSNVs.get(i));
+		for(int i = 0; i < cluster.getSize(); i++) {
+			nodeSNVs.add(groupSNVs.get(cluster.getMember(i)));
 		}
 		return nodeSNVs;
 	}
@@ -220,7 +294,7 @@ public class PHYNode implements Serializable, Comparable<PHYNode> {
 		if(!isLeaf && !isRoot) {
 			//node += nodeId + ": \n";
 			node += snvGroup.getTag() + "\n";
-			node += "("+cluster.getMembership().size()+")";
+			node += "("+cluster.getSize()+")";
 		} else if(isLeaf) {
 			node += "sample " + leafSampleId;
 		} else {
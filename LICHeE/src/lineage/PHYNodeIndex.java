@@ -0,0 +1,430 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Index over the nodes of the constraint network used to find
+ * the plausible parents and children of a node without testing all the node pairs.
+ *
+ * An edge from p to c can only be added by PHYNetwork.checkAndAddEdge if
+ * (1) c is present only in samples where p is present (the sample support of p is
+ * a superset of the support of c) and
+ * (2) in every sample i where c is present: AAF(p, i) >= AAF(c, i) - margin(p, c, i).
+ * Supports are indexed as sample profiles and (2) is bounded using the largest standard
+ * error in each sample, so the index returns a superset of the nodes that can be connected.
+ * The per-sample structures only contain the nodes present in the sample, so the index
+ * size is proportional to the total size of the node supports rather than to the number of nodes
+ * times the number of samples.
+ *
+ * Candidates are returned grouped by level, each group ordered by position within the level,
+ * so that the edges to a given level only test the candidates at that level.
+ */
+public class PHYNodeIndex {
+
+	/** Slack for floating point differences between the bound and the exact test */
+	private static final double EPS = 1e-9;
+
+	private int numSamples;
+
+	/** Indexed nodes ordered by level (highest first) and position in level */
+	private PHYNode[] nodes;
+
+	/** Position of each node in the nodes array by node ID */
+	private HashMap<Integer, Integer> positionById;
+
+	/** Sample support of each node (ascending) */
+	private int[][] support;
+	/** AAF of each node in the samples of its support */
+	private double[][] aaf;
+	/** Upper bound on the AAF a child of each node can have in the samples of its support */
+	private double[][] reach;
+
+	/** Sample support profile of each node */
+	private SampleProfile[] profiles;
+
+	/** Node positions grouped by their support profile */
+	private HashMap<SampleProfile, ArrayList<Integer>> nodesByProfile;
+
+	/** Per-sample positions of the nodes present in the sample sorted by AAF (ascending) */
+	private int[][] byAAF;
+	private double[][] sortedAAF;
+
+	/** Per-sample positions of the nodes present in the sample sorted by reach (ascending) */
+	private int[][] byReach;
+	private double[][] sortedReach;
+
+	/**
+	 * Builds the index over the given network levels
+	 * @param levels - nodes in the network by level
+	 */
+	public PHYNodeIndex(TreeMap<Integer, ArrayList<PHYNode>> levels, int totalNumSamples) {
+		numSamples = totalNumSamples;
+
+		ArrayList<PHYNode> all = new ArrayList<PHYNode>();
+		for(ArrayList<PHYNode> levelNodes : levels.descendingMap().values()) {
+			all.addAll(levelNodes);
+		}
+		int n = all.size();
+		nodes = all.toArray(new PHYNode[n]);
+		positionById = new HashMap<Integer, Integer>();
+		for(int i = 0; i < n; i++) {
+			positionById.put(nodes[i].getNodeId(), i);
+		}
+
+		support = new int[n][];
+		aaf = new double[n][];
+		reach = new double[n][];
+		profiles = new SampleProfile[n];
+		nodesByProfile = new HashMap<SampleProfile, ArrayList<Integer>>();
+		double[][] stdErr = new double[n][];
+		double[] maxStdErr = new double[numSamples];
+		int[] numPresent = new int[numSamples];
+		for(int i = 0; i < n; i++) {
+			PHYNode.Support s = nodes[i].getSupport();
+			support[i] = s.samples;
+			aaf[i] = s.aaf;
+			stdErr[i] = new double[s.size()];
+			long[] w = SampleProfile.newWords(numSamples);
+			for(int k = 0; k < s.size(); k++) {
+				int sample = s.samples[k];
+				w[sample >>> 6] |= 1L << sample;
+				stdErr[i][k] = PHYNetwork.getAAFStdError(nodes[i], sample);
+				if(stdErr[i][k] > maxStdErr[sample]) {
+					maxStdErr[sample] = stdErr[i][k];
+				}
+				numPresent[sample]++;
+			}
+			profiles[i] = new SampleProfile(numSamples, w);
+			if(!nodesByProfile.containsKey(profiles[i])) {
+				nodesByProfile.put(profiles[i], new ArrayList<Integer>());
+			}
+			nodesByProfile.get(profiles[i]).add(i);
+		}
+
+		// per-sample lists of the nodes present in each sample
+		int[][] present = new int[numSamples][];
+		double[][] presentAAF = new double[numSamples][];
+		double[][] presentReach = new double[numSamples][];
+		for(int s = 0; s < numSamples; s++) {
+			present[s] = new int[numPresent[s]];
+			presentAAF[s] = new double[numPresent[s]];
+			presentReach[s] = new double[numPresent[s]];
+			numPresent[s] = 0;
+		}
+		for(int i = 0; i < n; i++) {
+			reach[i] = new double[support[i].length];
+			for(int k = 0; k < support[i].length; k++) {
+				int s = support[i][k];
+				// the margin used by checkAndAddEdge is max(VAF_ERROR_MARGIN, stdErr(p) + stdErr(c))
+				double margin = stdErr[i][k] + maxStdErr[s];
+				if(!(margin > Parameters.VAF_ERROR_MARGIN)) {
+					margin = Parameters.VAF_ERROR_MARGIN;
+				}
+				reach[i][k] = aaf[i][k] + margin;
+				present[s][numPresent[s]] = i;
+				presentAAF[s][numPresent[s]] = aaf[i][k];
+				presentReach[s][numPresent[s]] = reach[i][k];
+				numPresent[s]++;
+			}
+		}
+
+		byAAF = new int[numSamples][];
+		sortedAAF = new double[numSamples][];
+		byReach = new int[numSamples][];
+		sortedReach = new double[numSamples][];
+		for(int s = 0; s < numSamples; s++) {
+			int m = present[s].length;
+			int[] aafOrder = sortPositions(presentAAF[s]);
+			int[] reachOrder = sortPositions(presentReach[s]);
+			byAAF[s] = new int[m];
+			sortedAAF[s] = new double[m];
+			byReach[s] = new int[m];
+			sortedReach[s] = new double[m];
+			for(int k = 0; k < m; k++) {
+				byAAF[s][k] = present[s][aafOrder[k]];
+				sortedAAF[s][k] = presentAAF[s][aafOrder[k]];
+				byReach[s][k] = present[s][reachOrder[k]];
+				sortedReach[s][k] = presentReach[s][reachOrder[k]];
+			}
+		}
+	}
+
+	/** Returns the indices of the given values sorted by value (ascending) */
+	private static int[] sortPositions(final double[] values) {
+		Integer[] positions = new Integer[values.length];
+		for(int i = 0; i < positions.length; i++) {
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(values[a], values[b]);
+			}
+		});
+		int[] sorted = new int[positions.length];
+		for(int i = 0; i < sorted.length; i++) {
+			sorted[i] = positions[i];
+		}
+		return sorted;
+	}
+
+	// ---- Queries ----
+
+	/**
+	 * Returns the nodes that can potentially be connected to n by an edge in either direction
+	 * @return the candidates grouped by level
+	 */
+	public HashMap<Integer, ArrayList<PHYNode>> getCandidates(PHYNode n) {
+		Integer p = positionById.get(n.getNodeId());
+		if(p == null) {
+			return groupByLevel(getAllExcept(p));
+		}
+		ArrayList<Integer> candidates = getCandidateParents(p);
+		candidates.addAll(getCandidateChildren(p));
+		return groupByLevel(toSortedNodes(candidates, p));
+	}
+
+	/**
+	 * Returns the nodes that can potentially be parents of n
+	 * @return the candidates grouped by level
+	 */
+	public HashMap<Integer, ArrayList<PHYNode>> getCandidateParents(PHYNode n) {
+		Integer p = positionById.get(n.getNodeId());
+		if(p == null) {
+			return groupByLevel(getAllExcept(p));
+		}
+		return groupByLevel(toSortedNodes(getCandidateParents(p), p));
+	}
+
+	/**
+	 * Returns the nodes that can potentially be children of n
+	 * @return the candidates grouped by level
+	 */
+	public HashMap<Integer, ArrayList<PHYNode>> getCandidateChildren(PHYNode n) {
+		Integer p = positionById.get(n.getNodeId());
+		if(p == null) {
+			return groupByLevel(getAllExcept(p));
+		}
+		return groupByLevel(toSortedNodes(getCandidateChildren(p), p));
+	}
+
+	/**
+	 * Candidate parents of the node at position c:
+	 * nodes with a superset support that can dominate its AAF in every sample
+	 */
+	private ArrayList<Integer> getCandidateParents(int c) {
+		// most selective sample: fewest present nodes with reach >= AAF(c)
+		int bestSample = -1;
+		int bestCount = nodes.length + 1;
+		for(int k = 0; k < support[c].length; k++) {
+			int s = support[c][k];
+			int count = sortedReach[s].length - lowerBound(sortedReach[s], aaf[c][k] - EPS);
+			if(count < bestCount) {
+				bestCount = count;
+				bestSample = s;
+			}
+		}
+
+		ArrayList<Integer> candidates = new ArrayList<Integer>();
+		ArrayList<SampleProfile> supersets = getSupersetProfiles(profiles[c]);
+		int supersetCount = 0;
+		for(SampleProfile profile : supersets) {
+			supersetCount += nodesByProfile.get(profile).size();
+		}
+		if(bestSample == -1 || supersetCount <= bestCount) {
+			for(SampleProfile profile : supersets) {
+				for(int i : nodesByProfile.get(profile)) {
+					if(canBeParent(i, c)) candidates.add(i);
+				}
+			}
+		} else {
+			int start = sortedReach[bestSample].length - bestCount;
+			for(int k = start; k < sortedReach[bestSample].length; k++) {
+				int i = byReach[bestSample][k];
+				if(canBeParent(i, c)) candidates.add(i);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Candidate children of the node at position p:
+	 * nodes with a subset support whose AAF can be dominated by p in every sample
+	 */
+	private ArrayList<Integer> getCandidateChildren(int p) {
+		int[] sup = support[p];
+		ArrayList<SampleProfile> subsets = getSubsetProfiles(profiles[p]);
+		int subsetCount = 0;
+		// number of nodes with a subset support present in each sample of the support of p
+		int[] subsetCountBySample = new int[sup.length];
+		for(SampleProfile profile : subsets) {
+			ArrayList<Integer> profileNodes = nodesByProfile.get(profile);
+			subsetCount += profileNodes.size();
+			for(int s : support[profileNodes.get(0)]) {
+				subsetCountBySample[Arrays.binarySearch(sup, s)] += profileNodes.size();
+			}
+		}
+
+		// most selective sample: fewest nodes with a subset support that are 
+		// absent from the sample or present with AAF <= reach(p)
+		int bestSample = -1;
+		int bestCount = nodes.length + 1;
+		for(int k = 0; k < sup.length; k++) {
+			int s = sup[k];
+			int count = (subsetCount - subsetCountBySample[k]) + upperBound(sortedAAF[s], reach[p][k] + EPS);
+			if(count < bestCount) {
+				bestCount = count;
+				bestSample = s;
+			}
+		}
+
+		ArrayList<Integer> candidates = new ArrayList<Integer>();
+		if(bestSample == -1 || subsetCount <= bestCount) {
+			for(SampleProfile profile : subsets) {
+				for(int i : nodesByProfile.get(profile)) {
+					if(canBeParent(p, i)) candidates.add(i);
+				}
+			}
+		} else {
+			for(SampleProfile profile : subsets) {
+				if(profile.get(bestSample)) continue;
+				for(int i : nodesByProfile.get(profile)) {
+					if(canBeParent(p, i)) candidates.add(i);
+				}
+			}
+			int end = upperBound(sortedAAF[bestSample], reach[p][Arrays.binarySearch(sup, bestSample)] + EPS);
+			for(int k = 0; k < end; k++) {
+				int i = byAAF[bestSample][k];
+				if(canBeParent(p, i)) candidates.add(i);
+			}
+		}
+		return candidates;
+	}
+
+	/** 
+	 * Returns true if node p passes the support and AAF bounds to be a parent of node c 
+	 * (the supports are merged in sample order)
+	 */
+	private boolean canBeParent(int p, int c) {
+		if(p == c) return false;
+		int[] sp = support[p];
+		int[] sc = support[c];
+		if(sc.length > sp.length) return false;
+		int kp = 0;
+		for(int kc = 0; kc < sc.length; kc++) {
+			while(kp < sp.length && sp[kp] < sc[kc]) kp++;
+			if(kp == sp.length || sp[kp] != sc[kc]) return false;
+			if(reach[p][kp] < aaf[c][kc] - EPS) return false;
+		}
+		return true;
+	}
+
+	/** Returns the indexed support profiles that are supersets of the given profile */
+	private ArrayList<SampleProfile> getSupersetProfiles(SampleProfile profile) {
+		ArrayList<SampleProfile> result = new ArrayList<SampleProfile>();
+		for(SampleProfile p : nodesByProfile.keySet()) {
+			if(p.isSupersetOf(profile)) result.add(p);
+		}
+		return result;
+	}
+
+	/** Returns the indexed support profiles that are subsets of the given profile */
+	private ArrayList<SampleProfile> getSubsetProfiles(SampleProfile profile) {
+		ArrayList<SampleProfile> result = new ArrayList<SampleProfile>();
+		for(SampleProfile p : nodesByProfile.keySet()) {
+			if(p.isSubsetOf(profile)) result.add(p);
+		}
+		return result;
+	}
+
+	/** Returns the index of the first value >= x */
+	private static int lowerBound(double[] sorted, double x) {
+		int lo = 0, hi = sorted.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(sorted[mid] < x) lo = mid + 1; else hi = mid;
+		}
+		return lo;
+	}
+
+	/** Returns the index of the first value > x */
+	private static int upperBound(double[] sorted, double x) {
+		int lo = 0, hi = sorted.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(sorted[mid] <= x) lo = mid + 1; else hi = mid;
+		}
+		return lo;
+	}
+
+	private ArrayList<PHYNode> toSortedNodes(Collection<Integer> positions, int exclude) {
+		int[] p = new int[positions.size()];
+		int k = 0;
+		for(int i : positions) {
+			if(i != exclude) p[k++] = i;
+		}
+		p = Arrays.copyOf(p, k);
+		Arrays.sort(p);
+		ArrayList<PHYNode> result = new ArrayList<PHYNode>();
+		for(int i = 0; i < p.length; i++) {
+			if(i > 0 && p[i] == p[i-1]) continue;
+			result.add(nodes[p[i]]);
+		}
+		return result;
+	}
+
+	/** Groups the given nodes (ordered by level) by level */
+	private static HashMap<Integer, ArrayList<PHYNode>> groupByLevel(ArrayList<PHYNode> sorted) {
+		HashMap<Integer, ArrayList<PHYNode>> result = new HashMap<Integer, ArrayList<PHYNode>>();
+		ArrayList<PHYNode> levelNodes = null;
+		for(PHYNode n : sorted) {
+			if(levelNodes == null || levelNodes.get(0).getLevel() != n.getLevel()) {
+				levelNodes = new ArrayList<PHYNode>();
+				result.put(n.getLevel(), levelNodes);
+			}
+			levelNodes.add(n);
+		}
+		return result;
+	}
+
+	private ArrayList<PHYNode> getAllExcept(Integer exclude) {
+		ArrayList<PHYNode> result = new ArrayList<PHYNode>();
+		for(int i = 0; i < nodes.length; i++) {
+			if(exclude == null || i != exclude) result.add(nodes[i]);
+		}
+		return result;
+	}
+}
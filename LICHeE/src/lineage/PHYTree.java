@@ -184,7 +184,7 @@ public class PHYTree implements Comparable<PHYTree>, Serializable {
 		String s = "";
 		for(PHYNode n : treeNodes) {
 			if(n.getSNVGroup() == null) continue;
-    		ArrayList<SNVEntry> snvs = n.getSNVs(n.getSNVGroup().getSNVs());
+    		ArrayList<SNVEntry> snvs = n.getSNVs();
     		s += n.getNodeId();
     		s += "\t" + n.getSNVGroup().getTag();
     		for(SNVEntry snv : snvs) {
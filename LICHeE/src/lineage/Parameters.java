@@ -25,6 +25,18 @@ public class Parameters {
 	/** Maximum centroid difference up to which two clusters can be collapsed */
 	protected static double MAX_COLLAPSE_CLUSTER_DIFF = 0.2; 
 	
+	/** Groups with more SNVs than this are clustered on a weighted summary of the SNVs (0 to disable) */
+	protected static int CORESET_SIZE = 0;
+	
+	/** Maximum number of group clustering results kept in memory */
+	protected static int CLUSTERING_CACHE_SIZE = 256;
+	
+	/** Number of worker threads used to parse the input and cluster the SNV groups */
+	protected static int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	/** Directory of the spill files of the SNV groups (null to keep all the SNVs in memory) */
+	protected static String SPILL_DIR = null;
+	
 	// Constraint graph and spanning tree generation
 	/** Maximum VAF (used for the root node) */
 	protected static double VAF_MAX = 0.5;
@@ -0,0 +1,249 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import util.CNVRegion;
+
+/**
+ * Annotates SNVs with the CNV regions, functional annotations 
+ * and COSMIC/TCGA mutations that overlap them
+ * 
+ * The CNV regions of each chromosome are sorted by start position and kept with
+ * the running maximum of their end positions, so the regions covering an SNV
+ * are found with a binary search; the mutation databases are hashed by 
+ * chromosome and position
+ */
+public class SNVAnnotator {
+	
+	/** Start positions of the CNV regions by chromosome (sorted) */
+	private int[][] cnvStarts;
+	/** Maximum end position of the CNV regions up to each start (by chromosome) */
+	private int[][] cnvMaxEnds;
+	/** Chromosomes entirely covered by a CNV region */
+	private boolean[] cnvWholeChr;
+	
+	/** Functional annotations in the order of the SNVs */
+	private ArrayList<String> functions;
+	
+	/** COSMIC mutations by locus */
+	private HashMap<Long, String> cosmicByLocus;
+	/** COSMIC mutations without a chromosome (matched on any chromosome) */
+	private HashMap<Integer, String> cosmicByPosition;
+	
+	/** TCGA mutation loci */
+	private HashSet<Long> tcgaLoci;
+	
+	/** Minimum number of SNVs annotated by a single task */
+	private static final int MIN_BATCH_SIZE = 4096;
+	
+	/** Returns the key of a chromosome position */
+	protected static long getLocusKey(int chr, int pos) {
+		return (((long) chr) << 32) | (pos & 0xffffffffL);
+	}
+	
+	// ---- Annotation Sources ----
+	
+	public void setCNVs(ArrayList<CNVRegion> cnvs) {
+		int numChr = 0;
+		for(CNVRegion c : cnvs) {
+			numChr = Math.max(numChr, c.getChromosome() + 1);
+		}
+		int[] counts = new int[numChr];
+		cnvWholeChr = new boolean[numChr];
+		for(CNVRegion c : cnvs) {
+			if(c.getChromosome() < 0) continue;
+			if(c.isWholeChromosome()) {
+				cnvWholeChr[c.getChromosome()] = true;
+			} else {
+				counts[c.getChromosome()]++;
+			}
+		}
+		
+		// sort the regions of each chromosome by start position 
+		long[][] regions = new long[numChr][];
+		for(int i = 0; i < numChr; i++) {
+			regions[i] = new long[counts[i]];
+			counts[i] = 0;
+		}
+		for(CNVRegion c : cnvs) {
+			if(c.getChromosome() < 0 || c.isWholeChromosome()) continue;
+			regions[c.getChromosome()][counts[c.getChromosome()]++] = getLocusKey(c.getStartPosition(), c.getEndPosition());
+		}
+		cnvStarts = new int[numChr][];
+		cnvMaxEnds = new int[numChr][];
+		for(int i = 0; i < numChr; i++) {
+			long[] r = regions[i];
+			Arrays.sort(r);
+			cnvStarts[i] = new int[r.length];
+			cnvMaxEnds[i] = new int[r.length];
+			int maxEnd = Integer.MIN_VALUE;
+			for(int j = 0; j < r.length; j++) {
+				cnvStarts[i][j] = (int) (r[j] >> 32);
+				maxEnd = Math.max(maxEnd, (int) r[j]);
+				cnvMaxEnds[i][j] = maxEnd;
+			}
+		}
+	}
+	
+	public void setFunctions(ArrayList<String> anns) {
+		functions = anns;
+	}
+	
+	/** Adds a COSMIC mutation (chr < 0 if the chromosome is not known) */
+	public void addCOSMIC(int chr, int pos, String info) {
+		if(chr < 0) {
+			if(cosmicByPosition == null) {
+				cosmicByPosition = new HashMap<Integer, String>();
+			}
+			cosmicByPosition.put(pos, info);
+		} else {
+			if(cosmicByLocus == null) {
+				cosmicByLocus = new HashMap<Long, String>();
+			}
+			cosmicByLocus.put(getLocusKey(chr, pos), info);
+		}
+	}
+	
+	public void addTCGA(int chr, int pos) {
+		if(tcgaLoci == null) {
+			tcgaLoci = new HashSet<Long>();
+		}
+		tcgaLoci.add(getLocusKey(chr, pos));
+	}
+	
+	// ---- Lookup ----
+	
+	/** Returns true if the position is inside a CNV region */
+	public boolean isInCNVRegion(int chr, int pos) {
+		if(chr < 0 || chr >= cnvStarts.length) return false;
+		if(cnvWholeChr[chr]) return true;
+		int[] starts = cnvStarts[chr];
+		// last region starting at or before the position
+		int lo = 0, hi = starts.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(starts[mid] <= pos) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo > 0 && cnvMaxEnds[chr][lo - 1] >= pos;
+	}
+	
+	/** Returns the COSMIC mutation info at the given position (null if none) */
+	public String getCOSMIC(int chr, int pos) {
+		String info = null;
+		if(cosmicByLocus != null) {
+			info = cosmicByLocus.get(getLocusKey(chr, pos));
+		}
+		if(info == null && cosmicByPosition != null) {
+			info = cosmicByPosition.get(pos);
+		}
+		return info;
+	}
+	
+	public boolean isTCGA(int chr, int pos) {
+		return tcgaLoci != null && tcgaLoci.contains(getLocusKey(chr, pos));
+	}
+	
+	// ---- Annotation ----
+	
+	/** 
+	 * Annotates the given SNVs 
+	 * (the functional annotations are matched to the SNVs by index)
+	 */
+	public void annotate(final ArrayList<SNVEntry> snvs) {
+		int n = snvs.size();
+		int numThreads = Math.max(1, Math.min(Parameters.NUM_THREADS, (n + MIN_BATCH_SIZE - 1)/MIN_BATCH_SIZE));
+		if(numThreads == 1) {
+			annotate(snvs, 0, n);
+			return;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			int batchSize = Math.max(MIN_BATCH_SIZE, (n + 4*numThreads - 1)/(4*numThreads));
+			ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+			for(int start = 0; start < n; start += batchSize) {
+				final int from = start;
+				final int to = Math.min(start + batchSize, n);
+				results.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						annotate(snvs, from, to);
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> r : results) {
+				r.get();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			System.err.println("Failed to annotate the SNVs");
+			System.exit(-1);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private void annotate(ArrayList<SNVEntry> snvs, int from, int to) {
+		for(int i = from; i < to; i++) {
+			SNVEntry entry = snvs.get(i);
+			int chr = entry.getChromosome();
+			int pos = entry.getPosition();
+			if(cnvStarts != null) {
+				entry.inCNVRegion = isInCNVRegion(chr, pos);
+			}
+			if(functions != null) {
+				entry.addAnnotation(functions.get(i));
+			}
+			String cosmic = getCOSMIC(chr, pos);
+			if(cosmic != null) {
+				entry.addAnnotation(cosmic);
+			}
+			if(isTCGA(chr, pos)) {
+				entry.addAnnotation("+TCGA+");
+			}
+		}
+	}
+}
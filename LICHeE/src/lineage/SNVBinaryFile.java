@@ -0,0 +1,285 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * LICHeE binary SNV file: the input SNVs stored in columns that are 
+ * memory-mapped when the file is opened, so no text parsing is needed 
+ * to load them again.
+ * 
+ * Layout (big-endian):
+ * magic, version, number of samples, number of rows, flags, 
+ * sample names (length-prefixed UTF-8), followed by the columns: 
+ * id, chromosome and position (int), one VAF column per sample (double), 
+ * description offsets (int, number of rows + 1), the description pool (UTF-8)
+ * and, if the input contained them, the presence profiles (long words per row).
+ * Each column is mapped separately, so only the description pool is limited to 2GB.
+ */
+public class SNVBinaryFile {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] MAGIC = "LICHEEB\0".getBytes(UTF8);
+	private static final int VERSION = 1;
+	private static final int FLAG_PROFILES = 1;
+	
+	private ArrayList<String> sampleNames;
+	private int numSamples;
+	private int numRows;
+	
+	private RandomAccessFile file;
+	private ByteBuffer ids;
+	private ByteBuffer chrs;
+	private ByteBuffer positions;
+	private ByteBuffer[] vafs;
+	private ByteBuffer descOffsets;
+	private ByteBuffer descPool;
+	/** Presence profiles (null if not stored) */
+	private ByteBuffer profiles;
+	private int numProfileWords;
+	
+	/** Returns true if the file starts with the binary file magic number */
+	public static boolean isBinaryFile(String fileName) {
+		File f = new File(fileName);
+		if(!f.isFile() || f.length() < MAGIC.length) return false;
+		try {
+			RandomAccessFile rf = new RandomAccessFile(f, "r");
+			byte[] magic = new byte[MAGIC.length];
+			try {
+				rf.readFully(magic);
+			} finally {
+				rf.close();
+			}
+			return Arrays.equals(magic, MAGIC);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Opens the file and maps its columns
+	 */
+	public SNVBinaryFile(String fileName) throws IOException {
+		file = new RandomAccessFile(new File(fileName), "r");
+		byte[] magic = new byte[MAGIC.length];
+		file.readFully(magic);
+		if(!Arrays.equals(magic, MAGIC)) {
+			close();
+			throw new IOException("Not a LICHeE binary file: " + fileName);
+		}
+		int version = file.readInt();
+		if(version != VERSION) {
+			close();
+			throw new IOException("Unsupported LICHeE binary file version " + version + ": " + fileName);
+		}
+		numSamples = file.readInt();
+		numRows = file.readInt();
+		int flags = file.readInt();
+		sampleNames = new ArrayList<String>();
+		for(int i = 0; i < numSamples; i++) {
+			byte[] name = new byte[file.readInt()];
+			file.readFully(name);
+			sampleNames.add(new String(name, UTF8));
+		}
+		
+		FileChannel channel = file.getChannel();
+		long pos = file.getFilePointer();
+		ids = map(channel, pos, 4L*numRows);
+		pos += 4L*numRows;
+		chrs = map(channel, pos, 4L*numRows);
+		pos += 4L*numRows;
+		positions = map(channel, pos, 4L*numRows);
+		pos += 4L*numRows;
+		vafs = new ByteBuffer[numSamples];
+		for(int i = 0; i < numSamples; i++) {
+			vafs[i] = map(channel, pos, 8L*numRows);
+			pos += 8L*numRows;
+		}
+		descOffsets = map(channel, pos, 4L*(numRows + 1));
+		pos += 4L*(numRows + 1);
+		int poolSize = descOffsets.getInt(4*numRows);
+		descPool = map(channel, pos, poolSize);
+		pos += poolSize;
+		if((flags & FLAG_PROFILES) != 0) {
+			numProfileWords = SampleProfile.newWords(numSamples).length;
+			profiles = map(channel, pos, 8L*numProfileWords*numRows);
+		}
+	}
+	
+	private static MappedByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+		if(pos + size > channel.size()) {
+			throw new IOException("Truncated LICHeE binary file");
+		}
+		if(size > Integer.MAX_VALUE) {
+			throw new IOException("LICHeE binary file column exceeds the maximum mapped size (2GB)");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+	}
+	
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			// nothing to release
+		}
+	}
+	
+	/**
+	 * Writes the rows of an SNV table to a binary file
+	 * @param profiles - presence profile of each row (null if not provided by the input)
+	 */
+	public static void write(String fileName, ArrayList<String> sampleNames, SNVTable table, SampleProfile[] profiles) throws IOException {
+		int numSamples = table.getNumSamples();
+		int numRows = table.getNumRows();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		try {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numSamples);
+			out.writeInt(numRows);
+			out.writeInt(profiles != null ? FLAG_PROFILES : 0);
+			for(String name : sampleNames) {
+				byte[] b = name.getBytes(UTF8);
+				out.writeInt(b.length);
+				out.write(b);
+			}
+			for(int row = 0; row < numRows; row++) {
+				out.writeInt(table.getId(row));
+			}
+			for(int row = 0; row < numRows; row++) {
+				out.writeInt(table.getChromosome(row));
+			}
+			for(int row = 0; row < numRows; row++) {
+				out.writeInt(table.getPosition(row));
+			}
+			for(int i = 0; i < numSamples; i++) {
+				double[] column = table.getVAFColumn(i);
+				for(int row = 0; row < numRows; row++) {
+					out.writeDouble(column[row]);
+				}
+			}
+			byte[][] descs = new byte[numRows][];
+			long offset = 0;
+			out.writeInt(0);
+			for(int row = 0; row < numRows; row++) {
+				descs[row] = table.getDescription(row).getBytes(UTF8);
+				offset += descs[row].length;
+				if(offset > Integer.MAX_VALUE) {
+					throw new IOException("The SNV descriptions exceed the maximum binary file description size");
+				}
+				out.writeInt((int) offset);
+			}
+			for(int row = 0; row < numRows; row++) {
+				out.write(descs[row]);
+			}
+			if(profiles != null) {
+				for(int row = 0; row < numRows; row++) {
+					long[] w = SampleProfile.newWords(numSamples);
+					for(int i = 0; i < numSamples; i++) {
+						if(profiles[row].get(i)) {
+							w[i >>> 6] |= 1L << i;
+						}
+					}
+					for(long word : w) {
+						out.writeLong(word);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	// Getters
+	
+	public ArrayList<String> getSampleNames() {
+		return sampleNames;
+	}
+	
+	public int getNumSamples() {
+		return numSamples;
+	}
+	
+	public int getNumRows() {
+		return numRows;
+	}
+	
+	public int getId(int row) {
+		return ids.getInt(4*row);
+	}
+	
+	public int getChromosome(int row) {
+		return chrs.getInt(4*row);
+	}
+	
+	public int getPosition(int row) {
+		return positions.getInt(4*row);
+	}
+	
+	public double getVAF(int row, int sample) {
+		return vafs[sample].getDouble(8*row);
+	}
+	
+	public int getDescriptionLength(int row) {
+		return descOffsets.getInt(4*(row + 1)) - descOffsets.getInt(4*row);
+	}
+	
+	/** Copies the UTF-8 description of the row to dst[offset, offset + getDescriptionLength(row)) */
+	public void getDescription(int row, byte[] dst, int offset) {
+		ByteBuffer pool = descPool.duplicate();
+		pool.position(descOffsets.getInt(4*row));
+		pool.get(dst, offset, getDescriptionLength(row));
+	}
+	
+	public boolean hasProfiles() {
+		return profiles != null;
+	}
+	
+	public SampleProfile getProfile(int row) {
+		long[] w = new long[numProfileWords];
+		long base = 8L*numProfileWords*row;
+		for(int i = 0; i < numProfileWords; i++) {
+			w[i] = profiles.getLong((int) (base + 8*i));
+		}
+		return new SampleProfile(numSamples, w);
+	}
+}
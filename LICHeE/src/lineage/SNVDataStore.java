@@ -30,19 +30,27 @@
 package lineage;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import lineage.AAFClusterer.Cluster;
 import lineage.Parameters.Format;
+import lineage.SNVFileParser.ParsedChunk;
 import util.CNVRegion;
+import util.InputFiles;
 
 /** 
  * Handles input SNV data loading, storing, filtering, and partitioning 
@@ -53,29 +61,165 @@ public class SNVDataStore {
 	private int numSamples;
 	/** Input sample names */
 	private ArrayList<String> sampleNames;
-	/** List of all input somatic SNVs */
+	/** Columnar table of the input SNV data */
+	private SNVTable snvTable;
+	/** List of all input somatic SNVs (not kept if the groups are spilled) */
 	protected ArrayList<SNVEntry> somaticSNVs;
+	private int numSomaticSNVs;
 	/** List of SNVs with ambiguous VAFs in at least one sample */
 	protected ArrayList<SNVEntry> ambiguousSNVs;
-	/** Map of sample profile tags to a list of SNVs with this profile */
-	private HashMap<String, ArrayList<SNVEntry>> tag2SNVs;
-	private HashMap<String, ArrayList<Cluster>> tag2Clusters;
+	/** Map of sample profile tags to the SNVs with this profile */
+	private HashMap<SampleProfile, ProfileGroup> tag2SNVs;
+	private HashMap<SampleProfile, ArrayList<Cluster>> tag2Clusters;
 	/** Index of the normal sample in the input sample list*/
 	private int normalSample;
+	/** 
+	 * True if the SNVs of each group are written to a spill file (external mode):
+	 * only the ambiguous SNVs and the group statistics are kept in memory
+	 */
+	private boolean spillGroups;
+	/** Groups of the previous run by profile (update mode, empty otherwise) */
+	private HashMap<SampleProfile, SNVGroup> previousGroups;
+	/** Offset added to the input line ids of the SNVs (the largest SNV id of the previous run in update mode) */
+	private int idOffset;
 	private static Logger logger = LineageEngine.logger;
+	
+	/** SNVs with a given profile (in memory or in a spill file) and their summary statistics */
+	private class ProfileGroup {
+		/** SNVs of the group (null if the group is spilled) */
+		private ArrayList<SNVEntry> snvs;
+		private SNVSpillFile spill;
+		private int size;
+		private int numRobust;
+		/** Number of SNVs of the group that come from the previous run (update mode) */
+		private int numPrevious;
+		/** Sum of the VAFs of all (and of the robust) SNVs in each sample */
+		private double[] vafSum;
+		private double[] robustVAFSum;
+		
+		private ProfileGroup() {
+			if(spillGroups) {
+				try {
+					spill = new SNVSpillFile(Parameters.SPILL_DIR, numSamples);
+				} catch (IOException e) {
+					returnSpillError(e);
+				}
+			} else {
+				snvs = new ArrayList<SNVEntry>();
+			}
+			vafSum = new double[numSamples];
+			robustVAFSum = new double[numSamples];
+		}
+		
+		private void add(SNVEntry entry) {
+			boolean isRobust = entry.isRobust();
+			for (int i = 0; i < numSamples; i++){
+				vafSum[i] += entry.getVAF(i);
+				if(isRobust) {
+					robustVAFSum[i] += entry.getVAF(i);
+				}
+			}
+			size++;
+			if(isRobust) {
+				numRobust++;
+			}
+			if(spill != null) {
+				try {
+					spill.write(entry.table, entry.getRow());
+				} catch (IOException e) {
+					returnSpillError(e);
+				}
+			} else {
+				snvs.add(entry);
+			}
+		}
+		
+		/** Returns the SNVs of the group (read back if the group is spilled) */
+		private ArrayList<SNVEntry> getSNVs(SampleProfile tag) {
+			if(spill == null) {
+				return snvs;
+			}
+			ArrayList<SNVEntry> entries = new ArrayList<SNVEntry>(size);
+			try {
+				SNVTable table = spill.load();
+				for(int row = 0; row < table.getNumRows(); row++) {
+					SNVEntry entry = new SNVEntry(table, row);
+					entry.presenceProfile = tag;
+					entries.add(entry);
+				}
+			} catch (IOException e) {
+				returnSpillError(e);
+			}
+			return entries;
+		}
+		
+		private void delete() {
+			if(spill != null) {
+				spill.delete();
+			}
+		}
+	}
+
+	/** Data store used to read the input SNVs without processing them */
+	private SNVDataStore() {
+		somaticSNVs = new ArrayList<SNVEntry>();
+		tag2SNVs = new HashMap<SampleProfile, ProfileGroup>();
+		tag2Clusters = new HashMap<SampleProfile, ArrayList<Cluster>>();
+		ambiguousSNVs = new ArrayList<SNVEntry>();
+		previousGroups = new HashMap<SampleProfile, SNVGroup>();
+	}
 
 	public SNVDataStore(String snvInputFile, String clusterInputFile, int normalSampleId) {
+		this(snvInputFile, clusterInputFile, normalSampleId, null, null);
+	}
+	
+	/**
+	 * Update constructor: adds the SNVs of a new input file to the groups of a previous run
+	 * The new SNVs are filtered and called as in a full run, the robust SNVs join the previous group 
+	 * with the same profile (or form a new group) and the ambiguous SNVs are assigned 
+	 * to the updated groups. The previous groups are never dissolved; 
+	 * getSNVGroup returns the previous group object if a group did not receive new SNVs
+	 * @param previousSampleNames - samples of the previous run (must match the input samples)
+	 */
+	public SNVDataStore(String snvInputFile, int normalSampleId, ArrayList<String> previousSampleNames, ArrayList<SNVGroup> previous) {
+		this(snvInputFile, null, normalSampleId, previousSampleNames, previous);
+	}
+	
+	private SNVDataStore(String snvInputFile, String clusterInputFile, int normalSampleId, 
+			ArrayList<String> previousSampleNames, ArrayList<SNVGroup> previous) {
 		normalSample = normalSampleId;
 		somaticSNVs = new ArrayList<SNVEntry>();
-		tag2SNVs = new HashMap<String, ArrayList<SNVEntry>>();
-		tag2Clusters = new HashMap<String, ArrayList<Cluster>>();
+		tag2SNVs = new HashMap<SampleProfile, ProfileGroup>();
+		tag2Clusters = new HashMap<SampleProfile, ArrayList<Cluster>>();
 		ambiguousSNVs = new ArrayList<SNVEntry>();	
+		previousGroups = new HashMap<SampleProfile, SNVGroup>();
+		if(previous != null) {
+			for(SNVGroup g : previous) {
+				previousGroups.put(g.getTag(), g);
+				for(int i = 0; i < g.getNumSNVs(); i++) {
+					idOffset = Math.max(idOffset, g.getSNV(i).getId());
+				}
+			}
+		}
+		// the clusters file refers to the SNVs by their input order, so all the SNVs are kept in that case
+		// (the SNVs of the previous groups are kept in memory in update mode)
+		spillGroups = (Parameters.SPILL_DIR != null && clusterInputFile == null && previous == null);
+		if(spillGroups) {
+			logger.info("Spilling the SNV groups to " + Parameters.SPILL_DIR);
+		}
 		// load and process input SNVs
 		if(clusterInputFile == null) {
 			loadSNVFile(snvInputFile);		
 		} else {
 			loadSNVFileWithClusters(snvInputFile, clusterInputFile);
 		}
+		snvTable.trimToSize();
+		if(previous != null) {
+			if(!sampleNames.equals(previousSampleNames)) {
+				returnInputFileFormatError("The input samples do not match the samples of the updated run: " + previousSampleNames, null);
+			}
+			addPreviousGroups();
+		}
 		
 		logger.fine("Sample id -> name map:");
 		for(int i = 0; i < getNumSamples(); i++) {
@@ -86,17 +230,17 @@ public class SNVDataStore {
 		if(Parameters.INPUT_FORMAT == Parameters.Format.SNV_WITH_PROFILE || clusterInputFile != null) return;
 		
 		// handle mutations from small groups as ambiguous
-		ArrayList<String> smallGroups = new ArrayList<String>();
-		for(String tag : tag2SNVs.keySet()) {
-			if(tag2SNVs.get(tag).size() < Parameters.MIN_GROUP_PROFILE_SUPPORT) {
-				for(SNVEntry entry : tag2SNVs.get(tag)) {
+		ArrayList<SampleProfile> smallGroups = new ArrayList<SampleProfile>();
+		for(SampleProfile tag : tag2SNVs.keySet()) {
+			if(tag2SNVs.get(tag).size < Parameters.MIN_GROUP_PROFILE_SUPPORT && !previousGroups.containsKey(tag)) {
+				for(SNVEntry entry : tag2SNVs.get(tag).getSNVs(tag)) {
 					ambiguousSNVs.add(entry);
 				}
 				smallGroups.add(tag);
 			}
 		}
-		for(String group : smallGroups) {
-			tag2SNVs.remove(group);
+		for(SampleProfile group : smallGroups) {
+			tag2SNVs.remove(group).delete();
 		}
 		// assign ambiguous SNVs to existing groups or create new groups
 		assignAmbiguousSNVs();
@@ -106,67 +250,85 @@ public class SNVDataStore {
 		reportSNVGroups();
 	}
 	
+	/**
+	 * Adds the SNVs of the previous groups to the groups of the new robust SNVs
+	 * (the previous SNVs precede the new SNVs in each group)
+	 */
+	private void addPreviousGroups() {
+		for(SampleProfile tag : previousGroups.keySet()) {
+			SNVGroup g = previousGroups.get(tag);
+			ProfileGroup group = new ProfileGroup();
+			for(int i = 0; i < g.getNumSNVs(); i++) {
+				group.add(g.getSNV(i));
+			}
+			group.numPrevious = group.size;
+			ProfileGroup newSNVs = tag2SNVs.get(tag);
+			if(newSNVs != null) {
+				for(SNVEntry entry : newSNVs.snvs) {
+					group.add(entry);
+				}
+			}
+			tag2SNVs.put(tag, group);
+		}
+	}
+	
 	/**
 	 * Assign ambiguous SNVs to existing groups; 
 	 * create new groups for SNVs with no suitable matches
+	 * 
+	 * The closest SNV of each target group is found in parallel using an index
+	 * of the group (the groups are indexed one at a time); the SNVs assigned to a group 
+	 * are then compared in input order with the SNVs that were assigned to the groups before them
 	 */
 	private void assignAmbiguousSNVs() {
 		if (ambiguousSNVs.size() == 0) return;
 		
-		ArrayList<String> targetTags = new ArrayList<String>(tag2SNVs.keySet());
-		String all1s = "", all0s = "";
-		for (int i = 0; i < numSamples; i++) { 
-			all1s += "1";
-			all0s += "0";
-		}
+		final ArrayList<SampleProfile> targetTags = new ArrayList<SampleProfile>(tag2SNVs.keySet());
+		final SampleProfile all1s = SampleProfile.all(numSamples);
+		final SampleProfile all0s = SampleProfile.none(numSamples);
 		if(!tag2SNVs.containsKey(all0s)) {
 			targetTags.add(all0s);
 		}
 		targetTags.add(all1s);
+		
+		SNVTargetIndex.Match[] matches = findBestTargets(targetTags, all0s, all1s);
+		// index of the SNVs assigned to each target group
+		SNVTargetIndex[] assignedIndex = new SNVTargetIndex[targetTags.size()];
 
 		logger.log(Level.FINE, "Ambiguous profile SNV assignment (" + ambiguousSNVs.size() + " total): ");
-		ArrayList<SNVEntry> toRemove = new ArrayList<SNVEntry>();
-		for(SNVEntry snv : ambiguousSNVs) {	
-			double bestDistToTarget = 0;
-			String bestTarget = "";
-				
-			for(String target : targetTags) {				
-				if(!canConvert(snv, target)) continue;
-				// if the target is germline, move to germline regardless of distance
-				if(target.equals(all1s)) {
-					toRemove.add(snv);
-					logger.log(Level.FINE, "**Removed as germline:\n" + snv);
-					break;
-				}				
-				if(target.equals(all0s)) {
-					double dist = distToZero(snv);
-					if(dist > bestDistToTarget) {
-						bestDistToTarget = dist;
-						bestTarget = target;
-					}
-					continue;
-				}
-				// compare to each mutation in the target group
-				for(SNVEntry targetSNV : tag2SNVs.get(target)) {
-					// compute the distance to the target snv
-					double dist = distToTargetVAF(snv, targetSNV);
-					if(dist > bestDistToTarget) {
-						bestDistToTarget = dist;
-						bestTarget = target;
-					}
+		boolean[] toRemove = new boolean[ambiguousSNVs.size()];
+		for(int j = 0; j < ambiguousSNVs.size(); j++) {	
+			SNVEntry snv = ambiguousSNVs.get(j);
+			SNVTargetIndex.Match best = matches[j];
+			for(int t = 0; t < best.numTargets; t++) {
+				if(assignedIndex[t] != null && canConvert(snv, targetTags.get(t))) {
+					assignedIndex[t].findBest(snv, t, best);
 				}
 			}
-			if(bestTarget.equals(all0s)) {
+			if(best.isGermline) {
+				// if the target is germline, move to germline regardless of distance
+				toRemove[j] = true;
+				logger.log(Level.FINE, "**Removed as germline:\n" + snv);
+			}
+			double bestDistToTarget = best.getDistance();
+			SampleProfile bestTarget = (best.getTarget() != -1) ? targetTags.get(best.getTarget()) : null;
+			
+			if(all0s.equals(bestTarget)) {
 				snv.updateGroup(bestTarget);
 				logger.log(Level.FINE, "Assigned " + snv.getAmbigProfile() + " to " + bestTarget + " with dist " + bestDistToTarget + ": " + snv);
 				continue;
 			}
 			
-			if(bestDistToTarget != 0 && bestDistToTarget >= getHammingWeight(bestTarget)*Parameters.MIN_VAF_TARGET_RATIO_PER_SAMPLE) {
+			if(bestDistToTarget != 0 && bestDistToTarget >= bestTarget.cardinality()*Parameters.MIN_VAF_TARGET_RATIO_PER_SAMPLE) {
 				// found a valid match
 				snv.updateGroup(bestTarget);
-				toRemove.add(snv);
-				tag2SNVs.get(bestTarget).add(snv);
+				toRemove[j] = true;
+				ProfileGroup targetGroup = tag2SNVs.get(bestTarget);
+				if(assignedIndex[best.getTarget()] == null) {
+					assignedIndex[best.getTarget()] = new SNVTargetIndex(new ArrayList<SNVEntry>(), numSamples, targetGroup.size);
+				}
+				assignedIndex[best.getTarget()].add(snv);
+				targetGroup.add(snv);
 				logger.log(Level.FINE, "Assigned " + snv.getAmbigProfile() + " to " + bestTarget + " with dist " + bestDistToTarget + ": " + snv);
 				continue;
 			}
@@ -174,88 +336,239 @@ public class SNVDataStore {
 			logger.log(Level.FINE, "**No existing candidate group found for " + snv.getAmbigProfile() + "" + ((bestDistToTarget != 0) ? " (best dist = " + bestDistToTarget + " to target " + bestTarget + "): " : ": ") + snv);
 
 		}
-		ambiguousSNVs.removeAll(toRemove);
+		ArrayList<SNVEntry> unassigned = new ArrayList<SNVEntry>();
+		for(int j = 0; j < ambiguousSNVs.size(); j++) {
+			if(!toRemove[j]) {
+				unassigned.add(ambiguousSNVs.get(j));
+			}
+		}
+		ambiguousSNVs = unassigned;
 		
 		// remaining snvs had no suitable matches and potentially represent true branches
 		// we minimize the number of additional nodes by merging the groups
-		HashMap<String, ArrayList<SNVEntry>> ambiguousGroups = mergeAmbiguousSNVs(ambiguousSNVs);
+		HashMap<SampleProfile, ArrayList<SNVEntry>> ambiguousGroups = mergeAmbiguousSNVs(ambiguousSNVs);
 		
-		for(String tag : ambiguousGroups.keySet()) {
+		for(SampleProfile tag : ambiguousGroups.keySet()) {
 			if(tag.equals(all0s)) continue;
 			if(!tag2SNVs.containsKey(tag)) {
-				tag2SNVs.put(tag, ambiguousGroups.get(tag));
+				ProfileGroup group = new ProfileGroup();
+				for(SNVEntry entry : ambiguousGroups.get(tag)) {
+					group.add(entry);
+				}
+				tag2SNVs.put(tag, group);
 				logger.log(Level.FINE, "Created new group: " + tag);
 			}
 		}
-		tag2SNVs.remove(all0s);
+		if(tag2SNVs.containsKey(all0s)) {
+			tag2SNVs.remove(all0s).delete();
+		}
+	}
+	
+	/**
+	 * Finds the closest target of each ambiguous SNV among the SNVs 
+	 * currently in the target groups
+	 * 
+	 * The targets are visited in order up to the germline profile (if the SNV can 
+	 * be converted to it); since the first best match in this order is kept, 
+	 * the groups can be searched in any order
+	 */
+	private SNVTargetIndex.Match[] findBestTargets(ArrayList<SampleProfile> targetTags, SampleProfile all0s, SampleProfile all1s) {
+		final int numSNVs = ambiguousSNVs.size();
+		final SNVTargetIndex.Match[] matches = new SNVTargetIndex.Match[numSNVs];
+		for(int j = 0; j < numSNVs; j++) {
+			SNVEntry snv = ambiguousSNVs.get(j);
+			SNVTargetIndex.Match best = new SNVTargetIndex.Match();
+			best.numTargets = targetTags.size();
+			for(int t = 0; t < targetTags.size(); t++) {
+				if(targetTags.get(t).equals(all1s) && canConvert(snv, all1s)) {
+					best.isGermline = true;
+					best.numTargets = t;
+					break;
+				}
+			}
+			matches[j] = best;
+		}
+		
+		int numThreads = Math.max(1, Math.min(Parameters.NUM_THREADS, numSNVs));
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			for(int t = 0; t < targetTags.size(); t++) {
+				SampleProfile target = targetTags.get(t);
+				if(target.equals(all1s)) continue;
+				// SNVs that can be converted to the target
+				int[] snvs = new int[numSNVs];
+				int n = 0;
+				for(int j = 0; j < numSNVs; j++) {
+					if(t < matches[j].numTargets && canConvert(ambiguousSNVs.get(j), target)) {
+						snvs[n] = j;
+						n++;
+					}
+				}
+				if(n == 0) continue;
+				if(target.equals(all0s)) {
+					for(int k = 0; k < n; k++) {
+						matches[snvs[k]].update(distToZero(ambiguousSNVs.get(snvs[k])), t, 0);
+					}
+					continue;
+				}
+				
+				// compare to each mutation in the target group
+				SNVTargetIndex index = new SNVTargetIndex(tag2SNVs.get(target).getSNVs(target), numSamples, 0);
+				int batchSize = Math.max(MIN_ASSIGNMENT_BATCH_SIZE, (n + 4*numThreads - 1)/(4*numThreads));
+				ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+				for(int start = 0; start < n; start += batchSize) {
+					results.add(pool.submit(findBestInGroup(index, t, snvs, start, Math.min(start + batchSize, n), matches)));
+				}
+				for(Future<Void> r : results) {
+					r.get();
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			System.err.println("Failed to assign the ambiguous SNVs");
+			System.exit(-1);
+		} finally {
+			pool.shutdown();
+		}
+		return matches;
+	}
+	
+	/** Minimum number of ambiguous SNVs compared to a target group by a single task */
+	private static final int MIN_ASSIGNMENT_BATCH_SIZE = 64;
+	
+	/** Updates the matches of the ambiguous SNVs snvs[from, to) with their closest SNV in the indexed group */
+	private Callable<Void> findBestInGroup(final SNVTargetIndex index, final int target, final int[] snvs, 
+			final int from, final int to, final SNVTargetIndex.Match[] matches) {
+		return new Callable<Void>() {
+			public Void call() {
+				for(int k = from; k < to; k++) {
+					index.findBest(ambiguousSNVs.get(snvs[k]), target, matches[snvs[k]]);
+				}
+				return null;
+			}
+		};
 	}
 	
 	/**
 	 * Finds the minimum number of groups that can incorporate the ambiguous input SNVs
 	 * applying the greedy set cover algorithm
+	 * 
+	 * The candidate sets are kept in a max-heap by size (updated lazily as SNVs are assigned),
+	 * ties are broken by the iteration order of the targets in a hash map.
+	 * The assigned SNVs are removed from the input list
 	 */
-	private HashMap<String, ArrayList<SNVEntry>> mergeAmbiguousSNVs(ArrayList<SNVEntry> snvs) {
-		HashMap<String, ArrayList<SNVEntry>> groups = new HashMap<String, ArrayList<SNVEntry>>();
-		HashMap<String, ArrayList<SNVEntry>> adj = new HashMap<String, ArrayList<SNVEntry>>();
+	private HashMap<SampleProfile, ArrayList<SNVEntry>> mergeAmbiguousSNVs(ArrayList<SNVEntry> snvs) {
+		HashMap<SampleProfile, ArrayList<SNVEntry>> groups = new HashMap<SampleProfile, ArrayList<SNVEntry>>();
 		
-		// generate all possible target profiles 
-		ArrayList<String> targets = generateAllPossibleTargets(snvs);
-		for(String t : targets) {
-			//System.out.println("Target " + t);
-			if(!adj.keySet().contains(t)) {
-				adj.put(t, new ArrayList<SNVEntry>());
+		// generate all possible target profiles
+		// (an SNV can be converted exactly to the targets generated from it)
+		HashMap<SampleProfile, Integer> targetIds = new HashMap<SampleProfile, Integer>();
+		ArrayList<SampleProfile> targets = new ArrayList<SampleProfile>();
+		int[][] snvTargets = new int[snvs.size()][];
+		ArrayList<SampleProfile> snvTargetProfiles = new ArrayList<SampleProfile>();
+		for(int j = 0; j < snvs.size(); j++) {
+			snvTargetProfiles.clear();
+			generateAllPossibleTargets(snvs.get(j), snvTargetProfiles);
+			snvTargets[j] = new int[snvTargetProfiles.size()];
+			for(int k = 0; k < snvTargetProfiles.size(); k++) {
+				SampleProfile t = snvTargetProfiles.get(k);
+				Integer id = targetIds.get(t);
+				if(id == null) {
+					id = targets.size();
+					targetIds.put(t, id);
+					targets.add(t);
+				}
+				snvTargets[j][k] = id;
 			}
 		}
 		
-		// min vertex cover
-		for(SNVEntry entry : snvs) {
-			for(String target : adj.keySet()) {
-				if(canConvert(entry, target)) {
-					adj.get(target).add(entry);
-				}
+		// SNVs that can be converted to each target (in input order)
+		int[] size = new int[targets.size()];
+		for(int[] st : snvTargets) {
+			for(int t : st) {
+				size[t]++;
+			}
+		}
+		int[][] members = new int[targets.size()][];
+		for(int t = 0; t < targets.size(); t++) {
+			members[t] = new int[size[t]];
+			size[t] = 0;
+		}
+		for(int j = 0; j < snvs.size(); j++) {
+			for(int t : snvTargets[j]) {
+				members[t][size[t]] = j;
+				size[t]++;
 			}
 		}
-		while(snvs.size() > 0) {
+		
+		// min vertex cover
+		PriorityQueue<CandidateSet> sets = new PriorityQueue<CandidateSet>();
+		int rank = 0;
+		for(SampleProfile t : targetIds.keySet()) {
+			int id = targetIds.get(t);
+			sets.add(new CandidateSet(id, size[id], rank));
+			rank++;
+		}
+		boolean[] assigned = new boolean[snvs.size()];
+		int numRemaining = snvs.size();
+		while(numRemaining > 0 && !sets.isEmpty()) {
 			// find the largest set
-			int maxSize = 0;
-			String maxSet = "";
-			for(String target : adj.keySet()) {
-				if(adj.get(target).size() > maxSize) {
-					maxSize = adj.get(target).size();
-					maxSet = target;
-				}
+			CandidateSet max = sets.poll();
+			if(max.size != size[max.target]) {
+				max.size = size[max.target];
+				sets.add(max);
+				continue;
 			}
-			if(maxSize == 1) break;
+			if(max.size <= 1) break;
 			
-			groups.put(maxSet, adj.get(maxSet));
-			for(SNVEntry entry : adj.get(maxSet)) {
+			SampleProfile maxSet = targets.get(max.target);
+			ArrayList<SNVEntry> group = new ArrayList<SNVEntry>(max.size);
+			for(int j : members[max.target]) {
+				if(!assigned[j]) {
+					group.add(snvs.get(j));
+				}
+			}
+			groups.put(maxSet, group);
+			for(int j : members[max.target]) {
+				if(assigned[j]) continue;
+				SNVEntry entry = snvs.get(j);
 				logger.log(Level.FINE, "Assigned " + entry.getAmbigProfile() + " to " + maxSet + ": " + entry);
 				entry.updateGroup(maxSet);
-				for(String target : adj.keySet()) {
-					if(target.equals(maxSet)) continue;
-					ArrayList<SNVEntry> l = adj.get(target);
-					if(l.contains(entry)) {
-						l.remove(entry);
-					}
+				assigned[j] = true;
+				numRemaining--;
+				for(int t : snvTargets[j]) {
+					size[t]--;
 				}
-				snvs.remove(entry);
 			}
-			adj.remove(maxSet);
 		}
+		ArrayList<SNVEntry> remaining = new ArrayList<SNVEntry>(numRemaining);
+		for(int j = 0; j < snvs.size(); j++) {
+			if(!assigned[j]) {
+				remaining.add(snvs.get(j));
+			}
+		}
+		snvs.clear();
+		snvs.addAll(remaining);
 		
 		// the remaining targets are supported by only 1 SNV
 		// decide the groups of the remaining SNVs based on their proximity to the thresholds
 		for(SNVEntry snv : snvs) {
-			String tag = "";
+			long[] w = SampleProfile.newWords(numSamples);
 			for(int i = 0; i < numSamples; i++) {
-				if(snv.getProfile().charAt(i) == '0' && snv.evidenceOfPresence(i)) {
+				boolean present = snv.isPresent(i);
+				if(!present && snv.evidenceOfPresence(i)) {
 					double delta0 = snv.getVAF(i) - Parameters.MAX_VAF_ABSENT;
 					double delta1 = Parameters.MIN_VAF_PRESENT - snv.getVAF(i);
-					tag += (delta1 < delta0) ? '1' : snv.getProfile().charAt(i);
-				} else {
-					tag += snv.getProfile().charAt(i);
+					present = (delta1 < delta0);
+				}
+				if(present) {
+					w[i >>> 6] |= 1L << i;
 				}
 			}
+			SampleProfile tag = new SampleProfile(numSamples, w);
 			logger.log(Level.FINE, "Assigned " + snv.getAmbigProfile() + " to " + tag + ": " + snv);
 			if(!groups.containsKey(tag)) {
 				groups.put(tag, new ArrayList<SNVEntry>());
@@ -266,76 +579,75 @@ public class SNVDataStore {
 		return groups;
 	}
 	
-	private ArrayList<String> generateAllPossibleTargets(ArrayList<SNVEntry> snvs) {
-		ArrayList<String> targets = new ArrayList<String>();
-		for(SNVEntry snv: snvs) {
-			extendTarget("", snv, targets);
+	/** 
+	 * Adds the profiles the SNV can be converted to: the SNV profile extended
+	 * by any subset of the absent samples with evidence of presence
+	 */
+	private void generateAllPossibleTargets(SNVEntry snv, ArrayList<SampleProfile> targets) {
+		long[] w = SampleProfile.newWords(numSamples);
+		int[] free = new int[numSamples];
+		int numFree = 0;
+		for(int i = 0; i < numSamples; i++) {
+			if(snv.isPresent(i)) {
+				w[i >>> 6] |= 1L << i;
+			} else if(snv.evidenceOfPresence(i)) {
+				free[numFree] = i;
+				numFree++;
+			}
 		}
-		return targets;
+		extendTarget(w, free, numFree, 0, targets);
 	}
 	
-	private void extendTarget(String partialProfile, SNVEntry snv, ArrayList<String> targets) {
-		int sample = partialProfile.length();
-		if(sample == numSamples) {
-			targets.add(partialProfile);
-			return;
+	/** Candidate set of the greedy set cover (ordered by size and then by rank) */
+	private static class CandidateSet implements Comparable<CandidateSet> {
+		private int target;
+		/** Number of unassigned SNVs in the set when it was added to the queue */
+		private int size;
+		private int rank;
+		
+		private CandidateSet(int target, int size, int rank) {
+			this.target = target;
+			this.size = size;
+			this.rank = rank;
 		}
-		extendTarget(partialProfile + ""+ snv.getProfile().charAt(sample), snv, targets);
-		if(snv.getProfile().charAt(sample) == '0' && snv.evidenceOfPresence(sample)) {
-			extendTarget(partialProfile + '1', snv, targets);
+		
+		public int compareTo(CandidateSet c) {
+			if(size != c.size) {
+				return (size > c.size) ? -1 : 1;
+			}
+			return rank - c.rank;
 		}
 	}
 	
-	private double distToZero(SNVEntry snv) {
-		String tag = snv.getProfile();
-		double dist = 0;
-		for(int i = 0; i < numSamples; i++) {
-			if(tag.charAt(i) == '1' || snv.evidenceOfPresence(i)) {
-				dist += 0.0001/snv.getVAF(i);
-			}
+	/** Adds the targets extending the given profile words over free[next...numFree-1] */
+	private void extendTarget(long[] w, int[] free, int numFree, int next, ArrayList<SampleProfile> targets) {
+		if(next == numFree) {
+			targets.add(new SampleProfile(numSamples, w));
+			return;
 		}
-		return dist;
+		int sample = free[next];
+		extendTarget(w, free, numFree, next + 1, targets);
+		w[sample >>> 6] |= 1L << sample;
+		extendTarget(w, free, numFree, next + 1, targets);
+		w[sample >>> 6] &= ~(1L << sample);
 	}
 	
-	private double distToTargetVAF(SNVEntry snv, SNVEntry targetSNV) {
-		String tag = snv.getProfile();
-		String targetTag = targetSNV.getProfile();
+	private double distToZero(SNVEntry snv) {
 		double dist = 0;
 		for(int i = 0; i < numSamples; i++) {
-			if(targetTag.charAt(i) == '0' && tag.charAt(i) == '0' && !snv.evidenceOfPresence(i)) continue;
-			double min = targetSNV.getVAF(i) < snv.getVAF(i) ? targetSNV.getVAF(i) : snv.getVAF(i);
-			double max = targetSNV.getVAF(i) > snv.getVAF(i) ? targetSNV.getVAF(i) : snv.getVAF(i);
-			if(min == 0) {
-				min = 0.0001;
+			if(snv.isPresent(i) || snv.evidenceOfPresence(i)) {
+				dist += 0.0001/snv.getVAF(i);
 			}
-			dist += min/max;
 		}
 		return dist;
 	}
 	
-	private boolean canConvert(SNVEntry snv, String target) {
-		String tag = snv.getProfile();		
-		for (int i = 0; i < tag.length(); i++) {
-			if (tag.charAt(i) != target.charAt(i)) {
-				if(tag.charAt(i) == '1') {
-					return false;
-				}
-				if(!snv.evidenceOfPresence(i)) {
-					return false;
-				}
-			}
-		}
-		return true;
-	}
-	
-	private int getHammingWeight(String tag) {
-		int w = 0;
-		for(int i = 0; i < tag.length(); i++) {
-			if(tag.charAt(i) == '1') {
-				w++;
-			}
-		}
-		return w;
+	/** 
+	 * The SNV can be converted to the target if the target only additionally 
+	 * sets samples with evidence of presence
+	 */
+	private boolean canConvert(SNVEntry snv, SampleProfile target) {
+		return snv.getProfile().canExtendTo(target, snv.getEvidenceProfile());
 	}
 	
 	/**
@@ -346,30 +658,18 @@ public class SNVDataStore {
 	 */
 	private void filterGroups() {
 		// apply minimum size and robust size constraint
-		ArrayList<String> filteredOut = new ArrayList<String>();
-		for(String tag : tag2SNVs.keySet()) {
-			if(isAbsent(tag) || (tag2SNVs.get(tag).size() < Parameters.MIN_SNVS_PER_GROUP)) {
+		ArrayList<SampleProfile> filteredOut = new ArrayList<SampleProfile>();
+		for(SampleProfile tag : tag2SNVs.keySet()) {
+			if(tag.isEmpty() || (tag2SNVs.get(tag).size < Parameters.MIN_SNVS_PER_GROUP)) {
 				filteredOut.add(tag);
 				continue;
 			}
-	
-			if(Parameters.MIN_ROBUST_SNVS_PER_GROUP > 0) {
-				int numRobust = 0;
-				for(SNVEntry entry : tag2SNVs.get(tag)) {
-					if(entry.isRobust()) {
-						numRobust++;
-						if(numRobust >= Parameters.MIN_ROBUST_SNVS_PER_GROUP) {
-							break;
-						}
-					}
-				}
-				if(numRobust < Parameters.MIN_ROBUST_SNVS_PER_GROUP) {
-					filteredOut.add(tag);
-				}
+			if(tag2SNVs.get(tag).numRobust < Parameters.MIN_ROBUST_SNVS_PER_GROUP) {
+				filteredOut.add(tag);
 			}
 		}
-		for(String group : filteredOut) {
-			tag2SNVs.remove(group);
+		for(SampleProfile group : filteredOut) {
+			tag2SNVs.remove(group).delete();
 		}
 	}
 	
@@ -385,24 +685,33 @@ public class SNVDataStore {
 	private void processSNVEntry(SNVEntry entry) {
 		if(Parameters.INPUT_FORMAT != Format.SNV_WITH_PROFILE && entry.isPresent(normalSample)) {
 			logger.log(Level.INFO, "**Filtered as germline: \n" + entry);
+			snvTable.removeLastRow();
 			return;
 		}
 		if(!hasValidVAFs(entry)) {
 			logger.log(Level.INFO, "**Filtered due to VAFs > allowed MAX: \n" + entry);
+			snvTable.removeLastRow();
 			return;
 		}
-		if(entry.isRobust() && isAbsent(entry.getProfile())) {
+		if(entry.isRobust() && entry.getProfile().isEmpty()) {
 			logger.log(Level.INFO, "**Filtered as robustly absent in all samples: \n" + entry);
+			snvTable.removeLastRow();
 			return;
 		}
-		somaticSNVs.add(entry);	
+		numSomaticSNVs++;
+		if(!spillGroups) {
+			somaticSNVs.add(entry);	
+		}
 		
 		if(entry.isRobust()) {
-			String tag = entry.getProfile();
+			SampleProfile tag = entry.getProfile();
 			if (!tag2SNVs.containsKey(tag)){
-				tag2SNVs.put(tag, new ArrayList<SNVEntry>());	
+				tag2SNVs.put(tag, new ProfileGroup());	
 			}
 			tag2SNVs.get(tag).add(entry); 
+			if(spillGroups) {
+				snvTable.removeLastRow();
+			}
 		} else {
 			ambiguousSNVs.add(entry);
 		}
@@ -421,18 +730,6 @@ public class SNVDataStore {
 		return true;
 	}
 	
-	/** 
-	 * Checks if the SNV is absent in all the samples
-	 */
-	private boolean isAbsent(String tag) {
-		for(int i = 0; i < numSamples; i++) {
-			if(tag.charAt(i) == '1') {
-				return false;
-			}
-		}
-		return true;
-	}
-	
 	/****** Accessors *****/
 	
 	public int getNumSamples() {
@@ -447,64 +744,93 @@ public class SNVDataStore {
 		return sampleNames;
 	}
 	
-	public HashMap<String, ArrayList<SNVEntry>> getSomaticGroups() {
-		return tag2SNVs;
+	/** Returns the profiles of the somatic SNV groups */
+	public ArrayList<SampleProfile> getGroupTags() {
+		return new ArrayList<SampleProfile>(tag2SNVs.keySet());
+	}
+	
+	public SNVTable getSNVTable() {
+		return snvTable;
 	}
 	
-	public HashMap<String, ArrayList<Cluster>> getClusters() {
+	/**
+	 * Creates the SNV group object of the given profile 
+	 * (a view over the SNV table or over the spill file of the group)
+	 */
+	public SNVGroup getSNVGroup(SampleProfile groupTag) {
+		ProfileGroup group = tag2SNVs.get(groupTag);
+		SNVGroup previous = previousGroups.get(groupTag);
+		if(previous != null && group.size == group.numPrevious) {
+			return previous;
+		}
+		if(group.spill != null) {
+			try {
+				group.spill.flush();
+			} catch (IOException e) {
+				returnSpillError(e);
+			}
+			return new SNVGroup(groupTag, group.spill, isRobustGroup(groupTag));
+		}
+		int[] rows = new int[group.size];
+		for(int i = 0; i < rows.length; i++) {
+			SNVEntry entry = group.snvs.get(i);
+			if(entry.table != snvTable) {
+				// SNV of a previous group: copied to the table of the updated groups
+				entry = copyToTable(entry);
+				group.snvs.set(i, entry);
+			}
+			rows[i] = entry.getRow();
+		}
+		return new SNVGroup(groupTag, snvTable, rows, isRobustGroup(groupTag));
+	}
+	
+	/** Appends the data of an SNV to the SNV table */
+	private SNVEntry copyToTable(SNVEntry snv) {
+		double[] vafs = new double[numSamples];
+		for(int i = 0; i < numSamples; i++) {
+			vafs[i] = snv.getVAF(i);
+		}
+		SNVEntry entry = new SNVEntry(snvTable, snvTable.addRow(snv.getId(), snv.getChromosome(), snv.getPosition(), snv.getDescription(), vafs));
+		snvTable.setRobust(entry.getRow(), snv.isRobust());
+		entry.presenceProfile = snv.presenceProfile;
+		return entry;
+	}
+	
+	public HashMap<SampleProfile, ArrayList<Cluster>> getClusters() {
 		return tag2Clusters;
 	}
 	
 	
 	/** A group is robust if it contains sufficient robust mutations */
-	public boolean isRobustGroup(String groupTag) {
-		int numRobust = 0;
-		for(SNVEntry entry : tag2SNVs.get(groupTag)) {
-			if(entry.isRobust()) {
-				numRobust++;
-				if(numRobust >= Parameters.MIN_GROUP_PROFILE_SUPPORT) {
-					return true;
-				}
-			}
-		}
-		return false;
+	public boolean isRobustGroup(SampleProfile groupTag) {
+		return tag2SNVs.get(groupTag).numRobust >= Parameters.MIN_GROUP_PROFILE_SUPPORT;
 	}
 	
 	/****** IO ******/
 	
 	public void reportSNVGroups() {
-		ArrayList<String> tags = new ArrayList<String>(tag2SNVs.keySet());
+		ArrayList<SampleProfile> tags = new ArrayList<SampleProfile>(tag2SNVs.keySet());
 		Collections.sort(tags);
 		Collections.reverse(tags);
 
 		logger.log(Level.FINE, "Profile\t#SNVs\t#Robust\tMean VAF(Robust Mean VAF)");	
-		for (String tag : tags){
-			if (tag2SNVs.get(tag).size() == 0) {
+		for (SampleProfile tag : tags){
+			ProfileGroup group = tag2SNVs.get(tag);
+			if (group.size == 0) {
 				continue;
 			}
 			
 			double[] mean = new double[numSamples];	
 			double[] robustMean = new double[numSamples];	
-			int robustCount = 0;
-			for (SNVEntry entry : tag2SNVs.get(tag)) {
-				for (int i = 0; i < numSamples; i++){
-					mean[i] += entry.getVAF(i);
-					if(entry.isRobust()) {
-						robustMean[i] += entry.getVAF(i);
-					}
-				}
-				if(entry.isRobust()) {
-					robustCount++;
-				}
-			}
+			int robustCount = group.numRobust;
 			for (int i = 0; i < numSamples; i++) {
-				mean[i] = mean[i]/(tag2SNVs.get(tag).size());
+				mean[i] = group.vafSum[i]/group.size;
 				if(robustCount > 0) {
-					robustMean[i] = robustMean[i]/robustCount;
+					robustMean[i] = group.robustVAFSum[i]/robustCount;
 				}
 			}
 			
-			String m = tag + "\t" + tag2SNVs.get(tag).size()+ "\t" + robustCount + "\t";
+			String m = tag + "\t" + group.size + "\t" + robustCount + "\t";
 			DecimalFormat df = new DecimalFormat("#.##");
 			for (int i = 0; i < numSamples; i++) {
 				if(robustCount != 0) {
@@ -520,56 +846,159 @@ public class SNVDataStore {
 	////// SNV File I/O //////
 	
 	private void loadSNVFile(String inputFile) {
+		int totalSNVCounter = loadSNVs(inputFile, true);
+		logger.log(Level.INFO, "There are " + totalSNVCounter + " SNVs in the input file. \nAfter pre-processing, the input consists of " + numSomaticSNVs +" somatic SNVs. \n");
+	}
+	
+	/**
+	 * Parses the input SNV file (in parallel chunks) into the SNV table
+	 * @param filter - if true, the SNVs are filtered and partitioned by processSNVEntry, 
+	 * otherwise all the SNVs are kept
+	 * @return total number of SNVs in the input file
+	 */
+	private int loadSNVs(String inputFile, boolean filter) {
+		if(SNVBinaryFile.isBinaryFile(inputFile)) {
+			return loadBinary(inputFile, filter);
+		}
+		if(Parameters.INPUT_FORMAT == Format.VCF) {
+			return loadVCF(inputFile, filter);
+		}
+		int totalSNVCounter = 0;
+		SNVFileParser parser = null;
 		try {
-			BufferedReader rd = new BufferedReader(new FileReader(inputFile));
-			String currLine = rd.readLine();
-			if(currLine == null) {
+			parser = new SNVFileParser(inputFile);
+			if(parser.getHeader() == null) {
 				returnInputFileFormatError("Empty file", null); 
 			}
-			parseHeader(currLine);
+			parseHeader(parser.getHeader());
 			
-			currLine = rd.readLine();
-			int totalSNVCounter = 0;
-			while (currLine != null) {
-				SNVEntry entry = parseSNVEntry(currLine, totalSNVCounter+1);
-				totalSNVCounter++;
-				processSNVEntry(entry);
-				currLine = rd.readLine();
+			parser.parse(numSamples, getNumRequiredFields(), Parameters.INPUT_FORMAT == Format.SNV_WITH_PROFILE);
+			ParsedChunk chunk;
+			while((chunk = parser.nextChunk()) != null) {
+				for(int i = 0; i < chunk.getNumRows(); i++) {
+					totalSNVCounter++;
+					SNVEntry entry = new SNVEntry(snvTable, snvTable.addRow(idOffset + totalSNVCounter, chunk, i));
+					callPresenceProfile(entry, (chunk.profiles != null) ? chunk.profiles[i] : null);
+					if(filter) {
+						processSNVEntry(entry);
+					} else {
+						somaticSNVs.add(entry); // no filtering
+					}
+				}
+				if(chunk.getErrorDesc() != null) {
+					returnInputFileFormatError(chunk.getErrorDesc(), chunk.getErrorLine());
+				}
 			}
-			rd.close();
-			logger.log(Level.INFO, "There are " + totalSNVCounter + " SNVs in the input file. \nAfter pre-processing, the input consists of " + somaticSNVs.size() +" somatic SNVs. \n");
 		} catch (IOException e){
 			returnInputFileFormatError("Could not read file: " + inputFile, null);
+		} finally {
+			if(parser != null) {
+				parser.close();
+			}
 		}
-		
+		return totalSNVCounter;
 	}
 	
-	private void loadSNVFileWithClusters(String inputFile, String clustersFile) {
-		// load the input SNV file 
+	/**
+	 * Reads the SNVs of a multi-sample VCF file into the SNV table
+	 * (each SNV is processed as soon as it is read)
+	 * @param filter - if true, the SNVs are filtered and partitioned by processSNVEntry, 
+	 * otherwise all the SNVs are kept
+	 * @return total number of SNVs in the input file
+	 */
+	private int loadVCF(String inputFile, boolean filter) {
+		int totalSNVCounter = 0;
+		VCFReader rd = null;
 		try {
-			BufferedReader rd = new BufferedReader(new FileReader(inputFile));
-			String currLine = rd.readLine();
-			if(currLine == null) {
-				returnInputFileFormatError("Empty file", null); 
-			}
-			parseHeader(currLine);
-			
-			currLine = rd.readLine();
-			int totalSNVCounter = 0;
-			while (currLine != null) {
-				SNVEntry entry = parseSNVEntry(currLine, totalSNVCounter+1);
+			rd = new VCFReader(inputFile);
+			setSamples(rd.getSampleNames());
+			while(rd.next()) {
 				totalSNVCounter++;
-				somaticSNVs.add(entry);	// no filtering
-				currLine = rd.readLine();
+				SNVEntry entry = new SNVEntry(snvTable, snvTable.addRow(idOffset + totalSNVCounter, rd.getChromosome(), rd.getPosition(), rd.getDescription(), rd.getVAFs()));
+				callPresenceProfile(entry, null);
+				if(filter) {
+					processSNVEntry(entry);
+				} else {
+					somaticSNVs.add(entry); // no filtering
+				}
 			}
-			rd.close();
-			logger.log(Level.INFO, "There are " + totalSNVCounter + " SNVs in the input file.\n");
+			logger.log(Level.FINE, "Skipped " + rd.getNumSkipped() + " VCF records or alleles that are not SNVs on chromosomes 1-22, X, Y (or did not pass the filters)");
 		} catch (IOException e){
 			returnInputFileFormatError("Could not read file: " + inputFile, null);
+		} finally {
+			if(rd != null) {
+				rd.close();
+			}
 		}
+		return totalSNVCounter;
+	}
+	
+	/**
+	 * Reads the SNVs of a LICHeE binary file into the SNV table
+	 * (the columns are read from the memory-mapped file without parsing)
+	 * @param filter - if true, the SNVs are filtered and partitioned by processSNVEntry, 
+	 * otherwise all the SNVs are kept
+	 * @return total number of SNVs in the input file
+	 */
+	private int loadBinary(String inputFile, boolean filter) {
+		SNVBinaryFile bin = null;
+		try {
+			bin = new SNVBinaryFile(inputFile);
+			setSamples(bin.getSampleNames());
+			boolean hasProfile = (Parameters.INPUT_FORMAT == Format.SNV_WITH_PROFILE);
+			if(hasProfile && !bin.hasProfiles()) {
+				returnInputFileFormatError("The binary file was not converted from an input file with SSNV sample presence profiles", null);
+			}
+			for(int row = 0; row < bin.getNumRows(); row++) {
+				SNVEntry entry = new SNVEntry(snvTable, snvTable.addRow(idOffset + bin.getId(row), bin, row));
+				callPresenceProfile(entry, hasProfile ? bin.getProfile(row) : null);
+				if(filter) {
+					processSNVEntry(entry);
+				} else {
+					somaticSNVs.add(entry); // no filtering
+				}
+			}
+			return bin.getNumRows();
+		} catch (IOException e){
+			returnInputFileFormatError("Could not read file: " + inputFile + " (" + e.getMessage() + ")", null);
+		} finally {
+			if(bin != null) {
+				bin.close();
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Converts an SNV input file (in the current input format) to a LICHeE binary file 
+	 * that can be used as the input of subsequent runs
+	 */
+	public static void convertToBinary(String inputFile, String outputFile) {
+		SNVDataStore db = new SNVDataStore();
+		int totalSNVCounter = db.loadSNVs(inputFile, false);
+		SampleProfile[] profiles = null;
+		if(Parameters.INPUT_FORMAT == Format.SNV_WITH_PROFILE) {
+			profiles = new SampleProfile[totalSNVCounter];
+			for(int i = 0; i < totalSNVCounter; i++) {
+				profiles[i] = db.somaticSNVs.get(i).getProfile();
+			}
+		}
+		try {
+			SNVBinaryFile.write(outputFile, db.sampleNames, db.snvTable, profiles);
+		} catch (IOException e) {
+			System.err.println("Failed to write the binary file " + outputFile + ": " + e.getMessage());
+			System.exit(-1);
+		}
+		logger.log(Level.INFO, "Converted " + totalSNVCounter + " SNVs to " + outputFile);
+	}
+	
+	private void loadSNVFileWithClusters(String inputFile, String clustersFile) {
+		// load the input SNV file 
+		int totalSNVCounter = loadSNVs(inputFile, false);
+		logger.log(Level.INFO, "There are " + totalSNVCounter + " SNVs in the input file.\n");
 		// load the clusters file
 		try {
-			BufferedReader rd = new BufferedReader(new FileReader(clustersFile));
+			BufferedReader rd = new BufferedReader(new InputStreamReader(InputFiles.open(clustersFile, Parameters.NUM_THREADS)));
 			String currLine = rd.readLine();
 			if(currLine == null) {
 				returnInputFileFormatError("Empty file", null); 
@@ -579,12 +1008,12 @@ public class SNVDataStore {
 			while (currLine != null) {
 				double[] vafs = new double[numSamples];
 				ArrayList<Integer> members = new ArrayList<Integer>();
-				String profile = parseSNVCluster(currLine, vafs, members);
-				int numSetSamples = getHammingWeight(profile);
+				SampleProfile profile = SampleProfile.fromString(parseSNVCluster(currLine, vafs, members));
+				int numSetSamples = profile.cardinality();
 				double[] centroid = new double[numSetSamples];
 				int idx = 0;
 				for(int i = 0; i < numSamples; i++) {
-					if(profile.charAt(i) == '1') {
+					if(profile.get(i)) {
 						centroid[idx] = vafs[i];
 						idx++;
 					}
@@ -596,15 +1025,15 @@ public class SNVDataStore {
 				c.setStdDev(new double[numSamples]);
 				int startId = 0;
 				if(tag2SNVs.containsKey(profile)) {
-					startId = tag2SNVs.get(profile).size();
+					startId = tag2SNVs.get(profile).size;
 				} else {
-					tag2SNVs.put(profile, new ArrayList<SNVEntry>());
+					tag2SNVs.put(profile, new ProfileGroup());
 				}
 				for(int i = 0; i < members.size(); i++) {
 					c.addMember(startId + i);
 					SNVEntry snv = somaticSNVs.get(members.get(i)-1);
 					snv.presenceProfile = profile;
-					snv.isRobust = true;
+					snvTable.setRobust(snv.getRow(), true);
 					tag2SNVs.get(profile).add(snv);
 				}
 				if(!tag2Clusters.containsKey(profile)) {
@@ -627,6 +1056,11 @@ public class SNVDataStore {
 		return Parameters.INPUT_FORMAT == Format.SNV ? NUM_REQ_FIELDS_SNV_FILE : NUM_REQ_FIELDS_SNV_W_PROFILE_FILE;
 	}
 		
+	private static void returnSpillError(IOException e) {
+		System.err.println("Could not access the SNV spill files: " + e.getMessage());
+		System.exit(1);
+	}
+	
 	public static void returnInputFileFormatError(String desc, String entry) {
 		System.err.println("[Wrong input file format] " + desc);
 		if(entry != null) {
@@ -641,80 +1075,39 @@ public class SNVDataStore {
 		if(headerParts.length < numRequiredFields + 2) {
 			returnInputFileFormatError("The header must have " + numRequiredFields + " required fields and at least 2 samples (separated by tabs)", headerLine); 
 		}
-		sampleNames = new ArrayList<String>(Arrays.asList(headerParts).subList(numRequiredFields, headerParts.length));
-		numSamples = sampleNames.size();
-		logger.log(Level.FINE, "Input file contains " + numSamples + " samples!");
+		setSamples(new ArrayList<String>(Arrays.asList(headerParts).subList(numRequiredFields, headerParts.length)));
 	}
 	
-	/** Returns the SNV chromosome as an integer value */
-	private int parseChrNum(String chrString) {
-		if(chrString.contains("chr")) {
-			chrString = chrString.substring(3, chrString.length());
-		}
-		if(chrString.equals("x")) return 23;
-		if(chrString.equals("y")) return 24;
-		try {
-			return Integer.parseInt(chrString);
-		} catch (Exception e) {
-			return -1;
-		}
+	private void setSamples(ArrayList<String> names) {
+		sampleNames = names;
+		numSamples = sampleNames.size();
+		snvTable = new SNVTable(numSamples);
+		logger.log(Level.FINE, "Input file contains " + numSamples + " samples!");
 	}
 	
-	private SNVEntry parseSNVEntry(String line, int lineId) {
-		SNVEntry entry = new SNVEntry(line, lineId);
-		
-		// parse the entry fields
-		String[] entryParts = line.split("\t");
-		int numFields = getNumRequiredFields();
-		if(entryParts.length != (numFields + numSamples)) {
-			returnInputFileFormatError("Expecting " + numFields + " fields and " + numSamples + " samples based on the header", line);
-		}
-		
-		entry.chr = parseChrNum(entryParts[0].trim().toLowerCase());
-		if(entry.chr == -1) {
-			returnInputFileFormatError("Chromosome " + entryParts[0], line);
-		}
-		try {
-			entry.position = Integer.parseInt(entryParts[1].trim());
-		} catch (NumberFormatException e) {
-			returnInputFileFormatError("Position " + entryParts[1].trim(), line);
-		}	 
-		entry.description = entryParts[2].trim();
+	/**
+	 * Sets the presence profile and robustness of an SNV based on its VAFs
+	 * (or to the given profile if the input format provides it)
+	 */
+	private void callPresenceProfile(SNVEntry entry, SampleProfile presenceProfile) {
+		boolean isRobust = true;
 		if(Parameters.INPUT_FORMAT == Format.SNV_WITH_PROFILE) {
-			entry.presenceProfile = entryParts[3].trim();
-			if(entry.presenceProfile.length() != numSamples) {
-				returnInputFileFormatError("Presence profile " + entry.presenceProfile + " length does not match the number of input samples", line);
-			}
+			entry.presenceProfile = presenceProfile;
 		} else {
-			entry.presenceProfile = "";
-			entry.ambigPresenceProfile = "";
-		}
-		
-		// parse per sample VAF values
-		entry.VAF = new double[numSamples];
-		entry.isRobust = true;
-		for(int i = 0; i < numSamples; i++) {
-			try {
-				entry.VAF[i] = Double.parseDouble(entryParts[numFields + i]);
-			} catch (NumberFormatException e) {
-				returnInputFileFormatError("VAF value " + entryParts[i + numFields], line);
-			}
-			if(Parameters.INPUT_FORMAT == Format.SNV_WITH_PROFILE) continue;
-			if (entry.VAF[i] <  Parameters.MIN_VAF_PRESENT){
-				if (entry.VAF[i] >=  Parameters.MAX_VAF_ABSENT) {
-					entry.isRobust = false;
-					entry.ambigPresenceProfile += "*";
-				} else {
-					entry.ambigPresenceProfile += "0";
+			long[] w = SampleProfile.newWords(numSamples);
+			for(int i = 0; i < numSamples; i++) {
+				double vaf = entry.getVAF(i);
+				if (vaf <  Parameters.MIN_VAF_PRESENT){
+					if (vaf >=  Parameters.MAX_VAF_ABSENT) {
+						isRobust = false;
+					}
+				} else { 
+					w[i >>> 6] |= 1L << i;
 				}
-				entry.presenceProfile += "0";
-			} else { 
-				entry.presenceProfile += "1";
-				entry.ambigPresenceProfile += "1";
 			}
+			entry.presenceProfile = new SampleProfile(numSamples, w);
 		}
-		
-		return entry;
+		snvTable.setRobust(entry.getRow(), isRobust);
 	}
 	
 	private String parseSNVCluster(String line, double[] centroid, ArrayList<Integer> members) {	
@@ -758,7 +1151,7 @@ public class SNVDataStore {
 	private ArrayList<CNVRegion> loadCNVs(String inputCNVFile){
 		ArrayList<CNVRegion> CNVs = new ArrayList<CNVRegion>();
 		try {
-			BufferedReader rd = new BufferedReader(new FileReader(inputCNVFile));
+			BufferedReader rd = new BufferedReader(new InputStreamReader(InputFiles.open(inputCNVFile, Parameters.NUM_THREADS)));
 			String currLine = rd.readLine();
 			if (currLine.charAt(0) == '#') {
 				currLine = rd.readLine();             
@@ -778,7 +1171,7 @@ public class SNVDataStore {
 	private ArrayList<String> loadAnnovarFunction(String inputAnnFile){
 		ArrayList<String> anns = new ArrayList<String>();
 		try {
-			BufferedReader rd = new BufferedReader(new FileReader(inputAnnFile));
+			BufferedReader rd = new BufferedReader(new InputStreamReader(InputFiles.open(inputAnnFile, Parameters.NUM_THREADS)));
 			String currLine = rd.readLine();
 			while (currLine != null){
 				String[] entryParts = currLine.split("\t");
@@ -796,82 +1189,65 @@ public class SNVDataStore {
 	}
 	
 	// returns COSMIC info by SNV position
-	private HashMap<Integer, String> loadCOSMIC(String inputCOSMICFile){
-		HashMap<Integer, String> cosmicDB = new HashMap<Integer, String>();
+	/** 
+	 * Loads the COSMIC mutations (the chromosome is taken from the third column when present, 
+	 * otherwise the mutations are matched by position only)
+	 */
+	private void loadCOSMIC(String inputCOSMICFile, SNVAnnotator annotator){
 		try {
-			BufferedReader rd = new BufferedReader(new FileReader(inputCOSMICFile));
+			BufferedReader rd = new BufferedReader(new InputStreamReader(InputFiles.open(inputCOSMICFile, Parameters.NUM_THREADS)));
 			String currLine = rd.readLine();
 			while (currLine != null){
 				String[] entryParts = currLine.split("\t");
-				cosmicDB.put(Integer.parseInt(entryParts[3]), entryParts[1]);
+				int chr = SNVFileParser.parseChrNum(entryParts[2].trim().toLowerCase());
+				annotator.addCOSMIC(chr, Integer.parseInt(entryParts[3]), entryParts[1]);
 				currLine = rd.readLine();
 			}
 			rd.close();
 		} catch (IOException e) {
 			System.err.println("COSMIC input file Reading Error!");
 		}
-		return cosmicDB;
 	}
-	
-	private HashMap<Integer, ArrayList<Integer>> loadTCGA(String inputTCGAFile){
-		HashMap<Integer, ArrayList<Integer>> tcgaDB = new HashMap<Integer, ArrayList<Integer>>();
+	private void loadTCGA(String inputTCGAFile, SNVAnnotator annotator){
 		try {
-			BufferedReader rd = new BufferedReader(new FileReader(inputTCGAFile));
+			BufferedReader rd = new BufferedReader(new InputStreamReader(InputFiles.open(inputTCGAFile, Parameters.NUM_THREADS)));
 			String currLine = rd.readLine();
 			while (currLine != null){
 				String[] entryParts = currLine.split("\t");
 				int chr = Integer.parseInt(entryParts[0].trim());
 				int pos = Integer.parseInt(entryParts[1].trim());
-				if(tcgaDB.containsKey(chr)) {
-					tcgaDB.get(chr).add(pos);
-				} else {
-					tcgaDB.put(chr, new ArrayList<Integer>());
-					tcgaDB.get(chr).add(pos);
-				}
+				annotator.addTCGA(chr, pos);
 				currLine = rd.readLine();
 			}
 			rd.close();
 		} catch (IOException e) {
 			System.err.println("TCGA input file Reading Error!");
 		}
-		return tcgaDB;
 	}
 	
+	/**
+	 * Annotates the somatic SNVs with the CNV regions, functional annotations
+	 * and COSMIC/TCGA mutations in the given files (null if not used)
+	 * (not used by the build pipeline; the somatic SNVs are not kept if the groups are spilled)
+	 */
 	public void annotateSNVs(String inputCNVFile, String inputAnnFile, String cosmicFile, String tcgaFile) {
-		ArrayList<CNVRegion> cnvs = null;
+		if(spillGroups) {
+			logger.warning("The SNVs cannot be annotated when the SNV groups are spilled to disk");
+			return;
+		}
+		SNVAnnotator annotator = new SNVAnnotator();
 		if(inputCNVFile != null) {
-			cnvs = loadCNVs(inputCNVFile);
+			annotator.setCNVs(loadCNVs(inputCNVFile));
 		}
-		ArrayList<String> anns = null;
 		if(inputAnnFile != null) {
-			anns = loadAnnovarFunction(inputAnnFile);
-		}
-		HashMap<Integer, String> cosmicDB = null;
-		if(cosmicFile != null) {
-			cosmicDB = loadCOSMIC(cosmicFile);
+			annotator.setFunctions(loadAnnovarFunction(inputAnnFile));
 		}
-		HashMap<Integer, ArrayList<Integer>> tcgaDB = null;
 		if(cosmicFile != null) {
-			tcgaDB = loadTCGA(tcgaFile);
+			loadCOSMIC(cosmicFile, annotator);
 		}
-		for (int i = 0; i < somaticSNVs.size(); i++) {
-			SNVEntry entry = somaticSNVs.get(i);
-			if (cnvs != null){
-				entry.checkInCNVRegion(cnvs);
-			}
-			if(anns != null) {
-				entry.addAnnotation(anns.get(i));
-			}
-			if(cosmicDB != null) {
-				if(cosmicDB.containsKey(entry.getPosition())) {
-					entry.addAnnotation(cosmicDB.get(entry.getPosition()));
-				}
-			}
-			if(tcgaDB != null) {
-				if(tcgaDB.containsKey(entry.getChromosome()) && tcgaDB.get(entry.getChromosome()).contains(entry.getPosition())) {
-					entry.addAnnotation("+TCGA+");
-				}
-			}
+		if(tcgaFile != null) {
+			loadTCGA(tcgaFile, annotator);
 		}
+		annotator.annotate(somaticSNVs);
 	}
 }
@@ -27,117 +27,152 @@
 */
 
 
-/**
- * Represents an SNV entry
- */
-package lineage;
-
-import java.util.ArrayList;
-
-import util.CNVRegion;
-
-public class SNVEntry {
-	
-	/** SNV entry info */
-	protected int id;
-	protected int chr;
-	protected int position;
-	protected String description;
-	protected String presenceProfile;
-	protected String ambigPresenceProfile;
-	protected double[] VAF;
-	protected boolean isRobust;
-	protected String snvEntryString;
-	protected boolean inCNVRegion;
-	protected String annotation;
+/**
+ * Represents an SNV entry
+ */
+package lineage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import util.CNVRegion;
+
+public class SNVEntry implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	/** Table storing the SNV data and the row of this SNV */
+	protected SNVTable table;
+	protected int row;
+	
+	/** SNV calling info */
+	protected SampleProfile presenceProfile;
+	/** Samples with evidence of presence (computed on first use) */
+	protected transient SampleProfile evidenceProfile;
+	protected boolean inCNVRegion;
+	protected String annotation;
 	 
-	public SNVEntry(String line, int lineId) {
-		id = lineId;
-		snvEntryString = line;
+	public SNVEntry(SNVTable snvTable, int tableRow) {
+		table = snvTable;
+		row = tableRow;
 		annotation = "";
 	}
 	
 	public int getId() {
-		return id;
+		return table.getId(row);
+	}
+	
+	/** Returns the row of this SNV in the SNV table */
+	public int getRow() {
+		return row;
 	}
 	
 	/** Returns the SNV chromosome */
 	public int getChromosome() {
-		return chr;
-	}
-	
-	/** Returns the SNV position  */
-	public int getPosition() {
-		return position;
-	}
+		return table.getChromosome(row);
+	}
+	
+	/** Returns the SNV position  */
+	public int getPosition() {
+		return table.getPosition(row);
+	}
 	
 	/** Returns the description field */
 	public String getDescription() {
-		return description;
-	}
-	
-	/** Returns the VAF in sample i */
-	public double getVAF(int i) {
-		return VAF[i];
-	}
+		return table.getDescription(row);
+	}
+	
+	/** Returns the VAF in sample i */
+	public double getVAF(int i) {
+		return table.getVAF(row, i);
+	}
 	
 	/** Returns true if the SNV was robustly called in all samples  */
 	public boolean isRobust() {
-		return isRobust;
-	}
-	
-	/** Returns the sample presence-absence profile */
-	public String getProfile() {
-		return presenceProfile;
-	}
+		return table.isRobust(row);
+	}
 	
+	/** Returns the sample presence-absence profile */
+	public SampleProfile getProfile() {
+		return presenceProfile;
+	}
+	
+	/** 
+	 * Returns the profile called from the VAFs with '*' marking 
+	 * the samples with ambiguous VAFs (used for logging)
+	 */
 	public String getAmbigProfile() {
-		return ambigPresenceProfile;
+		int numSamples = table.getNumSamples();
+		StringBuilder ambigProfile = new StringBuilder(numSamples);
+		for(int i = 0; i < numSamples; i++) {
+			double vaf = getVAF(i);
+			if (vaf <  Parameters.MIN_VAF_PRESENT){
+				ambigProfile.append((vaf >=  Parameters.MAX_VAF_ABSENT) ? '*' : '0');
+			} else {
+				ambigProfile.append('1');
+			}
+		}
+		return ambigProfile.toString();
 	}
 	
-	/** Sets the sample presence-absence profile */
-	public void updateGroup(String code) {
-		presenceProfile = code;
+	/** Sets the sample presence-absence profile */
+	public void updateGroup(SampleProfile code) {
+		presenceProfile = code;
 	}
 	
 	/** Returns true if profile[sampleId] == 1 */
 	public boolean isPresent(int sampleId) {
-		return presenceProfile.charAt(sampleId) == '1';
+		return presenceProfile.get(sampleId);
 	}
 	
 	public boolean evidenceOfPresence(int sample){
-		return (VAF[sample] > Parameters.MAX_VAF_ABSENT );
-	}
-	
-	public String getAnnotation() {
-		return annotation;
-	}
+		return (getVAF(sample) > Parameters.MAX_VAF_ABSENT );
+	}
+	
+	/** Returns the profile of the samples with evidence of presence */
+	public SampleProfile getEvidenceProfile() {
+		if(evidenceProfile == null) {
+			int numSamples = table.getNumSamples();
+			long[] w = SampleProfile.newWords(numSamples);
+			for(int i = 0; i < numSamples; i++) {
+				if(evidenceOfPresence(i)) {
+					w[i >>> 6] |= 1L << i;
+				}
+			}
+			evidenceProfile = new SampleProfile(numSamples, w);
+		}
+		return evidenceProfile;
+	}
+	
+	public String getAnnotation() {
+		return annotation;
+	}
 	
 	public void addAnnotation(String ann) {
 		annotation += ann + "; ";
-	}
-
-	public boolean checkInCNVRegion(ArrayList<CNVRegion> CNVs) {
-		for (CNVRegion cnv : CNVs){
-			int loc = cnv.compareLocation(chr, position);
-			if (loc == 0) {
-				inCNVRegion = true;
-				return true;
-			}
-			if (loc == -1) {
-				inCNVRegion = false;
-				return false;
-			}
-		}
-		inCNVRegion = false;
-		return false;
-	}
-	
-	public boolean isInCNVRegion() {
-		return inCNVRegion;
-	}
-	
-	public String toString() {
-		return snvEntryString;
-	}
-}
+	}
+
+	public boolean checkInCNVRegion(ArrayList<CNVRegion> CNVs) {
+		for (CNVRegion cnv : CNVs){
+			int loc = cnv.compareLocation(getChromosome(), getPosition());
+			if (loc == 0) {
+				inCNVRegion = true;
+				return true;
+			}
+			if (loc == -1) {
+				inCNVRegion = false;
+				return false;
+			}
+		}
+		inCNVRegion = false;
+		return false;
+	}
+	
+	public boolean isInCNVRegion() {
+		return inCNVRegion;
+	}
+	
+	/** Returns the SNV fields as in the input file (used for logging) */
+	public String toString() {
+		return table.getRowString(row, (Parameters.INPUT_FORMAT == Parameters.Format.SNV_WITH_PROFILE) ? presenceProfile : null);
+	}
+}
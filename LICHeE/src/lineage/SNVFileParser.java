@@ -0,0 +1,670 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import util.InputFiles;
+
+/**
+ * Parser of the tab-delimited SNV input files.
+ * The file is memory-mapped and split at line boundaries into chunks that are
+ * parsed on worker threads directly into primitive columns 
+ * (the fields are parsed from the bytes without creating per-line strings).
+ * The parsed chunks are returned in file order.
+ * Gzip and BGZF compressed files are decompressed as a stream (BGZF blocks in parallel)
+ * and cut into chunks as the data arrives.
+ * 
+ * Format errors are reported with the same messages as SNVDataStore;
+ * a chunk stops at its first malformed line, the rows preceding it are still returned.
+ */
+public class SNVFileParser {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** Target size of the chunks parsed by each task */
+	protected static int CHUNK_SIZE = 8 << 20;
+	
+	/** Largest double mantissa that is exactly representable (2^53) */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	/** Powers of 10 that are exactly representable as doubles */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for(int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i-1]*10;
+		}
+	}
+	
+	/** Parsing threads do not keep the program alive if the parser is not closed */
+	private static final ThreadFactory WORKER_THREAD_FACTORY = new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "snv-parser");
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	
+	private String fileName;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	/** Header line (null if the file is empty) */
+	private String header;
+	/** Offset of the first data line */
+	private long dataStart;
+	
+	/** Decompressed data of a compressed file (null if the file is memory-mapped) */
+	private InputStream stream;
+	/** Data read from the stream following the last complete line of the previous chunk */
+	private byte[] carry;
+	private int carryLength;
+	private boolean streamEnd;
+	
+	private ExecutorService pool;
+	/** Parsing tasks in file order */
+	private ArrayDeque<Future<ParsedChunk>> chunks;
+	private int maxPendingChunks;
+	
+	private int numSamples;
+	private int numRequiredFields;
+	private boolean hasProfile;
+	
+	/**
+	 * Opens the file and reads the header line
+	 */
+	public SNVFileParser(String inputFileName) throws IOException {
+		fileName = inputFileName;
+		if(InputFiles.isCompressed(fileName)) {
+			stream = new BufferedInputStream(InputFiles.open(fileName, Parameters.NUM_THREADS), 1 << 16);
+			readStreamHeader();
+		} else {
+			file = new RandomAccessFile(new File(fileName), "r");
+			channel = file.getChannel();
+			readHeader();
+		}
+	}
+	
+	/** Returns the header line or null if the file is empty */
+	public String getHeader() {
+		return header;
+	}
+	
+	private void readHeader() throws IOException {
+		long size = channel.size();
+		if(size == 0) return;
+		ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+		byte[] line = new byte[0];
+		long pos = 0;
+		while(pos < size) {
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if(n <= 0) break;
+			int eol = -1;
+			for(int i = 0; i < n; i++) {
+				if(buf.get(i) == '\n') {
+					eol = i;
+					break;
+				}
+			}
+			int len = (eol == -1) ? n : eol;
+			int prev = line.length;
+			line = Arrays.copyOf(line, prev + len);
+			buf.position(0);
+			buf.get(line, prev, len);
+			pos += n;
+			if(eol != -1) {
+				pos = pos - n + eol + 1;
+				break;
+			}
+		}
+		int len = line.length;
+		if(len > 0 && line[len-1] == '\r') len--;
+		header = new String(line, 0, len, UTF8);
+		dataStart = pos;
+	}
+	
+	private void readStreamHeader() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b = stream.read();
+		if(b == -1) return;
+		while(b != -1 && b != '\n') {
+			line.write(b);
+			b = stream.read();
+		}
+		byte[] bytes = line.toByteArray();
+		int len = bytes.length;
+		if(len > 0 && bytes[len-1] == '\r') len--;
+		header = new String(bytes, 0, len, UTF8);
+	}
+	
+	/**
+	 * Starts parsing the data lines on the worker threads
+	 * @param numSamples - number of VAF columns
+	 * @param numRequiredFields - number of fields preceding the VAF columns
+	 * @param hasProfile - true if the 4th field is the sample presence profile
+	 */
+	public void parse(int numSamples, int numRequiredFields, boolean hasProfile) throws IOException {
+		this.numSamples = numSamples;
+		this.numRequiredFields = numRequiredFields;
+		this.hasProfile = hasProfile;
+		chunks = new ArrayDeque<Future<ParsedChunk>>();
+		if(stream != null) {
+			// chunks are read from the stream as the parsed chunks are consumed
+			pool = Executors.newFixedThreadPool(Math.max(1, Parameters.NUM_THREADS), WORKER_THREAD_FACTORY);
+			maxPendingChunks = 2*Math.max(1, Parameters.NUM_THREADS);
+			carry = new byte[0];
+			carryLength = 0;
+			streamEnd = false;
+			return;
+		}
+		
+		long size = channel.size();
+		
+		// split the data into chunks at line boundaries
+		ArrayList<Long> boundaries = new ArrayList<Long>();
+		boundaries.add(dataStart);
+		long pos = dataStart;
+		ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+		while(size - pos > CHUNK_SIZE) {
+			pos += CHUNK_SIZE;
+			// find the end of the line containing pos
+			long eol = -1;
+			while(eol == -1 && pos < size) {
+				buf.clear();
+				int n = channel.read(buf, pos);
+				if(n <= 0) break;
+				for(int i = 0; i < n; i++) {
+					if(buf.get(i) == '\n') {
+						eol = pos + i;
+						break;
+					}
+				}
+				if(eol == -1) pos += n;
+			}
+			if(eol == -1) break;
+			pos = eol + 1;
+			boundaries.add(pos);
+		}
+		if(boundaries.get(boundaries.size() - 1) < size) {
+			boundaries.add(size);
+		}
+		
+		int numThreads = Math.max(1, Math.min(Parameters.NUM_THREADS, boundaries.size() - 1));
+		pool = Executors.newFixedThreadPool(numThreads, WORKER_THREAD_FACTORY);
+		for(int i = 0; i < boundaries.size() - 1; i++) {
+			final long start = boundaries.get(i);
+			final long length = boundaries.get(i + 1) - start;
+			chunks.add(pool.submit(new Callable<ParsedChunk>() {
+				public ParsedChunk call() throws IOException {
+					MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+					return parseChunk(data);
+				}
+			}));
+		}
+		pool.shutdown();
+	}
+	
+	/**
+	 * Returns the next parsed chunk (in file order) 
+	 * @return null after the last chunk
+	 */
+	public ParsedChunk nextChunk() throws IOException {
+		if(chunks == null) return null;
+		if(stream != null) {
+			while(!streamEnd && chunks.size() < maxPendingChunks) {
+				submitStreamChunk();
+			}
+		}
+		if(chunks.isEmpty()) return null;
+		try {
+			return chunks.poll().get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Reads the next chunk of complete lines from the stream and submits it for parsing
+	 */
+	private void submitStreamChunk() throws IOException {
+		byte[] buf = new byte[Math.max(CHUNK_SIZE, 2*carryLength)];
+		System.arraycopy(carry, 0, buf, 0, carryLength);
+		int length = carryLength;
+		int searchStart = carryLength;
+		int end = -1;
+		while(end == -1) {
+			while(length < buf.length) {
+				int n = stream.read(buf, length, buf.length - length);
+				if(n < 0) {
+					streamEnd = true;
+					break;
+				}
+				length += n;
+			}
+			// the chunk ends after the last complete line
+			for(int i = length - 1; i >= searchStart; i--) {
+				if(buf[i] == '\n') {
+					end = i + 1;
+					break;
+				}
+			}
+			if(streamEnd) {
+				end = length;
+			} else if(end == -1) {
+				// line longer than the buffer
+				searchStart = length;
+				buf = Arrays.copyOf(buf, 2*buf.length);
+			}
+		}
+		carryLength = length - end;
+		carry = Arrays.copyOfRange(buf, end, length);
+		if(end == 0) return;
+		final ByteBuffer data = ByteBuffer.wrap(buf, 0, end);
+		chunks.add(pool.submit(new Callable<ParsedChunk>() {
+			public ParsedChunk call() {
+				return parseChunk(data);
+			}
+		}));
+	}
+	
+	public void close() {
+		if(pool != null) {
+			pool.shutdownNow();
+		}
+		try {
+			if(stream != null) {
+				stream.close();
+			} else {
+				file.close();
+			}
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+	
+	// ---- Chunk Parsing ----
+	
+	/**
+	 * Rows parsed from a chunk of the input file
+	 */
+	public static class ParsedChunk {
+		protected int numSamples;
+		protected int numRows;
+		protected int[] chrs;
+		protected int[] positions;
+		/** VAFs in row order (numRows x numSamples) */
+		protected double[] vafs;
+		/** Description of row i is descPool[descOffsets[i], descOffsets[i+1]) (UTF-8) */
+		protected byte[] descPool;
+		protected int[] descOffsets;
+		/** Presence profiles (null if not part of the input format) */
+		protected SampleProfile[] profiles;
+		
+		/** Format error at the line following the parsed rows (null if none) */
+		protected String errorDesc;
+		protected String errorLine;
+		
+		protected ParsedChunk(int numSamples, boolean hasProfile) {
+			this.numSamples = numSamples;
+			int capacity = 256;
+			chrs = new int[capacity];
+			positions = new int[capacity];
+			vafs = new double[capacity*numSamples];
+			descPool = new byte[16*capacity];
+			descOffsets = new int[capacity + 1];
+			if(hasProfile) {
+				profiles = new SampleProfile[capacity];
+			}
+		}
+		
+		/** Makes room for one more row */
+		private void ensureCapacity() {
+			if(numRows < chrs.length) return;
+			int capacity = 2*chrs.length;
+			chrs = Arrays.copyOf(chrs, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			vafs = Arrays.copyOf(vafs, capacity*numSamples);
+			descOffsets = Arrays.copyOf(descOffsets, capacity + 1);
+			if(profiles != null) {
+				profiles = Arrays.copyOf(profiles, capacity);
+			}
+		}
+		
+		private void appendDescription(ByteBuffer data, int start, int end) {
+			int offset = descOffsets[numRows];
+			int len = end - start;
+			if(offset + len > descPool.length) {
+				descPool = Arrays.copyOf(descPool, Math.max(2*descPool.length, offset + len));
+			}
+			for(int i = 0; i < len; i++) {
+				descPool[offset + i] = data.get(start + i);
+			}
+			descOffsets[numRows + 1] = offset + len;
+		}
+		
+		public int getNumRows() {
+			return numRows;
+		}
+		
+		public String getErrorDesc() {
+			return errorDesc;
+		}
+		
+		public String getErrorLine() {
+			return errorLine;
+		}
+	}
+	
+	/**
+	 * Parses the lines in the given buffer (from position 0 to its limit)
+	 */
+	protected ParsedChunk parseChunk(ByteBuffer data) {
+		ParsedChunk c = new ParsedChunk(numSamples, hasProfile);
+		int numFields = numRequiredFields + numSamples;
+		int[] fieldStart = new int[numFields];
+		int[] fieldEnd = new int[numFields];
+		int limit = data.limit();
+		int lineStart = 0;
+		while(lineStart < limit) {
+			int lineEnd = lineStart;
+			while(lineEnd < limit && data.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			int next = lineEnd + 1;
+			if(lineEnd > lineStart && data.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			if(!parseLine(data, lineStart, lineEnd, c, numRequiredFields, fieldStart, fieldEnd)) {
+				c.errorLine = decode(data, lineStart, lineEnd);
+				break;
+			}
+			lineStart = next;
+		}
+		return c;
+	}
+	
+	/**
+	 * Parses a line into the next row of the chunk
+	 * @return false if the line is malformed (the error is set in the chunk)
+	 */
+	private static boolean parseLine(ByteBuffer data, int start, int end, ParsedChunk c, int numRequiredFields, 
+			int[] fieldStart, int[] fieldEnd) {
+		int numSamples = c.numSamples;
+		int numFields = numRequiredFields + numSamples;
+		
+		// split on tabs (trailing empty fields are ignored as by String.split)
+		int trimmedEnd = end;
+		while(trimmedEnd > start && data.get(trimmedEnd - 1) == '\t') {
+			trimmedEnd--;
+		}
+		int n = 0;
+		int s = start;
+		for(int i = start; i <= trimmedEnd; i++) {
+			if(i == trimmedEnd || data.get(i) == '\t') {
+				if(n < numFields) {
+					fieldStart[n] = s;
+					fieldEnd[n] = i;
+				}
+				n++;
+				s = i + 1;
+			}
+		}
+		if(n != numFields) {
+			c.errorDesc = "Expecting " + numRequiredFields + " fields and " + numSamples + " samples based on the header";
+			return false;
+		}
+		c.ensureCapacity();
+		int row = c.numRows;
+		
+		int chr = parseChrNum(data, fieldStart[0], fieldEnd[0]);
+		if(chr == -1) {
+			c.errorDesc = "Chromosome " + decode(data, fieldStart[0], fieldEnd[0]);
+			return false;
+		}
+		c.chrs[row] = chr;
+		
+		int posStart = trimStart(data, fieldStart[1], fieldEnd[1]);
+		int posEnd = trimEnd(data, posStart, fieldEnd[1]);
+		try {
+			c.positions[row] = parseInt(data, posStart, posEnd);
+		} catch (NumberFormatException e) {
+			c.errorDesc = "Position " + decode(data, posStart, posEnd);
+			return false;
+		}
+		
+		int descStart = trimStart(data, fieldStart[2], fieldEnd[2]);
+		int descEnd = trimEnd(data, descStart, fieldEnd[2]);
+		
+		if(c.profiles != null) {
+			int profileStart = trimStart(data, fieldStart[3], fieldEnd[3]);
+			int profileEnd = trimEnd(data, profileStart, fieldEnd[3]);
+			if(profileEnd - profileStart != numSamples) {
+				c.errorDesc = "Presence profile " + decode(data, profileStart, profileEnd) + " length does not match the number of input samples";
+				return false;
+			}
+			long[] w = SampleProfile.newWords(numSamples);
+			for(int i = 0; i < numSamples; i++) {
+				if(data.get(profileStart + i) == '1') {
+					w[i >>> 6] |= 1L << i;
+				}
+			}
+			c.profiles[row] = new SampleProfile(numSamples, w);
+		}
+		
+		int offset = row*numSamples;
+		for(int i = 0; i < numSamples; i++) {
+			int f = numRequiredFields + i;
+			try {
+				c.vafs[offset + i] = parseDouble(data, fieldStart[f], fieldEnd[f]);
+			} catch (NumberFormatException e) {
+				c.errorDesc = "VAF value " + decode(data, fieldStart[f], fieldEnd[f]);
+				return false;
+			}
+		}
+		
+		c.appendDescription(data, descStart, descEnd);
+		c.numRows++;
+		return true;
+	}
+	
+	// ---- Field Parsing ----
+	
+	private static String decode(ByteBuffer data, int start, int end) {
+		byte[] b = new byte[end - start];
+		for(int i = 0; i < b.length; i++) {
+			b[i] = data.get(start + i);
+		}
+		return new String(b, UTF8);
+	}
+	
+	/** Skips leading whitespace (as String.trim) */
+	private static int trimStart(ByteBuffer data, int start, int end) {
+		while(start < end && (data.get(start) & 0xff) <= ' ') {
+			start++;
+		}
+		return start;
+	}
+	
+	/** Skips trailing whitespace (as String.trim) */
+	private static int trimEnd(ByteBuffer data, int start, int end) {
+		while(end > start && (data.get(end - 1) & 0xff) <= ' ') {
+			end--;
+		}
+		return end;
+	}
+	
+	/** Returns the chromosome as an integer value (-1 if it is not valid) */
+	private static int parseChrNum(ByteBuffer data, int start, int end) {
+		int s = trimStart(data, start, end);
+		int e = trimEnd(data, s, end);
+		int i = s;
+		if(e - i >= 3 && Character.toLowerCase((char) data.get(i)) == 'c' 
+				&& Character.toLowerCase((char) data.get(i + 1)) == 'h' 
+				&& Character.toLowerCase((char) data.get(i + 2)) == 'r') {
+			i += 3;
+		}
+		if(e - i == 1) {
+			char ch = Character.toLowerCase((char) data.get(i));
+			if(ch == 'x') return 23;
+			if(ch == 'y') return 24;
+		}
+		try {
+			return parseInt(data, i, e);
+		} catch (NumberFormatException ex) {
+			// fall back to the string parser for non-standard names
+			return parseChrNum(decode(data, s, e).toLowerCase());
+		}
+	}
+	
+	/** Returns the SNV chromosome as an integer value (-1 if it is not valid) */
+	public static int parseChrNum(String chrString) {
+		if(chrString.contains("chr")) {
+			chrString = chrString.substring(3, chrString.length());
+		}
+		if(chrString.equals("x")) return 23;
+		if(chrString.equals("y")) return 24;
+		try {
+			return Integer.parseInt(chrString);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+	
+	/** Parses a decimal integer (same results and errors as Integer.parseInt) */
+	private static int parseInt(ByteBuffer data, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if(i < end && (data.get(i) == '-' || data.get(i) == '+')) {
+			negative = data.get(i) == '-';
+			i++;
+		}
+		if(i == end || end - i > 9) {
+			return Integer.parseInt(decode(data, start, end));
+		}
+		int value = 0;
+		for(; i < end; i++) {
+			int d = data.get(i) - '0';
+			if(d < 0 || d > 9) {
+				throw new NumberFormatException();
+			}
+			value = 10*value + d;
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parses a decimal floating point value (same results and errors as Double.parseDouble)
+	 * Values whose digits fit in a double mantissa and whose exponent is small are 
+	 * computed with a single correctly rounded operation, others are parsed by Double.parseDouble
+	 */
+	private static double parseDouble(ByteBuffer data, int start, int end) {
+		int s = trimStart(data, start, end);
+		int e = trimEnd(data, s, end);
+		int i = s;
+		boolean negative = false;
+		if(i < e && (data.get(i) == '-' || data.get(i) == '+')) {
+			negative = data.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int numDigits = 0;
+		int exp10 = 0;
+		boolean exact = true;
+		for(; i < e; i++) {
+			int d = data.get(i) - '0';
+			if(d < 0 || d > 9) break;
+			mantissa = 10*mantissa + d;
+			numDigits++;
+			if(mantissa >= MAX_EXACT_MANTISSA) exact = false;
+		}
+		if(i < e && data.get(i) == '.') {
+			i++;
+			for(; i < e; i++) {
+				int d = data.get(i) - '0';
+				if(d < 0 || d > 9) break;
+				mantissa = 10*mantissa + d;
+				numDigits++;
+				exp10--;
+				if(mantissa >= MAX_EXACT_MANTISSA) exact = false;
+			}
+		}
+		if(numDigits > 0 && i < e && (data.get(i) == 'e' || data.get(i) == 'E')) {
+			i++;
+			boolean negativeExp = false;
+			if(i < e && (data.get(i) == '-' || data.get(i) == '+')) {
+				negativeExp = data.get(i) == '-';
+				i++;
+			}
+			int exp = 0;
+			int numExpDigits = 0;
+			for(; i < e && numExpDigits < 6; i++) {
+				int d = data.get(i) - '0';
+				if(d < 0 || d > 9) break;
+				exp = 10*exp + d;
+				numExpDigits++;
+			}
+			if(numExpDigits == 0) exact = false;
+			exp10 += negativeExp ? -exp : exp;
+		}
+		if(!exact || numDigits == 0 || i != e || exp10 < -22 || exp10 > 22) {
+			return Double.parseDouble(decode(data, start, end));
+		}
+		double value = (double) mantissa;
+		if(exp10 < 0) {
+			value /= POW10[-exp10];
+		} else {
+			value *= POW10[exp10];
+		}
+		return negative ? -value : value;
+	}
+}
@@ -29,8 +29,12 @@
 
 package lineage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.PriorityQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,7 +56,7 @@ public class SNVGroup implements Serializable {
 
 	/** Binary tag identifying the group 
 	 * (the length of the tag is equal to the number of input samples) */
-	private String tag;
+	private SampleProfile tag;
 	
 	/** Number of samples represented by this group */
 	private int numSamples;
@@ -60,64 +64,81 @@ public class SNVGroup implements Serializable {
 	/** Indices of the samples represented in this group (from 0 to |tag|-1 MSF order) */
 	private int[] sampleIndex;
 	
-	/** Alternative allele frequency data matrix (numSNVs x numSamples) */
-	protected transient double[][] alleleFreqBySample;
+	/** Index of each sample in sampleIndex (-1 if the sample is not represented) */
+	private int[] indexOfSample;
 	
 	/** SubPopulation clusters */
 	protected Cluster[] subPopulations;
 	
-	/** SNVs assigned to this group */
-	private transient ArrayList<SNVEntry> snvs;
+	/** Table storing the SNV data (null if the group is spilled) */
+	private SNVTable snvTable;
+	
+	/** Table rows of the SNVs assigned to this group (null if the group is spilled) */
+	private int[] rows;
+	
+	private int numSNVs;
+	
+	/** Spill file of the group SNVs (external mode) and its table while it is in use */
+	private transient SNVSpillFile spill;
+	private transient SoftReference<SNVTable> spilledTable;
+	
+	/** Alternative allele frequency data matrix (numSNVs x numSamples),
+	 * built from the SNV table only while it is needed for clustering */
+	private transient double[][] alleleFreqBySample;
 	
 	/** Flag indicating whether this group is robust */
-	private transient boolean isRobust;
+	private boolean isRobust;
 	
 	private static Logger logger = LineageEngine.logger;
 	
-	public SNVGroup(String groupTag, ArrayList<SNVEntry> groupSNVs, boolean isGroupRobust) {
+	public SNVGroup(SampleProfile groupTag, SNVTable table, int[] snvRows, boolean isGroupRobust) {
 		tag = groupTag;
 		isRobust = isGroupRobust;
-		numSamples = 0;		
-		sampleIndex = new int[tag.length()];
-		for(int i = 0; i < tag.length(); i++) {
-			if(tag.charAt(i) == '1') {
-				sampleIndex[numSamples] = i;
-				numSamples++;
-			}
-		}
-		snvs = groupSNVs;
-		alleleFreqBySample = new double[snvs.size()][numSamples];
-		for(int i = 0; i < snvs.size(); i++) {
-			SNVEntry snv = snvs.get(i);
-			for(int j = 0; j < numSamples; j++) {
-				alleleFreqBySample[i][j] = snv.getVAF(sampleIndex[j]);
-			}
-		}
+		indexSamples();
+		snvTable = table;
+		rows = snvRows;
+		numSNVs = rows.length;
+	}
+	
+	/**
+	 * Creates a group of spilled SNVs 
+	 * (the SNVs are read from the spill file when needed)
+	 */
+	public SNVGroup(SampleProfile groupTag, SNVSpillFile spillFile, boolean isGroupRobust) {
+		tag = groupTag;
+		isRobust = isGroupRobust;
+		indexSamples();
+		spill = spillFile;
+		numSNVs = spill.getNumSNVs();
+	}
+	
+	/**
+	 * Creates a group over the same SNVs as the given group (the SNV data is shared)
+	 * The sub-populations are not copied
+	 */
+	public SNVGroup(SNVGroup g) {
+		tag = g.tag;
+		isRobust = g.isRobust;
+		numSamples = g.numSamples;
+		sampleIndex = g.sampleIndex;
+		indexOfSample = g.indexOfSample;
+		snvTable = g.snvTable;
+		rows = g.rows;
+		numSNVs = g.numSNVs;
+		spill = g.spill;
+		spilledTable = g.spilledTable;
 	}
 
-	public SNVGroup(String groupTag, double[] centroid, int size) {
+	public SNVGroup(SampleProfile groupTag, double[] centroid, int size) {
 		tag = groupTag;
 		isRobust = true;
-		numSamples = 0;		
-		sampleIndex = new int[tag.length()];
-		
-		for(int i = 0; i < tag.length(); i++) {
-			if(tag.charAt(i) == '1') {
-				sampleIndex[numSamples] = i;
-				numSamples++;
-			}
-		}
+		indexSamples();
 		double[] c = new double[numSamples];
-		int idx = 0;
-		for(int i = 0; i < tag.length(); i++) {
-			if(tag.charAt(i) == '1') {
-				c[idx] = centroid[i];
-				idx++;
-			}
+		for(int i = 0; i < numSamples; i++) {
+			c[i] = centroid[sampleIndex[i]];
 		}
 		
-		snvs = new ArrayList<SNVEntry>();
-		alleleFreqBySample = new double[snvs.size()][numSamples];
+		rows = new int[0];
 		subPopulations = new Cluster[1];
 		AAFClusterer aafc = new AAFClusterer();
 		subPopulations[0] = aafc.new Cluster(c, 0);
@@ -125,33 +146,112 @@ public class SNVGroup implements Serializable {
 		
 	}
 	
+	/** Builds the sample indices from the tag */
+	private void indexSamples() {
+		numSamples = 0;
+		sampleIndex = new int[tag.getNumSamples()];
+		indexOfSample = new int[tag.getNumSamples()];
+		for(int i = 0; i < tag.getNumSamples(); i++) {
+			if(tag.get(i)) {
+				sampleIndex[numSamples] = i;
+				indexOfSample[i] = numSamples;
+				numSamples++;
+			} else {
+				indexOfSample[i] = -1;
+			}
+		}
+	}
+	
 	// Getters/Setters
 	
-	public ArrayList<SNVEntry> getSNVs() {
-		return snvs;
+	/** Returns the i-th SNV of the group (created from the SNV table) */
+	public SNVEntry getSNV(int i) {
+		SNVEntry entry = new SNVEntry(getSNVTable(), getSNVRow(i));
+		entry.presenceProfile = tag;
+		return entry;
+	}
+	
+	/** Returns the SNV table (read from the spill file if the group is spilled) */
+	public synchronized SNVTable getSNVTable() {
+		if(snvTable != null) {
+			return snvTable;
+		}
+		SNVTable table = (spilledTable != null) ? spilledTable.get() : null;
+		if(table == null) {
+			try {
+				table = spill.load();
+			} catch (IOException e) {
+				System.err.println("Could not read the SNV spill file: " + e.getMessage());
+				System.exit(1);
+			}
+			spilledTable = new SoftReference<SNVTable>(table);
+		}
+		return table;
+	}
+	
+	/** Returns the row of the i-th SNV of the group in the SNV table */
+	public int getSNVRow(int i) {
+		return (rows != null) ? rows[i] : i;
+	}
+	
+	public boolean isRobustSNV(int i) {
+		return getSNVTable().isRobust(getSNVRow(i));
 	}
 	
-	public double[][] getAlleleFreqBySample() {
+	/**
+	 * Returns the AAF data matrix of the group (numSNVs x numSamples)
+	 * The matrix is gathered from the SNV table columns on first use 
+	 * and kept until releaseAlleleFreqBySample() is called
+	 */
+	public synchronized double[][] getAlleleFreqBySample() {
+		if(alleleFreqBySample == null) {
+			SNVTable table = getSNVTable();
+			double[][] aaf = new double[numSNVs][numSamples];
+			for(int j = 0; j < numSamples; j++) {
+				double[] column = table.getVAFColumn(sampleIndex[j]);
+				for(int i = 0; i < numSNVs; i++) {
+					aaf[i][j] = column[getSNVRow(i)];
+				}
+			}
+			alleleFreqBySample = aaf;
+		}
 		return alleleFreqBySample;
 	}
 	
+	/** 
+	 * Drops the AAF data matrix (it is rebuilt from the SNV table if needed again)
+	 * and the table of a spilled group
+	 */
+	public synchronized void releaseAlleleFreqBySample() {
+		alleleFreqBySample = null;
+		spilledTable = null;
+	}
+	
+	/** Spilled groups are stored with their SNVs */
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		SNVTable table = snvTable;
+		snvTable = getSNVTable();
+		out.defaultWriteObject();
+		snvTable = table;
+	}
+	
 	public int getNumSamples() {
 		return numSamples;
 	}
 	
 	public int getNumSamplesTotal() {
-		return tag.length();
+		return tag.getNumSamples();
 	}
 	
 	public int getNumSNVs() {
-		return snvs.size();
+		return numSNVs;
 	}
 	
 	public Cluster[] getSubPopulations() {
 		return subPopulations;
 	}
 	
-	public String getTag() {
+	public SampleProfile getTag() {
 		return tag;
 	}
 	
@@ -164,19 +264,22 @@ public class SNVGroup implements Serializable {
 	 * @return -1 if this sample is not represented in the group
 	 */
 	public int getSampleIndex(int sampleId) {
-		for(int i = 0; i < numSamples; i++) {
-			if(sampleIndex[i] == sampleId) {
-				return i;
-			}
-		}
-		return -1;
+		return indexOfSample[sampleId];
+	}
+	
+	/**
+	 * Returns the sample id of the given sample index 
+	 * (inverse of getSampleIndex)
+	 */
+	public int getSampleId(int sampleIndex) {
+		return this.sampleIndex[sampleIndex];
 	}
 	
 	/**
 	 * Returns true if the given sample contains the mutations of this group
 	 */
 	public boolean containsSample(int sampleId) {
-		return (getSampleIndex(sampleId) != -1);
+		return tag.get(sampleId);
 	}
 	
 	public boolean equals(Object o) {
@@ -184,7 +287,7 @@ public class SNVGroup implements Serializable {
 			return false;
 		}
 		SNVGroup g = (SNVGroup) o;
-		if(this.tag == g.tag) {
+		if(this.tag.equals(g.tag)) {
 			return true;
 		} else {
 			return false;
@@ -194,17 +297,33 @@ public class SNVGroup implements Serializable {
 	// --- Sub-population Cluster Filtering / Collapse ---
 	
 	/** Entry in the cluster centroid distance minimum priority queue */
-	protected class ClusterPairDistance {
-		/** Cluster pair */
+	protected class ClusterPairDistance implements Comparable<ClusterPairDistance> {
+		/** Cluster pair (indices in the list of clusters being collapsed) */
 		protected int clusterId1;
 		protected int clusterId2;
+		/** Versions of the two clusters when the distance was computed
+		 * (the entry is stale if either cluster was modified since) */
+		protected int version1;
+		protected int version2;
 		/** Distance between cluster centroids */
 		protected double distance;
+		/** Insertion order (pairs at equal distance are collapsed in the order they were added) */
+		protected long order;
 		
-		public ClusterPairDistance(int cluster1, int cluster2, double clusterDistance) {
+		public ClusterPairDistance(int cluster1, int cluster2, int clusterVersion1, int clusterVersion2, 
+				double clusterDistance, long insertionOrder) {
 			clusterId1 = cluster1;
 			clusterId2 = cluster2;
+			version1 = clusterVersion1;
+			version2 = clusterVersion2;
 			distance = clusterDistance;
+			order = insertionOrder;
+		}
+		
+		public int compareTo(ClusterPairDistance pd) {
+			int c = Double.compare(distance, pd.distance);
+			if(c != 0) return c;
+			return (order < pd.order) ? -1 : ((order > pd.order) ? 1 : 0);
 		}
 	}
 	
@@ -220,13 +339,12 @@ public class SNVGroup implements Serializable {
 		// 1. filter out clusters that are too small 
 		ArrayList<Cluster> filteredClusters = new ArrayList<Cluster>();
 		for(Cluster c : clusters) {
-			if((c.getMembership().size() >= Parameters.MIN_CLUSTER_SIZE) || ((numSamples == 1) && c.getMembership().size() >= Parameters.MIN_PRIVATE_CLUSTER_SIZE)) { // don't filter out private mutations
+			if((c.getSize() >= Parameters.MIN_CLUSTER_SIZE) || ((numSamples == 1) && c.getSize() >= Parameters.MIN_PRIVATE_CLUSTER_SIZE)) { // don't filter out private mutations
 				filteredClusters.add(c);
 			} else {
-				logger.log(Level.INFO, "**Filtered due to cluster size constraint (" + tag + " size " + c.getMembership().size() + "):");
-				for(Integer snv : c.getMembership()) {
-					SNVEntry entry = snvs.get(snv);
-					logger.log(Level.INFO, entry.toString());
+				logger.log(Level.INFO, "**Filtered due to cluster size constraint (" + tag + " size " + c.getSize() + "):");
+				for(int i = 0; i < c.getSize(); i++) {
+					logger.log(Level.INFO, getSNV(c.getMember(i)).toString());
 				}
 			}
 		}
@@ -243,77 +361,55 @@ public class SNVGroup implements Serializable {
 		// compute the distance matrix between clusters
 		// as long as there are clusters to collapse (i.e. cluster centroid distance
 		// is less than MAX_COLLAPSE_CLUSTER_DIFF), collapse clusters with smallest distance first
-		ArrayList<ClusterPairDistance> minDistQueue = new ArrayList<ClusterPairDistance>();
+		// (pairs involving a cluster that has changed since they were queued are skipped)
 		int numClusters = filteredClusters.size();
+		Cluster[] activeClusters = filteredClusters.toArray(new Cluster[numClusters]);
+		int[] version = new int[numClusters];
+		PriorityQueue<ClusterPairDistance> minDistQueue = new PriorityQueue<ClusterPairDistance>();
+		long numQueued = 0;
 		for(int i = 0; i < numClusters; i++) {
 			for(int j = i+1; j < numClusters; j++) {
-				Cluster c1 = filteredClusters.get(i);
-				Cluster c2 = filteredClusters.get(j);
 				//double dist = c1.getDistanceToCluster(c2.getCentroid(), DistanceMetric.EUCLIDEAN);
-				double dist = c1.getDistanceToCluster(c2.getCentroid(), DistanceMetric.AVG_PER_SAMPLE);
-				ClusterPairDistance pd = new ClusterPairDistance(c1.getId(), c2.getId(), dist);
-				
-				int k = 0;
-				for(k = 0; k < minDistQueue.size(); k++) {
-					if(minDistQueue.get(k).distance > dist) {
-						break;
-					}
-				}
-				minDistQueue.add(k, pd);
+				double dist = activeClusters[i].getDistanceToCluster(activeClusters[j].getCentroid(), DistanceMetric.AVG_PER_SAMPLE);
+				minDistQueue.add(new ClusterPairDistance(i, j, 0, 0, dist, numQueued++));
 			}
 		}
 		
-		while((minDistQueue.size() > 0) && 
-				((minDistQueue.get(0).distance < Parameters.MAX_COLLAPSE_CLUSTER_DIFF))) {
-			ClusterPairDistance pd = minDistQueue.remove(0);
-			Cluster c1 = clusters[pd.clusterId1];
-			Cluster c2 = clusters[pd.clusterId2];
-			
-			// collapse into c1
-			for(Integer obs : c2.getMembership()) {
-				c1.addMember(obs);
+		while(!minDistQueue.isEmpty()) {
+			ClusterPairDistance pd = minDistQueue.peek();
+			if(activeClusters[pd.clusterId1] == null || activeClusters[pd.clusterId2] == null 
+					|| version[pd.clusterId1] != pd.version1 || version[pd.clusterId2] != pd.version2) {
+				minDistQueue.poll();
+				continue;
 			}
-			numClusters--;
+			if(pd.distance >= Parameters.MAX_COLLAPSE_CLUSTER_DIFF) break;
+			minDistQueue.poll();
+			Cluster c1 = activeClusters[pd.clusterId1];
+			Cluster c2 = activeClusters[pd.clusterId2];
 			
-			c1.recomputeCentroidAndStdDev(alleleFreqBySample, snvs.size(), numSamples);
+			// collapse into c1
+			c1.merge(c2, getAlleleFreqBySample(), numSNVs, numSamples);
+			activeClusters[pd.clusterId2] = null;
+			version[pd.clusterId1]++;
 			filteredClusters.remove(c2);
-			logger.log(Level.FINE, "Collapse clusters: group = " + tag + " cluster " + pd.clusterId1 + " and " + pd.clusterId2 + 
+			logger.log(Level.FINE, "Collapse clusters: group = " + tag + " cluster " + c1.getId() + " and " + c2.getId() + 
 					" distance = " + pd.distance + ". New cluster: " + c1);
 			
-			// remove distances from c1 and c2 from the queue
-			ArrayList<ClusterPairDistance> toRemove = new ArrayList<ClusterPairDistance>();
-			for(ClusterPairDistance cpd : minDistQueue) {
-				if(cpd.clusterId1 == c1.getId() || cpd.clusterId2 == c1.getId() 
-				   || cpd.clusterId1 == c2.getId() || cpd.clusterId2 == c2.getId()) {
-					toRemove.add(cpd);
-				}
-			}
-			minDistQueue.removeAll(toRemove);
-			
 			// compute the distance from c1 to all the other clusters
-			for(Cluster c : filteredClusters) {
-				if(c.getId() == c1.getId() || c.getId() == c2.getId()) {
+			for(int k = 0; k < numClusters; k++) {
+				if(k == pd.clusterId1 || activeClusters[k] == null) {
 					continue;
 				}
-				double dist = c1.getDistanceToCluster(c.getCentroid(), DistanceMetric.AVG_PER_SAMPLE);
-				ClusterPairDistance cpd = new ClusterPairDistance(c1.getId(), c.getId(), dist);
-				
-				int k = 0;
-				for(k = 0; k < minDistQueue.size(); k++) {
-					if(minDistQueue.get(k).distance > dist) {
-						break;
-					}
-				}
-				minDistQueue.add(k, cpd);
+				double dist = c1.getDistanceToCluster(activeClusters[k].getCentroid(), DistanceMetric.AVG_PER_SAMPLE);
+				minDistQueue.add(new ClusterPairDistance(pd.clusterId1, k, version[pd.clusterId1], version[k], dist, numQueued++));
 			}
 		}
 		
 		// compute the robustness of each cluster
 		for(Cluster c : filteredClusters) {
 			int numRobust = 0;
-			for(Integer snv : c.getMembership()) {
-				SNVEntry entry = snvs.get(snv);
-				if(entry.isRobust()) {
+			for(int i = 0; i < c.getSize(); i++) {
+				if(isRobustSNV(c.getMember(i))) {
 					numRobust++;
 					if(numRobust >= Parameters.MIN_ROBUST_CLUSTER_SUPPORT) {
 						c.setRobust();
@@ -331,7 +427,7 @@ public class SNVGroup implements Serializable {
 		String group = "";
 		group += "(tag = " + this.tag + ", ";
 		group += "numSamples = " + this.numSamples + ", ";
-		group += "numSNVs = " + this.snvs.size() + ") ";
+		group += "numSNVs = " + this.numSNVs + ") ";
 		if(this.subPopulations != null) group += "numSubPopulations = " + this.subPopulations.length;
 		return group;
 	}
@@ -0,0 +1,150 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * On-disk file of the SNVs of a presence profile group (used in the external mode 
+ * to keep the memory independent of the input size).
+ * The SNVs are appended through a small in-memory buffer and 
+ * read back into an SNV table when the group is needed.
+ */
+public class SNVSpillFile {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** Size at which the buffered SNVs are appended to the file */
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	/** 
+	 * Initial size of the write buffer (the buffer grows on demand and is released 
+	 * when flushed, so that groups with few SNVs do not hold a full buffer)
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 256;
+	
+	private File file;
+	private int numSamples;
+	private int numSNVs;
+	
+	/** SNVs not yet written to the file */
+	private ByteArrayOutputStream buffer;
+	private DataOutputStream out;
+	
+	public SNVSpillFile(String dirName, int numSamples) throws IOException {
+		File dir = new File(dirName);
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create the spill directory " + dirName);
+		}
+		file = File.createTempFile("snvs-", ".spill", dir);
+		file.deleteOnExit();
+		this.numSamples = numSamples;
+		newBuffer();
+	}
+	
+	private void newBuffer() {
+		buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		out = new DataOutputStream(buffer);
+	}
+	
+	/** Appends the SNV in the given table row */
+	public void write(SNVTable table, int row) throws IOException {
+		out.writeInt(table.getId(row));
+		out.writeInt(table.getChromosome(row));
+		out.writeInt(table.getPosition(row));
+		byte[] desc = table.getDescription(row).getBytes(UTF8);
+		out.writeInt(desc.length);
+		out.write(desc);
+		for(int i = 0; i < numSamples; i++) {
+			out.writeDouble(table.getVAF(row, i));
+		}
+		out.writeBoolean(table.isRobust(row));
+		numSNVs++;
+		if(buffer.size() >= BUFFER_SIZE) {
+			flush();
+		}
+	}
+	
+	/** Appends the buffered SNVs to the file */
+	public void flush() throws IOException {
+		if(buffer.size() == 0) return;
+		FileOutputStream fos = new FileOutputStream(file, true);
+		try {
+			buffer.writeTo(fos);
+		} finally {
+			fos.close();
+		}
+		newBuffer();
+	}
+	
+	/** Reads all the SNVs into a new table (in the order they were written) */
+	public synchronized SNVTable load() throws IOException {
+		flush();
+		SNVTable table = new SNVTable(numSamples);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			double[] vaf = new double[numSamples];
+			for(int j = 0; j < numSNVs; j++) {
+				int id = in.readInt();
+				int chr = in.readInt();
+				int pos = in.readInt();
+				byte[] desc = new byte[in.readInt()];
+				in.readFully(desc);
+				for(int i = 0; i < numSamples; i++) {
+					vaf[i] = in.readDouble();
+				}
+				int row = table.addRow(id, chr, pos, new String(desc, UTF8), vaf);
+				table.setRobust(row, in.readBoolean());
+			}
+		} finally {
+			in.close();
+		}
+		table.trimToSize();
+		return table;
+	}
+	
+	public int getNumSNVs() {
+		return numSNVs;
+	}
+	
+	public void delete() {
+		buffer.reset();
+		numSNVs = 0;
+		file.delete();
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import lineage.SNVFileParser.ParsedChunk;
+
+/**
+ * Columnar table of the input SNVs shared by the data store and the SNV groups.
+ * Each SNV is a row: the input line id, chromosome and position are stored in int columns,
+ * the VAFs in one double column per sample and the descriptions in a single UTF-8 byte pool
+ * (decoded only when requested).
+ * Rows are appended during input loading and are not modified afterwards
+ * (except for the robustness flag set during SNV calling).
+ */
+public class SNVTable implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	/** Number of samples (VAF columns) */
+	private int numSamples;
+	
+	/** Number of rows */
+	private int numRows;
+	
+	/** Input line id of each row */
+	private int[] ids;
+	private int[] chrs;
+	private int[] positions;
+	
+	/** VAF columns (numSamples x capacity) */
+	private double[][] vafs;
+	
+	/** Description of row i is descPool[descOffsets[i], descOffsets[i+1]) */
+	private byte[] descPool;
+	private int[] descOffsets;
+	
+	/** Rows of the SNVs that were robustly called in all samples */
+	private BitSet robust;
+	
+	public SNVTable(int numSamples) {
+		this.numSamples = numSamples;
+		numRows = 0;
+		ids = new int[INITIAL_CAPACITY];
+		chrs = new int[INITIAL_CAPACITY];
+		positions = new int[INITIAL_CAPACITY];
+		vafs = new double[numSamples][INITIAL_CAPACITY];
+		descPool = new byte[16*INITIAL_CAPACITY];
+		descOffsets = new int[INITIAL_CAPACITY + 1];
+		robust = new BitSet();
+	}
+	
+	/**
+	 * Appends a row to the table
+	 * @param vaf - VAF of the SNV in each sample (copied)
+	 * @return index of the new row
+	 */
+	public int addRow(int id, int chr, int position, String description, double[] vaf) {
+		byte[] desc = description.getBytes(UTF8);
+		ensureCapacity(desc.length);
+		int row = numRows;
+		ids[row] = id;
+		chrs[row] = chr;
+		positions[row] = position;
+		for(int i = 0; i < numSamples; i++) {
+			vafs[i][row] = vaf[i];
+		}
+		int start = descOffsets[row];
+		System.arraycopy(desc, 0, descPool, start, desc.length);
+		descOffsets[row + 1] = start + desc.length;
+		robust.clear(row);
+		numRows++;
+		return row;
+	}
+	
+	/**
+	 * Appends a row parsed from the input file to the table
+	 * @param chunk - parsed chunk of the input file
+	 * @param i - row of the SNV in the chunk
+	 * @return index of the new row
+	 */
+	public int addRow(int id, ParsedChunk chunk, int i) {
+		ensureCapacity(chunk.descOffsets[i + 1] - chunk.descOffsets[i]);
+		int row = numRows;
+		ids[row] = id;
+		chrs[row] = chunk.chrs[i];
+		positions[row] = chunk.positions[i];
+		int offset = i*numSamples;
+		for(int j = 0; j < numSamples; j++) {
+			vafs[j][row] = chunk.vafs[offset + j];
+		}
+		int start = descOffsets[row];
+		int len = chunk.descOffsets[i + 1] - chunk.descOffsets[i];
+		System.arraycopy(chunk.descPool, chunk.descOffsets[i], descPool, start, len);
+		descOffsets[row + 1] = start + len;
+		robust.clear(row);
+		numRows++;
+		return row;
+	}
+	
+	/**
+	 * Appends a row of a binary SNV file to the table
+	 * @param row - row of the SNV in the file
+	 * @return index of the new row
+	 */
+	public int addRow(int id, SNVBinaryFile file, int row) {
+		int len = file.getDescriptionLength(row);
+		ensureCapacity(len);
+		int r = numRows;
+		ids[r] = id;
+		chrs[r] = file.getChromosome(row);
+		positions[r] = file.getPosition(row);
+		for(int j = 0; j < numSamples; j++) {
+			vafs[j][r] = file.getVAF(row, j);
+		}
+		int start = descOffsets[r];
+		file.getDescription(row, descPool, start);
+		descOffsets[r + 1] = start + len;
+		robust.clear(r);
+		numRows++;
+		return r;
+	}
+	
+	/** Makes room for one more row with a description of the given length */
+	private void ensureCapacity(int descLength) {
+		if(numRows == ids.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, 2*ids.length);
+			ids = Arrays.copyOf(ids, capacity);
+			chrs = Arrays.copyOf(chrs, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			for(int i = 0; i < numSamples; i++) {
+				vafs[i] = Arrays.copyOf(vafs[i], capacity);
+			}
+			descOffsets = Arrays.copyOf(descOffsets, capacity + 1);
+		}
+		int end = descOffsets[numRows] + descLength;
+		if(end > descPool.length) {
+			descPool = Arrays.copyOf(descPool, Math.max(2*descPool.length, end));
+		}
+	}
+	
+	/**
+	 * Removes the last row of the table
+	 * (used to drop SNVs that are filtered out right after being parsed)
+	 */
+	public void removeLastRow() {
+		numRows--;
+		robust.clear(numRows);
+	}
+	
+	/** Releases the unused capacity once all the rows were added */
+	public void trimToSize() {
+		ids = Arrays.copyOf(ids, numRows);
+		chrs = Arrays.copyOf(chrs, numRows);
+		positions = Arrays.copyOf(positions, numRows);
+		for(int i = 0; i < numSamples; i++) {
+			vafs[i] = Arrays.copyOf(vafs[i], numRows);
+		}
+		descPool = Arrays.copyOf(descPool, descOffsets[numRows]);
+		descOffsets = Arrays.copyOf(descOffsets, numRows + 1);
+	}
+	
+	// Getters/Setters
+	
+	public int getNumSamples() {
+		return numSamples;
+	}
+	
+	public int getNumRows() {
+		return numRows;
+	}
+	
+	public int getId(int row) {
+		return ids[row];
+	}
+	
+	public int getChromosome(int row) {
+		return chrs[row];
+	}
+	
+	public int getPosition(int row) {
+		return positions[row];
+	}
+	
+	public String getDescription(int row) {
+		return new String(descPool, descOffsets[row], descOffsets[row + 1] - descOffsets[row], UTF8);
+	}
+	
+	public double getVAF(int row, int sample) {
+		return vafs[sample][row];
+	}
+	
+	/**
+	 * Returns the VAF column of the given sample 
+	 * (only the first getNumRows() entries are valid, the array must not be modified)
+	 */
+	public double[] getVAFColumn(int sample) {
+		return vafs[sample];
+	}
+	
+	public boolean isRobust(int row) {
+		return robust.get(row);
+	}
+	
+	public void setRobust(int row, boolean isRobust) {
+		robust.set(row, isRobust);
+	}
+	
+	/** 
+	 * Returns the row fields separated by tabs (as in the input file, with the chromosome
+	 * written as chrN and the VAFs in their shortest decimal form)
+	 * @param profile - presence profile written after the description (null if not part of the input)
+	 */
+	public String getRowString(int row, SampleProfile profile) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("chr");
+		if(chrs[row] == 23) {
+			sb.append('X');
+		} else if(chrs[row] == 24) {
+			sb.append('Y');
+		} else {
+			sb.append(chrs[row]);
+		}
+		sb.append('\t').append(positions[row]).append('\t').append(getDescription(row));
+		if(profile != null) {
+			sb.append('\t').append(profile);
+		}
+		for(int i = 0; i < numSamples; i++) {
+			double vaf = vafs[i][row];
+			sb.append('\t');
+			if(vaf == (long) vaf) {
+				sb.append((long) vaf);
+			} else {
+				sb.append(BigDecimal.valueOf(vaf).stripTrailingZeros().toPlainString());
+			}
+		}
+		return sb.toString();
+	}
+}
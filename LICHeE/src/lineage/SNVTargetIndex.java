@@ -0,0 +1,314 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Index over the SNVs of a target group used to find the group SNV closest to 
+ * an ambiguous SNV (by the VAF ratio distance) without comparing it to all the SNVs.
+ *
+ * The SNVs are partitioned into small blocks by recursively splitting the group 
+ * at the median VAF of the sample with the widest VAF range. Each block keeps the 
+ * VAF range of its SNVs in every sample, which bounds the distance any of its SNVs 
+ * can have, so only the blocks that can improve on the best match are scanned.
+ * SNVs added after the index is built are appended to the last block.
+ *
+ * The best match is the first SNV with the maximum distance in the order of
+ * the targets and of the SNVs in each target group (as found by a sequential scan).
+ */
+public class SNVTargetIndex {
+	
+	/** Max number of SNVs per block */
+	private static final int BLOCK_SIZE = 16;
+	
+	/** VAF used in place of 0 in the distance */
+	private static final double MIN_VAF = 0.0001;
+	
+	private int numSamples;
+	
+	/** Position of the first indexed SNV in the group */
+	private int firstMember;
+	private int numMembers;
+	
+	private ArrayList<Block> blocks;
+	
+	/** VAF ranges of all the SNVs (the SNVs are not stored) */
+	private Block all;
+	
+	/** Block of SNVs with their per-sample VAF ranges */
+	private class Block {
+		/** False if only the VAF ranges are kept */
+		private boolean storeSNVs;
+		/** Positions of the SNVs in the group */
+		private int[] members;
+		/** VAFs of the SNVs (size x numSamples) */
+		private double[] vafs;
+		/** Presence of the SNVs (size x numSamples) */
+		private boolean[] present;
+		private int size;
+		/** First position of the block SNVs in the group */
+		private int minMember;
+		
+		private double[] minVAF;
+		private double[] maxVAF;
+		/** True if the SNVs are present in the sample */
+		private boolean[] anyPresent;
+		
+		private Block(int capacity, boolean storeSNVs) {
+			this.storeSNVs = storeSNVs;
+			if(storeSNVs) {
+				members = new int[capacity];
+				vafs = new double[capacity*numSamples];
+				present = new boolean[capacity*numSamples];
+			}
+			minMember = Integer.MAX_VALUE;
+			minVAF = new double[numSamples];
+			maxVAF = new double[numSamples];
+			anyPresent = new boolean[numSamples];
+			Arrays.fill(minVAF, Double.POSITIVE_INFINITY);
+			Arrays.fill(maxVAF, Double.NEGATIVE_INFINITY);
+		}
+		
+		private void add(SNVEntry snv, int member) {
+			minMember = Math.min(minMember, member);
+			if(storeSNVs) {
+				members[size] = member;
+			}
+			for(int i = 0; i < numSamples; i++) {
+				double vaf = snv.getVAF(i);
+				if(storeSNVs) {
+					vafs[size*numSamples + i] = vaf;
+					present[size*numSamples + i] = snv.isPresent(i);
+				}
+				minVAF[i] = Math.min(minVAF[i], vaf);
+				maxVAF[i] = Math.max(maxVAF[i], vaf);
+				anyPresent[i] |= snv.isPresent(i);
+			}
+			size++;
+		}
+		
+		/** Upper bound on the distance of the block SNVs to the SNV */
+		private double getMaxDistance(double[] vaf, boolean[] include) {
+			if(size == 0) return 0;
+			double bound = 0;
+			for(int i = 0; i < numSamples; i++) {
+				if(!include[i] && !anyPresent[i]) continue;
+				bound += getMaxRatio(vaf[i], minVAF[i], maxVAF[i]);
+			}
+			return bound;
+		}
+	}
+	
+	/** Best match of an ambiguous SNV */
+	public static class Match {
+		/** Distance to the target (0 if no match was found) */
+		protected double dist;
+		/** Index of the target (-1 if no match was found) */
+		protected int target = -1;
+		/** Position of the matched SNV in the target group */
+		protected int member;
+		/** Number of targets considered for the SNV */
+		protected int numTargets;
+		/** True if the SNV can be converted to the germline profile */
+		protected boolean isGermline;
+		
+		/** Updates the match if the given one comes first among the best matches */
+		protected void update(double d, int t, int m) {
+			if(isBefore(d, t, m)) {
+				dist = d;
+				target = t;
+				member = m;
+			}
+		}
+		
+		/** Returns true if a match with the given distance and position would replace this match */
+		protected boolean isBefore(double d, int t, int m) {
+			if(d > dist) return true;
+			return d == dist && d > 0 && (t < target || (t == target && m < member));
+		}
+		
+		public double getDistance() {
+			return dist;
+		}
+		
+		public int getTarget() {
+			return target;
+		}
+	}
+	
+	/**
+	 * Indexes the given SNVs of a target group
+	 * @param firstMember - position of the first SNV in the group
+	 */
+	public SNVTargetIndex(ArrayList<SNVEntry> snvs, int numSamples, int firstMember) {
+		this.numSamples = numSamples;
+		this.firstMember = firstMember;
+		numMembers = snvs.size();
+		blocks = new ArrayList<Block>();
+		all = new Block(0, false);
+		Integer[] order = new Integer[snvs.size()];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		partition(snvs, order, 0, order.length);
+		for(int i = 0; i < snvs.size(); i++) {
+			all.add(snvs.get(i), firstMember + i);
+		}
+	}
+	
+	/** Splits the SNVs in order[from, to) into blocks */
+	private void partition(final ArrayList<SNVEntry> snvs, Integer[] order, int from, int to) {
+		if(to - from <= BLOCK_SIZE) {
+			if(to == from) return;
+			Block b = new Block(BLOCK_SIZE, true);
+			for(int i = from; i < to; i++) {
+				b.add(snvs.get(order[i]), firstMember + order[i]);
+			}
+			blocks.add(b);
+			return;
+		}
+		// split at the median VAF of the sample with the widest range
+		int splitSample = 0;
+		double maxRange = -1;
+		for(int s = 0; s < numSamples; s++) {
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for(int i = from; i < to; i++) {
+				double vaf = snvs.get(order[i]).getVAF(s);
+				min = Math.min(min, vaf);
+				max = Math.max(max, vaf);
+			}
+			if(max - min > maxRange) {
+				maxRange = max - min;
+				splitSample = s;
+			}
+		}
+		final int sample = splitSample;
+		Arrays.sort(order, from, to, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(snvs.get(i1).getVAF(sample), snvs.get(i2).getVAF(sample));
+			}
+		});
+		int mid = (from + to) >>> 1;
+		partition(snvs, order, from, mid);
+		partition(snvs, order, mid, to);
+	}
+	
+	/** Appends an SNV to the group */
+	public void add(SNVEntry snv) {
+		if(blocks.size() == 0 || blocks.get(blocks.size() - 1).size == BLOCK_SIZE) {
+			blocks.add(new Block(BLOCK_SIZE, true));
+		}
+		blocks.get(blocks.size() - 1).add(snv, firstMember + numMembers);
+		all.add(snv, firstMember + numMembers);
+		numMembers++;
+	}
+	
+	public int size() {
+		return numMembers;
+	}
+	
+	/**
+	 * Updates the match with the closest SNV of this target group
+	 * @param target - index of this target 
+	 */
+	public void findBest(SNVEntry snv, int target, Match best) {
+		double[] vaf = new double[numSamples];
+		boolean[] include = new boolean[numSamples];
+		for(int i = 0; i < numSamples; i++) {
+			vaf[i] = snv.getVAF(i);
+			include[i] = snv.isPresent(i) || snv.evidenceOfPresence(i);
+		}
+		if(!canImprove(all, all.getMaxDistance(vaf, include), target, best)) return;
+		
+		double[] bounds = new double[blocks.size()];
+		int first = -1;
+		for(int b = 0; b < blocks.size(); b++) {
+			bounds[b] = blocks.get(b).getMaxDistance(vaf, include);
+			if(first == -1 || bounds[b] > bounds[first]) {
+				first = b;
+			}
+		}
+		// scan the most promising block first
+		scan(blocks.get(first), bounds[first], vaf, include, target, best);
+		for(int b = 0; b < blocks.size(); b++) {
+			if(b == first) continue;
+			scan(blocks.get(b), bounds[b], vaf, include, target, best);
+		}
+	}
+	
+	private void scan(Block b, double bound, double[] vaf, boolean[] include, int target, Match best) {
+		if(!canImprove(b, bound, target, best)) return;
+		for(int j = 0; j < b.size; j++) {
+			int offset = j*numSamples;
+			double dist = 0;
+			for(int i = 0; i < numSamples; i++) {
+				if(!b.present[offset + i] && !include[i]) continue;
+				double targetVAF = b.vafs[offset + i];
+				double min = targetVAF < vaf[i] ? targetVAF : vaf[i];
+				double max = targetVAF > vaf[i] ? targetVAF : vaf[i];
+				if(min == 0) {
+					min = MIN_VAF;
+				}
+				dist += min/max;
+			}
+			best.update(dist, target, b.members[j]);
+		}
+	}
+	
+	/** Returns true if an SNV of the block can replace the best match */
+	private static boolean canImprove(Block b, double bound, int target, Match best) {
+		return b.size > 0 && best.isBefore(bound, target, b.minMember);
+	}
+	
+	/**
+	 * Upper bound on the VAF ratio term of the distance 
+	 * between an SNV with the given VAF and SNVs with VAFs in [lo, hi]
+	 */
+	private static double getMaxRatio(double v, double lo, double hi) {
+		if(v < 0 || lo < 0) return Double.POSITIVE_INFINITY;
+		if(v == 0) {
+			return (lo > 0) ? MIN_VAF/lo : Double.POSITIVE_INFINITY;
+		}
+		double bound = 0;
+		if(lo == 0) {
+			bound = MIN_VAF/v;
+		}
+		if(lo <= v) {
+			bound = Math.max(bound, Math.min(hi, v)/v);
+		}
+		if(hi >= v) {
+			bound = Math.max(bound, v/Math.max(lo, v));
+		}
+		return bound;
+	}
+}
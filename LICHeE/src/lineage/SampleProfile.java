@@ -0,0 +1,216 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Sample presence-absence profile packed into bits 
+ * (bit i is set if the mutations are present in sample i).
+ * Profiles of up to 64 samples are stored in a single long.
+ * 
+ * Profiles are immutable; the string form is the '0'/'1' tag of the samples
+ */
+public class SampleProfile implements Serializable, Comparable<SampleProfile> {
+	private static final long serialVersionUID = 1L;
+	
+	/** Max number of samples stored in a single word */
+	private static final int MAX_SINGLE_WORD_SAMPLES = 64;
+	
+	/** Number of samples */
+	private final int numSamples;
+	/** Profile bits (if numSamples <= 64) */
+	private final long bits;
+	/** Profile bits of sample i in words[i/64] (null if numSamples <= 64) */
+	private final long[] words;
+	/** Cached hash code (0 if not computed yet) */
+	private int hash;
+	
+	/**
+	 * @param words - bit i of words[i/64] is set if sample i is present
+	 * (the array is copied)
+	 */
+	public SampleProfile(int numSamples, long[] words) {
+		this.numSamples = numSamples;
+		if(numSamples <= MAX_SINGLE_WORD_SAMPLES) {
+			this.bits = (words.length > 0) ? words[0] : 0;
+			this.words = null;
+		} else {
+			this.bits = 0;
+			this.words = Arrays.copyOf(words, getNumWords(numSamples));
+		}
+	}
+	
+	/** Parses a '0'/'1' profile tag (any character other than '1' is treated as absent) */
+	public static SampleProfile fromString(String tag) {
+		long[] w = newWords(tag.length());
+		for(int i = 0; i < tag.length(); i++) {
+			if(tag.charAt(i) == '1') {
+				w[i >>> 6] |= 1L << i;
+			}
+		}
+		return new SampleProfile(tag.length(), w);
+	}
+	
+	/** Returns the profile with all samples absent */
+	public static SampleProfile none(int numSamples) {
+		return new SampleProfile(numSamples, newWords(numSamples));
+	}
+	
+	/** Returns the profile with all samples present */
+	public static SampleProfile all(int numSamples) {
+		long[] w = newWords(numSamples);
+		Arrays.fill(w, -1L);
+		if(numSamples % 64 != 0) {
+			w[w.length - 1] = (1L << numSamples) - 1;
+		}
+		return new SampleProfile(numSamples, w);
+	}
+	
+	/** Returns a cleared word array for a profile of the given number of samples */
+	public static long[] newWords(int numSamples) {
+		return new long[getNumWords(numSamples)];
+	}
+	
+	private static int getNumWords(int numSamples) {
+		return (numSamples + 63) >>> 6;
+	}
+	
+	private long getWord(int w) {
+		return (words == null) ? bits : words[w];
+	}
+	
+	public int getNumSamples() {
+		return numSamples;
+	}
+	
+	/** Returns true if the sample is present */
+	public boolean get(int sample) {
+		return (getWord(sample >>> 6) & (1L << sample)) != 0;
+	}
+	
+	/** Returns the number of samples present */
+	public int cardinality() {
+		if(words == null) {
+			return Long.bitCount(bits);
+		}
+		int c = 0;
+		for(long w : words) {
+			c += Long.bitCount(w);
+		}
+		return c;
+	}
+	
+	/** Returns true if the mutations are absent in all samples */
+	public boolean isEmpty() {
+		if(words == null) {
+			return bits == 0;
+		}
+		for(long w : words) {
+			if(w != 0) return false;
+		}
+		return true;
+	}
+	
+	/** Returns true if all the samples present in this profile are present in p */
+	public boolean isSubsetOf(SampleProfile p) {
+		if(words == null) {
+			return (bits & ~p.bits) == 0;
+		}
+		for(int i = 0; i < words.length; i++) {
+			if((words[i] & ~p.words[i]) != 0) return false;
+		}
+		return true;
+	}
+	
+	/** Returns true if all the samples present in p are present in this profile */
+	public boolean isSupersetOf(SampleProfile p) {
+		return p.isSubsetOf(this);
+	}
+	
+	/**
+	 * Returns true if the target profile can be obtained from this profile
+	 * by only setting samples that are present in the allowed profile
+	 */
+	public boolean canExtendTo(SampleProfile target, SampleProfile allowed) {
+		if(words == null) {
+			return (bits & ~target.bits) == 0 && (target.bits & ~(bits | allowed.bits)) == 0;
+		}
+		for(int i = 0; i < words.length; i++) {
+			if((words[i] & ~target.words[i]) != 0) return false;
+			if((target.words[i] & ~(words[i] | allowed.words[i])) != 0) return false;
+		}
+		return true;
+	}
+	
+	public boolean equals(Object o) {
+		if(this == o) return true;
+		if(!(o instanceof SampleProfile)) return false;
+		SampleProfile p = (SampleProfile) o;
+		return numSamples == p.numSamples && bits == p.bits && Arrays.equals(words, p.words);
+	}
+	
+	/**
+	 * The hash code is equal to the hash code of the string tag,
+	 * so that hash maps keyed by profiles iterate over the groups 
+	 * in the same order as when keyed by the tags
+	 */
+	public int hashCode() {
+		int h = hash;
+		if(h == 0) {
+			for(int i = 0; i < numSamples; i++) {
+				h = 31*h + (get(i) ? '1' : '0');
+			}
+			hash = h;
+		}
+		return h;
+	}
+	
+	/** Orders the profiles as their string tags */
+	public int compareTo(SampleProfile p) {
+		int n = Math.min(getNumWords(numSamples), getNumWords(p.numSamples));
+		for(int i = 0; i < n; i++) {
+			long diff = getWord(i) ^ p.getWord(i);
+			if(diff != 0) {
+				return ((getWord(i) & Long.lowestOneBit(diff)) != 0) ? 1 : -1;
+			}
+		}
+		return numSamples - p.numSamples;
+	}
+	
+	public String toString() {
+		char[] tag = new char[numSamples];
+		for(int i = 0; i < numSamples; i++) {
+			tag[i] = get(i) ? '1' : '0';
+		}
+		return new String(tag);
+	}
+}
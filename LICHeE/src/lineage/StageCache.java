@@ -0,0 +1,263 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import lineage.LineageEngine.Args;
+
+/**
+ * On-disk cache of the results of the pipeline stages.
+ * Each stage is stored in a separate file named by a hash of the input files
+ * and of the parameters that the stage (and all preceding stages) depend on,
+ * so that a rerun with different display/output options can resume from the
+ * deepest stage that is still valid.
+ */
+public class StageCache {
+
+	/** Cached pipeline stages (in pipeline order) */
+	public enum Stage {
+		SNVS,
+		CLUSTERS,
+		NETWORK,
+		TREES
+	}
+
+	/** Version of the cache file format (changing it invalidates all cached stages) */
+	private static final int CACHE_VERSION = 4;
+	private static final String CACHE_FILE_EXTENSION = ".bin.gz";
+
+	/** Cache directory */
+	private File cacheDir;
+
+	/** Key of each stage */
+	private String[] stageKeys;
+
+	private static Logger logger = LineageEngine.logger;
+
+	public StageCache(String cacheDirName, Args args) {
+		cacheDir = new File(cacheDirName);
+		if(!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			logger.warning("Failed to create the cache directory: " + cacheDirName);
+		}
+		stageKeys = new String[Stage.values().length];
+
+		MessageDigest md = getDigest();
+		md.update(("v" + CACHE_VERSION).getBytes());
+		updateWithFile(md, args.inputFileName);
+		if(args.clustersFileName != null) {
+			updateWithFile(md, args.clustersFileName);
+		}
+		String key = toHex(md.digest());
+		for(Stage s : Stage.values()) {
+			md.update(key.getBytes());
+			md.update(getStageParameters(s, args).getBytes());
+			key = toHex(md.digest());
+			stageKeys[s.ordinal()] = key;
+		}
+	}
+
+	/**
+	 * Returns the values of the parameters the given stage depends on
+	 * (the parameters of the preceding stages are accounted for by the key chaining)
+	 */
+	private static String getStageParameters(Stage s, Args args) {
+		switch(s) {
+		case SNVS:
+			return "normal=" + args.normalSampleId
+					+ ",format=" + Parameters.INPUT_FORMAT
+					+ ",cp=" + Parameters.CP
+					+ ",maxAllowedVAF=" + Parameters.MAX_ALLOWED_VAF
+					+ ",minVAFPresent=" + Parameters.MIN_VAF_PRESENT
+					+ ",maxVAFAbsent=" + Parameters.MAX_VAF_ABSENT
+					+ ",minSNVsPerGroup=" + Parameters.MIN_SNVS_PER_GROUP
+					+ ",minRobustSNVsPerGroup=" + Parameters.MIN_ROBUST_SNVS_PER_GROUP
+					+ ",minGroupProfileSupport=" + Parameters.MIN_GROUP_PROFILE_SUPPORT
+					+ ",minVAFTargetRatio=" + Parameters.MIN_VAF_TARGET_RATIO_PER_SAMPLE;
+		case CLUSTERS:
+			return "minClusterSize=" + Parameters.MIN_CLUSTER_SIZE
+					+ ",minPrivateClusterSize=" + Parameters.MIN_PRIVATE_CLUSTER_SIZE
+					+ ",minRobustClusterSupport=" + Parameters.MIN_ROBUST_CLUSTER_SUPPORT
+					+ ",maxCollapseClusterDiff=" + Parameters.MAX_COLLAPSE_CLUSTER_DIFF
+					+ ",coresetSize=" + Parameters.CORESET_SIZE;
+		case NETWORK:
+			return "vafMax=" + Parameters.VAF_MAX
+					+ ",vafErrorMargin=" + Parameters.VAF_ERROR_MARGIN
+					+ ",allEdges=" + Parameters.ALL_EDGES;
+		case TREES:
+			return "maxNumTrees=" + Parameters.MAX_NUM_TREES
+					+ ",maxNumGrowCalls=" + Parameters.MAX_NUM_GROW_CALLS
+					+ ",numTreesForConsistencyCheck=" + Parameters.NUM_TREES_FOR_CONSISTENCY_CHECK;
+		}
+		return "";
+	}
+
+	/**
+	 * Loads the objects stored for the given stage
+	 * @return the stored objects (in the order they were saved) or null if the stage
+	 * is not in the cache or could not be read
+	 */
+	public Object[] load(Stage s) {
+		File f = getStageFile(s);
+		if(!f.isFile()) return null;
+		try {
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(f))));
+			try {
+				Object[] objs = (Object[]) in.readObject();
+				logger.fine("Loaded cached stage " + s + " from " + f.getPath());
+				return objs;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			logger.warning("Failed to read the cached stage " + s + " (will recompute): " + e.getMessage());
+		} catch (ClassNotFoundException e) {
+			logger.warning("Failed to read the cached stage " + s + " (will recompute): " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the given objects for the given stage
+	 * Objects saved together keep their shared references when loaded
+	 */
+	public void save(Stage s, Object... objs) {
+		try {
+			atomicWriteObject(getStageFile(s), objs);
+		} catch (IOException e) {
+			logger.warning("Failed to cache stage " + s + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Serializes the object to the given (gzip-compressed) file
+	 * The object is written to a temporary file in the same directory that replaces 
+	 * the file only once it was fully written (concurrent writers use distinct temporary files)
+	 */
+	static void atomicWriteObject(File f, Object o) throws IOException {
+		File tmp = File.createTempFile(f.getName(), ".tmp", f.getAbsoluteFile().getParentFile());
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))));
+			try {
+				out.writeObject(o);
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(f)) {
+				f.delete();
+				if(!tmp.renameTo(f)) {
+					throw new IOException("could not rename " + tmp.getPath());
+				}
+			}
+		} finally {
+			// no-op once the file was renamed
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Reads an object serialized by atomicWriteObject
+	 */
+	static Object readObject(File f) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(f))));
+		try {
+			return in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the values of the parameters the given stage and all the preceding stages depend on
+	 */
+	static String getParameters(Stage s, Args args) {
+		String params = "v" + CACHE_VERSION;
+		for(Stage prev : Stage.values()) {
+			if(prev.ordinal() > s.ordinal()) break;
+			params += ";" + getStageParameters(prev, args);
+		}
+		return params;
+	}
+
+	private File getStageFile(Stage s) {
+		return new File(cacheDir, s.toString().toLowerCase() + "-" + stageKeys[s.ordinal()] + CACHE_FILE_EXTENSION);
+	}
+
+	// ---- Hashing ----
+
+	private static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void updateWithFile(MessageDigest md, String fileName) {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+			try {
+				byte[] buf = new byte[1 << 16];
+				int n;
+				while((n = in.read(buf)) > 0) {
+					md.update(buf, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// the pipeline reports missing input files
+			md.update(fileName.getBytes());
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
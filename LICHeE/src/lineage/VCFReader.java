@@ -0,0 +1,264 @@
+/*
+ * Program LICHeE for multi-sample cancer phylogeny reconstruction
+ * by Victoria Popic (viq@stanford.edu) 2014
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+package lineage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import util.InputFiles;
+
+/**
+ * Streaming reader of multi-sample VCF files (plain or gzip/BGZF compressed).
+ * Each bi- or multi-allelic single-base substitution is returned as one SNV per 
+ * alternative allele, with the VAF of each sample computed from its FORMAT fields:
+ * AD (alt depth / DP, or / total AD depth if DP is missing) or, if AD is not available, AF.
+ * Indels, structural variants, filtered records (FILTER other than PASS or '.') 
+ * and records on contigs other than chr1-22, X and Y are skipped without parsing the sample columns.
+ */
+public class VCFReader {
+	
+	private static final int NUM_FIXED_FIELDS = 9;
+	
+	private BufferedReader rd;
+	private ArrayList<String> sampleNames;
+	
+	/** Current record */
+	private String line;
+	private String[] fields;
+	private String[] alts;
+	/** Index of the next alternative allele of the current record */
+	private int nextAlt;
+	
+	/** Current SNV */
+	private int chr;
+	private int position;
+	private String description;
+	private double[] vafs;
+	
+	private int numSkipped;
+	
+	/**
+	 * Opens the file and reads the meta-information and header lines
+	 */
+	public VCFReader(String fileName) throws IOException {
+		rd = new BufferedReader(new InputStreamReader(InputFiles.open(fileName, Parameters.NUM_THREADS)), 1 << 16);
+		String currLine = rd.readLine();
+		if(currLine == null) {
+			SNVDataStore.returnInputFileFormatError("Empty file", null);
+		}
+		while(currLine != null && currLine.startsWith("##")) {
+			currLine = rd.readLine();
+		}
+		if(currLine == null || !currLine.startsWith("#CHROM")) {
+			SNVDataStore.returnInputFileFormatError("Missing VCF header line (#CHROM ...)", currLine);
+		}
+		String[] headerParts = currLine.split("\t");
+		if(headerParts.length < NUM_FIXED_FIELDS + 2) {
+			SNVDataStore.returnInputFileFormatError("The VCF header must have a FORMAT field and at least 2 samples (separated by tabs)", currLine);
+		}
+		sampleNames = new ArrayList<String>(Arrays.asList(headerParts).subList(NUM_FIXED_FIELDS, headerParts.length));
+		vafs = new double[sampleNames.size()];
+		alts = new String[0];
+		nextAlt = 0;
+		numSkipped = 0;
+	}
+	
+	public ArrayList<String> getSampleNames() {
+		return sampleNames;
+	}
+	
+	/**
+	 * Advances to the next SNV
+	 * @return false at the end of the file
+	 */
+	public boolean next() throws IOException {
+		String alt = null;
+		int altIndex = 0;
+		while(alt == null) {
+			while(nextAlt == alts.length) {
+				if(!nextRecord()) return false;
+			}
+			alt = alts[nextAlt];
+			altIndex = nextAlt + 1;
+			nextAlt++;
+			if(alt.length() != 1 || !isBase(alt.charAt(0))) {
+				// insertion, symbolic or missing allele
+				numSkipped++;
+				alt = null;
+			}
+		}
+		description = fields[3] + ">" + alt + (fields[2].equals(".") ? "" : " " + fields[2]);
+		computeVAFs(altIndex);
+		return true;
+	}
+	
+	/**
+	 * Reads the next SNV record (other records are skipped)
+	 * @return false at the end of the file
+	 */
+	private boolean nextRecord() throws IOException {
+		while((line = rd.readLine()) != null) {
+			if(line.length() == 0 || line.charAt(0) == '#') continue;
+			// check the fixed fields before splitting the sample columns
+			int[] tabs = new int[7];
+			int numTabs = 0;
+			for(int i = 0; i < line.length() && numTabs < tabs.length; i++) {
+				if(line.charAt(i) == '\t') {
+					tabs[numTabs++] = i;
+				}
+			}
+			if(numTabs < tabs.length) {
+				SNVDataStore.returnInputFileFormatError("Expecting " + NUM_FIXED_FIELDS + " fields and " + sampleNames.size() + " samples based on the header", line);
+			}
+			// REF (4th field) must be a single base
+			if(tabs[3] - tabs[2] != 2 || !isBase(line.charAt(tabs[2] + 1))) {
+				numSkipped++;
+				continue;
+			}
+			String filter = line.substring(tabs[5] + 1, tabs[6]);
+			if(!filter.equals("PASS") && !filter.equals(".")) {
+				numSkipped++;
+				continue;
+			}
+			chr = SNVFileParser.parseChrNum(line.substring(0, tabs[0]).trim().toLowerCase());
+			if(chr == -1) {
+				numSkipped++;
+				continue;
+			}
+			
+			fields = line.split("\t");
+			if(fields.length != NUM_FIXED_FIELDS + sampleNames.size()) {
+				SNVDataStore.returnInputFileFormatError("Expecting " + NUM_FIXED_FIELDS + " fields and " + sampleNames.size() + " samples based on the header", line);
+			}
+			try {
+				position = Integer.parseInt(fields[1].trim());
+			} catch (NumberFormatException e) {
+				SNVDataStore.returnInputFileFormatError("Position " + fields[1].trim(), line);
+			}
+			alts = fields[4].split(",");
+			nextAlt = 0;
+			return true;
+		}
+		return false;
+	}
+	
+	private static boolean isBase(char c) {
+		switch(c) {
+		case 'A': case 'C': case 'G': case 'T':
+		case 'a': case 'c': case 'g': case 't':
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * Computes the VAF of the given alternative allele in each sample
+	 * (missing values are set to 0)
+	 */
+	private void computeVAFs(int altIndex) {
+		String[] format = fields[8].split(":");
+		int ad = -1, dp = -1, af = -1;
+		for(int i = 0; i < format.length; i++) {
+			if(format[i].equals("AD")) ad = i;
+			else if(format[i].equals("DP")) dp = i;
+			else if(format[i].equals("AF")) af = i;
+		}
+		if(ad == -1 && af == -1) {
+			SNVDataStore.returnInputFileFormatError("The FORMAT field must contain AD or AF to compute the VAFs", line);
+		}
+		for(int s = 0; s < vafs.length; s++) {
+			String[] values = fields[NUM_FIXED_FIELDS + s].split(":");
+			vafs[s] = 0;
+			try {
+				if(ad != -1) {
+					if(ad >= values.length) continue;
+					String[] depths = values[ad].split(",");
+					if(altIndex >= depths.length || depths[altIndex].equals(".")) continue;
+					double altDepth = Double.parseDouble(depths[altIndex]);
+					double depth = 0;
+					if(dp != -1 && dp < values.length && !values[dp].equals(".")) {
+						depth = Double.parseDouble(values[dp]);
+					}
+					if(depth <= 0) {
+						for(String d : depths) {
+							if(!d.equals(".")) {
+								depth += Double.parseDouble(d);
+							}
+						}
+					}
+					vafs[s] = (depth > 0) ? altDepth/depth : 0;
+				} else {
+					if(af >= values.length) continue;
+					String[] freqs = values[af].split(",");
+					if(altIndex - 1 >= freqs.length || freqs[altIndex - 1].equals(".")) continue;
+					vafs[s] = Double.parseDouble(freqs[altIndex - 1]);
+				}
+			} catch (NumberFormatException e) {
+				SNVDataStore.returnInputFileFormatError("VAF value of sample " + sampleNames.get(s) + ": " + fields[NUM_FIXED_FIELDS + s], line);
+			}
+		}
+	}
+	
+	// Current SNV
+	
+	public int getChromosome() {
+		return chr;
+	}
+	
+	public int getPosition() {
+		return position;
+	}
+	
+	public String getDescription() {
+		return description;
+	}
+	
+	/** Returns the VAFs of the current SNV (the array is reused for the next SNV) */
+	public double[] getVAFs() {
+		return vafs;
+	}
+	
+	/** Returns the number of records and alleles skipped so far */
+	public int getNumSkipped() {
+		return numSkipped;
+	}
+	
+	public void close() {
+		try {
+			rd.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream over a BGZF (blocked gzip) file.
+ * BGZF files are a series of gzip members of at most 64KB each whose size is stored
+ * in the 'BC' extra field, so the blocks can be located without decompressing them.
+ * Batches of blocks are decompressed in parallel on worker threads 
+ * and the stream returns their data in file order.
+ */
+public class BGZFInputStream extends InputStream {
+	
+	/** Size of the fixed gzip member header (up to and including XLEN) */
+	private static final int HEADER_SIZE = 12;
+	/** Number of blocks decompressed by each task */
+	private static final int BLOCKS_PER_TASK = 16;
+	
+	private InputStream in;
+	private ExecutorService pool;
+	/** Decompression tasks in file order */
+	private ArrayDeque<Future<byte[]>> pending;
+	private int maxPending;
+	private boolean eof;
+	
+	/** Decompressed data being read */
+	private byte[] buf;
+	private int pos;
+	
+	public BGZFInputStream(InputStream compressed, int numThreads) {
+		in = new BufferedInputStream(compressed, 1 << 16);
+		numThreads = Math.max(1, numThreads);
+		pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bgzf-inflater");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pending = new ArrayDeque<Future<byte[]>>();
+		maxPending = 2*numThreads;
+		eof = false;
+		buf = new byte[0];
+		pos = 0;
+	}
+	
+	/**
+	 * Returns true if the given bytes start with a BGZF block header
+	 */
+	public static boolean isBGZFHeader(byte[] header, int length) {
+		if(length < HEADER_SIZE + 6) return false;
+		if((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 4) == 0) {
+			return false;
+		}
+		return header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+	}
+	
+	public int read() throws IOException {
+		if(pos == buf.length && !nextBuffer()) return -1;
+		return buf[pos++] & 0xff;
+	}
+	
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0) return 0;
+		if(pos == buf.length && !nextBuffer()) return -1;
+		int n = Math.min(len, buf.length - pos);
+		System.arraycopy(buf, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+	
+	public int available() {
+		return buf.length - pos;
+	}
+	
+	public void close() throws IOException {
+		pool.shutdownNow();
+		in.close();
+	}
+	
+	/**
+	 * Moves to the data of the next decompressed batch of blocks
+	 * @return false at the end of the file
+	 */
+	private boolean nextBuffer() throws IOException {
+		while(true) {
+			while(!eof && pending.size() < maxPending) {
+				submitBatch();
+			}
+			if(pending.isEmpty()) return false;
+			try {
+				buf = pending.poll().get();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			pos = 0;
+			if(buf.length > 0) return true;
+		}
+	}
+	
+	/** Reads the next batch of compressed blocks and submits it for decompression */
+	private void submitBatch() throws IOException {
+		final byte[][] blocks = new byte[BLOCKS_PER_TASK][];
+		int n = 0;
+		while(n < BLOCKS_PER_TASK) {
+			byte[] block = readBlock();
+			if(block == null) {
+				eof = true;
+				break;
+			}
+			blocks[n++] = block;
+		}
+		if(n == 0) return;
+		final int numBlocks = n;
+		pending.add(pool.submit(new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				return inflateBlocks(blocks, numBlocks);
+			}
+		}));
+	}
+	
+	/**
+	 * Reads a compressed block
+	 * @return the block bytes (including the header and trailer) or null at the end of the file
+	 */
+	private byte[] readBlock() throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		int n = readFully(header, 0, HEADER_SIZE);
+		if(n == 0) return null;
+		if(n < HEADER_SIZE || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || (header[3] & 4) == 0) {
+			throw new IOException("Invalid BGZF block header");
+		}
+		int xlen = (header[10] & 0xff) | ((header[11] & 0xff) << 8);
+		byte[] extra = new byte[xlen];
+		if(readFully(extra, 0, xlen) < xlen) {
+			throw new EOFException("Truncated BGZF block");
+		}
+		// find the block size subfield
+		int blockSize = -1;
+		int i = 0;
+		while(i + 4 <= xlen) {
+			int slen = (extra[i+2] & 0xff) | ((extra[i+3] & 0xff) << 8);
+			if(extra[i] == 'B' && extra[i+1] == 'C' && slen == 2 && i + 6 <= xlen) {
+				blockSize = ((extra[i+4] & 0xff) | ((extra[i+5] & 0xff) << 8)) + 1;
+				break;
+			}
+			i += 4 + slen;
+		}
+		if(blockSize < HEADER_SIZE + xlen + 8) {
+			throw new IOException("Missing BGZF block size");
+		}
+		byte[] block = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+		System.arraycopy(extra, 0, block, HEADER_SIZE, xlen);
+		int rest = blockSize - HEADER_SIZE - xlen;
+		if(readFully(block, HEADER_SIZE + xlen, rest) < rest) {
+			throw new EOFException("Truncated BGZF block");
+		}
+		return block;
+	}
+	
+	private int readFully(byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while(total < len) {
+			int n = in.read(b, off + total, len - total);
+			if(n < 0) break;
+			total += n;
+		}
+		return total;
+	}
+	
+	/**
+	 * Decompresses the given blocks and returns their concatenated data
+	 * (the CRC and size of each block are verified)
+	 */
+	private static byte[] inflateBlocks(byte[][] blocks, int numBlocks) throws IOException {
+		int total = 0;
+		for(int b = 0; b < numBlocks; b++) {
+			total += getInflatedSize(blocks[b]);
+		}
+		byte[] out = new byte[total];
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+		try {
+			int off = 0;
+			for(int b = 0; b < numBlocks; b++) {
+				byte[] block = blocks[b];
+				int xlen = (block[10] & 0xff) | ((block[11] & 0xff) << 8);
+				int dataStart = HEADER_SIZE + xlen;
+				int size = getInflatedSize(block);
+				inflater.reset();
+				inflater.setInput(block, dataStart, block.length - dataStart - 8);
+				int n = 0;
+				while(n < size) {
+					int k = inflater.inflate(out, off + n, size - n);
+					if(k == 0 && (inflater.finished() || inflater.needsInput())) break;
+					n += k;
+				}
+				crc.reset();
+				crc.update(out, off, n);
+				if(n != size || (int) crc.getValue() != readInt(block, block.length - 8)) {
+					throw new IOException("Corrupt BGZF block");
+				}
+				off += size;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return out;
+	}
+	
+	/** Returns the uncompressed size of a block (ISIZE field of the trailer) */
+	private static int getInflatedSize(byte[] block) {
+		return readInt(block, block.length - 4);
+	}
+	
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xff) | ((b[off+1] & 0xff) << 8) | ((b[off+2] & 0xff) << 16) | ((b[off+3] & 0xff) << 24);
+	}
+}
@@ -46,6 +46,23 @@ public class CNVRegion {
 	}
 
 	
+	public int getChromosome(){
+		return chr;
+	}
+	
+	public int getStartPosition(){
+		return startPos;
+	}
+	
+	public int getEndPosition(){
+		return endPos;
+	}
+	
+	/** Returns true if the region covers the whole chromosome */
+	public boolean isWholeChromosome(){
+		return whole;
+	}
+	
 	public String toString(){
 		String str = chr +"\t"+ startPos+"\t"+endPos;
 		return str;
@@ -0,0 +1,53 @@
+package util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens input files that can be plain text, gzip or BGZF (blocked gzip) compressed
+ * The compression is detected from the file contents, not from its extension.
+ */
+public class InputFiles {
+	
+	/** Returns true if the file is gzip compressed (including BGZF) */
+	public static boolean isCompressed(String fileName) throws IOException {
+		byte[] header = readHeader(fileName);
+		return header.length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+	}
+	
+	/**
+	 * Opens the file for reading its (decompressed) contents
+	 * BGZF files are decompressed on the given number of threads
+	 */
+	public static InputStream open(String fileName, int numThreads) throws IOException {
+		byte[] header = readHeader(fileName);
+		if(BGZFInputStream.isBGZFHeader(header, header.length)) {
+			return new BGZFInputStream(new FileInputStream(fileName), numThreads);
+		}
+		if(header.length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b) {
+			return new GZIPInputStream(new FileInputStream(fileName), 1 << 16);
+		}
+		return new FileInputStream(fileName);
+	}
+	
+	/** Reads the first bytes of the file (enough to identify a BGZF block header) */
+	private static byte[] readHeader(String fileName) throws IOException {
+		FileInputStream in = new FileInputStream(fileName);
+		try {
+			byte[] header = new byte[18];
+			int n = 0;
+			while(n < header.length) {
+				int k = in.read(header, n, header.length - n);
+				if(k < 0) break;
+				n += k;
+			}
+			byte[] b = new byte[n];
+			System.arraycopy(header, 0, b, 0, n);
+			return b;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -32,6 +32,7 @@ import javax.swing.UIManager;
 import lineage.PHYNetwork;
 import lineage.PHYNode;
 import lineage.PHYTree;
+import lineage.SampleProfile;
 import lineage.SNVEntry;
 
 import org.apache.commons.collections15.Transformer;
@@ -119,7 +120,7 @@ public class Visualizer {
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public static void showLineageTree(DirectedGraph<Integer, Integer> g, final HashMap<Integer, String> nodeLabels, 
-			final HashMap<String, ArrayList<SNVEntry>> snvsByTag, 
+			final HashMap<SampleProfile, ArrayList<SNVEntry>> snvsByTag, 
 			String fileOutputName, final HashMap<Integer, PHYNode> nodeInfo, 
 			final PHYTree t, final PHYNetwork net, final ArrayList<String> sampleNames) {	
 		DelegateTree<Integer, Integer> tree = new DelegateTree<Integer, Integer>(g);
@@ -220,7 +221,7 @@ public class Visualizer {
 		                			consoleTextArea.setText(""); 
 		                			return;
 		                		}
-		                		snvs = n.getSNVs(n.getSNVGroup().getSNVs());
+		                		snvs = n.getSNVs();
 		                	} else {
 		                		if(n.getSNVGroup() == null) {
 		                			consoleTextArea.setText(""); 